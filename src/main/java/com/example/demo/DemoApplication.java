@@ -2,6 +2,7 @@ package com.example.demo;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Spring Boot 应用的主启动类
@@ -14,7 +15,9 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 // 3. @ComponentScan: 开启组件扫描。
 //    默认扫描当前包 (com.example.demo) 及其所有子包下的 @Controller, @Service, @Repository, @Component 等注解。
 //    这就是为什么你的 Controller 必须放在这个类的同级或子包下的原因。
+// @EnableScheduling: 开启定时任务，让 @Scheduled 注解生效 (IMAP 连接池的保活/回收就靠它)。
 @SpringBootApplication
+@EnableScheduling
 public class DemoApplication {
 
     /**
@@ -0,0 +1,57 @@
+package com.example.demo.config;
+
+import com.example.demo.model.UserAccount;
+import com.example.demo.service.MailboxWatcher;
+import jakarta.servlet.http.HttpSessionAttributeListener;
+import jakarta.servlet.http.HttpSessionBindingEvent;
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 会话监听器：根据 Session 里的 "currentUser" 启动/停止新邮件推送监听
+ * * 触发时机：
+ * 1. 登录、绑定第一个邮箱、切换账号 -> Session 里放入/替换 currentUser -> 开始监听这个账号；
+ * 2. 退出登录、Session 过期、删除当前账号 -> currentUser 被移除或 Session 销毁 -> 停止监听。
+ * Spring Boot 会自动把这个 Bean 注册到 Servlet 容器里，不需要额外配置。
+ */
+@Component
+public class MailboxSessionListener implements HttpSessionListener, HttpSessionAttributeListener {
+
+    private static final String CURRENT_USER = "currentUser";
+
+    @Autowired
+    private MailboxWatcher mailboxWatcher;
+
+    @Override
+    public void attributeAdded(HttpSessionBindingEvent event) {
+        if (CURRENT_USER.equals(event.getName()) && event.getValue() instanceof UserAccount) {
+            mailboxWatcher.register(event.getSession().getId(), (UserAccount) event.getValue());
+        }
+    }
+
+    @Override
+    public void attributeReplaced(HttpSessionBindingEvent event) {
+        if (!CURRENT_USER.equals(event.getName())) return;
+        // event.getValue() 是被替换掉的旧值，新值要从 Session 里取
+        mailboxWatcher.unregister(event.getSession().getId());
+        Object current = event.getSession().getAttribute(CURRENT_USER);
+        if (current instanceof UserAccount) {
+            mailboxWatcher.register(event.getSession().getId(), (UserAccount) current);
+        }
+    }
+
+    @Override
+    public void attributeRemoved(HttpSessionBindingEvent event) {
+        if (CURRENT_USER.equals(event.getName())) {
+            mailboxWatcher.unregister(event.getSession().getId());
+        }
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent se) {
+        // Session 过期时属性移除事件也会触发，这里再保险一次 (重复调用没有影响)
+        mailboxWatcher.unregister(se.getSession().getId());
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.demo.config;
+
+import com.example.demo.model.EmailInfo;
+import com.example.demo.model.UserAccount;
+import com.example.demo.service.MailPrefetcher;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 列表页预取拦截器
+ * 作用：在邮件列表页 (/inbox, /sent, /trash) 渲染完、响应发给浏览器之后，触发后台预取。
+ * * 为什么放在拦截器里而不是 Controller 里？
+ * Controller 返回时页面还没渲染，这时候开始预取会和渲染抢 CPU / 连接；
+ * afterCompletion 在页面渲染完成后才执行，先把响应刷给浏览器，再把预取任务丢进后台线程池。
+ */
+@Component
+public class PrefetchInterceptor implements HandlerInterceptor {
+
+    // postHandle 时把列表页的数据暂存在 request 里，afterCompletion 时再取出来
+    private static final String MODEL_ATTR = PrefetchInterceptor.class.getName() + ".model";
+
+    @Autowired
+    private MailPrefetcher mailPrefetcher;
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        // 只处理真正渲染了列表页的请求 (重定向到登录页等情况跳过)
+        if (modelAndView != null && "inbox".equals(modelAndView.getViewName())
+                && modelAndView.getModel().containsKey("emails")) {
+            request.setAttribute(MODEL_ATTR, modelAndView.getModel());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Map<String, Object> model = (Map<String, Object>) request.getAttribute(MODEL_ATTR);
+        HttpSession session = request.getSession(false);
+        if (ex != null || model == null || session == null) return;
+
+        UserAccount user = (UserAccount) session.getAttribute("currentUser");
+        if (user == null) return;
+
+        try {
+            // 先把页面推给浏览器，预取不占用用户的等待时间
+            response.flushBuffer();
+
+            mailPrefetcher.prefetchAfterListing(user,
+                    (String) model.get("currentFolder"),
+                    (int) model.get("currentPage"),
+                    (int) model.get("totalPages"),
+                    (int) model.get("pageSize"),
+                    (String) model.get("sort"),
+                    (String) model.get("order"),
+                    (String) model.get("keyword"),
+                    (String) model.get("searchType"),
+                    (List<EmailInfo>) model.get("emails"));
+        } catch (Exception e) {
+            System.err.println("⚠️ 触发后台预取失败: " + e.getMessage());
+        }
+    }
+}
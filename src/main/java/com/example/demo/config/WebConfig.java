@@ -0,0 +1,23 @@
+package com.example.demo.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Spring MVC 配置
+ * 目前只用来注册拦截器。
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private PrefetchInterceptor prefetchInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // 邮件列表页渲染完成后，后台预取下一页和前几封邮件
+        registry.addInterceptor(prefetchInterceptor).addPathPatterns("/inbox", "/sent", "/trash");
+    }
+}
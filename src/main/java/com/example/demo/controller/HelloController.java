@@ -2,17 +2,29 @@ package com.example.demo.controller;
 
 import com.example.demo.entity.AppUser;
 import com.example.demo.entity.EmailAccount;
-import com.example.demo.entity.SentLog;
+import com.example.demo.entity.OutboxMail;
+import com.example.demo.model.AttachmentInfo;
 import com.example.demo.model.EmailInfo;
 import com.example.demo.model.UserAccount;
 import com.example.demo.repository.*;
+import com.example.demo.service.AttachmentReader;
+import com.example.demo.service.FolderSummaryService;
+import com.example.demo.service.ImapConnectionPool;
+import com.example.demo.service.MailCache;
+import com.example.demo.service.MailOperationService;
 import com.example.demo.service.MailService;
+import com.example.demo.service.OutboxService;
+import com.example.demo.service.SmtpConnectionPool;
 import com.example.demo.utils.AESUtil;
+import jakarta.mail.Flags;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -30,6 +42,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,12 +59,26 @@ public class HelloController {
     // 注入核心邮件服务，用于收发邮件逻辑
     @Autowired
     private MailService mailService;
+    // 注入发件箱服务，发信 / 转发排队后由后台发送
+    @Autowired
+    private OutboxService outboxService;
+    // 注入邮件操作日志服务，删除 / 移动 / 标记先改本地、后台再同步到服务器
+    @Autowired
+    private MailOperationService mailOperationService;
+    // 注入文件夹概况服务，用于侧边栏的邮件数 / 未读数
+    @Autowired
+    private FolderSummaryService folderSummaryService;
+    // 注入邮件缓存，用于查看详情缓存的统计数据
+    @Autowired
+    private MailCache mailCache;
+    // 注入 IMAP / SMTP 连接池，解绑或切换邮箱时关掉旧账号的空闲连接
+    @Autowired
+    private ImapConnectionPool imapConnectionPool;
+    @Autowired
+    private SmtpConnectionPool smtpConnectionPool;
     // 注入联系人数据库操作接口
     @Autowired
     private ContactRepository contactRepository;
-    // 注入发送日志数据库操作接口
-    @Autowired
-    private SentLogRepository sentLogRepository;
     // 注入草稿箱数据库操作接口
     @Autowired
     private DraftRepository draftRepository;
@@ -69,6 +96,9 @@ public class HelloController {
     private static final String AVATAR_STORE_PATH = System.getProperty("user.dir") + File.separator + "data"
             + File.separator + "avatars" + File.separator;
 
+    // 邮件列表每页显示多少封
+    private static final int PAGE_SIZE = 10;
+
     // ================== 1. 认证与注册模块 ==================
 
     /**
@@ -164,6 +194,7 @@ public class HelloController {
         String realAuthCode = AESUtil.decrypt(account.getPassword());
         // 创建用于 JavaMail 连接的 UserAccount 对象
         UserAccount userAccount = new UserAccount(account.getEmail(), realAuthCode, account.getType());
+        userAccount.setAccountId(account.getId());
 
         // 存入 Session，标记当前正在使用的邮箱身份
         session.setAttribute("currentUser", userAccount);
@@ -240,7 +271,9 @@ public class HelloController {
 
         ModelAndView mav = new ModelAndView("inbox"); // 使用 inbox.html 模板
         // 调用 Service 获取邮件数据（包含列表和总数）
-        Map<String, Object> result = mailService.receiveEmails(user, folderName, page, 10, sort, order, keyword, searchType);
+        Map<String, Object> result = mailService.receiveEmails(user, folderName, page, PAGE_SIZE, sort, order, keyword, searchType);
+        // 叠加还没同步到服务器的删除 / 移动 / 标记操作
+        result = mailOperationService.applyPending(user, folderName, result);
 
         // 将数据放入模型，供 Thymeleaf 渲染
         mav.addObject("emails", result.get("list"));
@@ -248,8 +281,9 @@ public class HelloController {
 
         // 计算总页数
         int totalCount = (int) result.get("totalCount");
-        int totalPages = (int) Math.ceil((double) totalCount / 10);
+        int totalPages = (int) Math.ceil((double) totalCount / PAGE_SIZE);
         mav.addObject("currentPage", page);
+        mav.addObject("pageSize", PAGE_SIZE);
         mav.addObject("totalPages", totalPages);
         mav.addObject("baseUrl", baseUrl);
 
@@ -259,6 +293,11 @@ public class HelloController {
         mav.addObject("keyword", keyword);
         mav.addObject("searchType", searchType);
         mav.addObject("contacts", contactRepository.findAll()); // 用于侧边栏联系人显示
+        List<String> customFolders = loadCustomFolders(session);
+        mav.addObject("customFolders", customFolders); // 侧边栏自定义文件夹
+
+        // 侧边栏的邮件数 / 未读数 (一批流水线 STATUS，带缓存)
+        mav.addObject("folderSummaries", folderSummaryService.getSummaries(user, customFolders));
 
         return mav;
     }
@@ -284,6 +323,7 @@ public class HelloController {
         if (detail != null) {
             resp.put("content", detail.getContent()); // 邮件正文
             resp.put("files", detail.getFilenames()); // 附件列表
+            resp.put("attachments", detail.getAttachments()); // 附件详情 (名字、大小、类型、部件编号)
             resp.put("success", true);
         } else {
             resp.put("error", "加载失败");
@@ -291,6 +331,138 @@ public class HelloController {
         return resp;
     }
 
+    /**
+     * 邮件详情缓存的统计数据 (命中率、淘汰次数、占用内存)，排查“打开邮件慢”时用
+     */
+    @GetMapping("/email/detail/stats")
+    @ResponseBody
+    public Map<String, Object> detailCacheStats(HttpSession session) {
+        UserAccount user = (UserAccount) session.getAttribute("currentUser");
+        if (user == null) {
+            Map<String, Object> resp = new HashMap<>();
+            resp.put("error", "未登录或未绑定邮箱");
+            return resp;
+        }
+        return mailCache.getDetailStats(user.getEmail());
+    }
+
+    /**
+     * 附件接口：按 (账号, 文件夹, UID, 部件编号) 定位一个附件，直接写到响应里，支持 HTTP Range
+     * 视频 / PDF 预览时浏览器会分段请求，下载中断后也可以从断点继续。
+     * @param account 附件所属邮箱 (可省略，只能是当前登录的邮箱)
+     * @param part    附件的部件编号 (见 AttachmentInfo#getSection)
+     * @param inline  true 在浏览器里打开，false 下载
+     */
+    @GetMapping("/mail/attachment")
+    public void attachment(@RequestParam(required = false) String account, @RequestParam String folder,
+                           @RequestParam Long uid, @RequestParam String part,
+                           @RequestParam(defaultValue = "false") boolean inline,
+                           HttpSession session, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        UserAccount user = (UserAccount) session.getAttribute("currentUser");
+        if (user == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        if (account != null && !account.equals(user.getEmail())) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        writeAttachment(user, folder, uid, part, inline, request, response);
+    }
+
+    /**
+     * 附件下载接口 (按部件编号)，同 /mail/attachment
+     */
+    @GetMapping(value = "/download", params = "part")
+    public void downloadAttachment(@RequestParam String folder, @RequestParam Long uid, @RequestParam String part,
+                                   HttpSession session, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        attachment(null, folder, uid, part, false, session, request, response);
+    }
+
+    /**
+     * 附件预览接口 (按部件编号)，在浏览器内直接打开
+     */
+    @GetMapping(value = "/preview", params = "part")
+    public void previewAttachment(@RequestParam String folder, @RequestParam Long uid, @RequestParam String part,
+                                  HttpSession session, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        attachment(null, folder, uid, part, true, session, request, response);
+    }
+
+    /**
+     * 把一个附件写到响应里
+     * 文件名和类型来自邮件详情 (刚打开过的邮件直接命中缓存)，内容见 MailService#openAttachmentReader。
+     * * 带单段 Range 时返回 206 + 那一段；多段 Range 时返回整个附件 (200)。
+     * * ETag 见 AttachmentReader#tag (包含 UIDVALIDITY)，断点续传时浏览器带 If-Range 确认。
+     */
+    private void writeAttachment(UserAccount user, String folder, Long uid, String part, boolean inline,
+                                 HttpServletRequest request, HttpServletResponse response) throws IOException {
+        EmailInfo detail = mailService.getEmailDetail(user, folder, uid);
+        AttachmentInfo att = null;
+        if (detail != null) {
+            for (AttachmentInfo a : detail.getAttachments()) {
+                if (a.getSection().equals(part)) att = a;
+            }
+        }
+        if (att == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String range = request.getHeader(HttpHeaders.RANGE);
+        AttachmentReader reader;
+        try {
+            reader = mailService.openAttachmentReader(user, folder, uid, part, range != null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+        try (reader) {
+            String etag = reader.getETag();
+            String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+            if (ifRange != null && !ifRange.equals(etag)) range = null; // 内容可能变了，整个重新下载
+            // 处理文件名编码，防止中文乱码
+            String encodedFileName = URLEncoder.encode(att.getName(), StandardCharsets.UTF_8).replaceAll("\\+", "%20");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                    (inline ? "inline" : "attachment") + "; filename=\"" + encodedFileName + "\"");
+            response.setContentType(inline ? att.getContentType() : MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            response.setHeader(HttpHeaders.ETAG, etag);
+
+            long length = reader.length();
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, length >= 0 ? "bytes" : "none");
+            if (range != null && length >= 0) {
+                List<HttpRange> ranges;
+                try {
+                    ranges = HttpRange.parseRanges(range);
+                } catch (IllegalArgumentException e) {
+                    ranges = List.of();
+                }
+                if (ranges.size() == 1) {
+                    long start, end;
+                    try {
+                        start = ranges.get(0).getRangeStart(length);
+                        end = ranges.get(0).getRangeEnd(length);
+                    } catch (IllegalArgumentException e) {
+                        // 请求的位置超出了附件长度
+                        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                        response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                        return;
+                    }
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+                    response.setContentLengthLong(end - start + 1);
+                    reader.writeRange(response.getOutputStream(), start, end);
+                    return;
+                }
+            }
+            if (length >= 0) response.setContentLengthLong(length);
+            reader.writeAll(response.getOutputStream());
+        }
+    }
+
     /**
      * 附件下载接口
      * @param filename 文件名（相对于保存路径）
@@ -362,6 +534,7 @@ public class HelloController {
 
         ModelAndView mav = new ModelAndView("send");
         mav.addObject("contacts", contactRepository.findAll());
+        mav.addObject("customFolders", loadCustomFolders(session));
         mav.addObject("currentFolder", "写信");
 
         // 如果是编辑草稿
@@ -401,11 +574,46 @@ public class HelloController {
         UserAccount user = (UserAccount) session.getAttribute("currentUser");
         if (user == null) return new ModelAndView("redirect:/settings");
 
-        // 调用 Service 发送
-        mailService.sendMailWithAttachment(user, to, subject, text, file, replyFolder, replyUid);
-        // 保存发送日志
-        sentLogRepository.save(new SentLog(to, subject, text));
-        return new ModelAndView("redirect:/inbox");
+        // 放进发件箱就返回，SMTP 发送、保存到“已发送”、发送日志都由后台完成
+        // 收件箱页面凭 outbox 参数轮询发送进度
+        try {
+            OutboxMail queued = outboxService.enqueueMail(user, to, subject, text, file, replyFolder, replyUid);
+            return new ModelAndView("redirect:/inbox?outbox=" + queued.getId());
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("发送失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 查询发件箱里某封邮件的发送进度 (AJAX 轮询)
+     * status: PENDING 排队中 / SENDING 发送中 / SENT 已发送 / FAILED 发送失败
+     */
+    @GetMapping("/mail/outbox/status")
+    @ResponseBody
+    public Map<String, Object> outboxStatus(@RequestParam Long id, HttpSession session) {
+        UserAccount user = (UserAccount) session.getAttribute("currentUser");
+        Map<String, Object> resp = new HashMap<>();
+        if (user == null) {
+            resp.put("success", false);
+            resp.put("error", "未登录");
+            return resp;
+        }
+        OutboxMail mail = outboxService.getStatus(user, id);
+        if (mail == null) {
+            resp.put("success", false);
+            resp.put("error", "找不到这封邮件");
+            return resp;
+        }
+        resp.put("success", true);
+        resp.put("id", mail.getId());
+        resp.put("status", mail.getStatus());
+        resp.put("to", mail.getReceiver());
+        resp.put("subject", mail.getSubject());
+        resp.put("attempts", mail.getAttempts());
+        resp.put("nextAttemptTime", mail.getNextAttemptTime());
+        resp.put("error", mail.getLastError());
+        return resp;
     }
 
     /**
@@ -426,10 +634,10 @@ public class HelloController {
             return resp;
         }
         try {
-            // 执行转发逻辑
-            mailService.forwardMail(user, folder, uid, to, comment);
-            sentLogRepository.save(new SentLog(to, "Fwd: (转发邮件)", comment));
+            // 放进发件箱就返回，原邮件的下载和发送都由后台完成
+            OutboxMail queued = outboxService.enqueueForward(user, folder, uid, to, comment);
             resp.put("success", true);
+            resp.put("outboxId", queued.getId());
         } catch (Exception e) {
             e.printStackTrace();
             resp.put("success", false);
@@ -467,6 +675,7 @@ public class HelloController {
         List<com.example.demo.entity.DraftEmail> drafts = draftRepository.findBySender(user.getEmail());
         mav.addObject("drafts", drafts);
         mav.addObject("currentFolder", "草稿箱");
+        mav.addObject("customFolders", loadCustomFolders(session));
         return mav;
     }
 
@@ -481,23 +690,28 @@ public class HelloController {
 
     /**
      * 从收件箱删除 (移动到垃圾箱)
+     * id 可以是逗号分隔的多个 UID (批量删除)，下面两个删除接口相同
      */
     @GetMapping("/deleteFromInbox")
-    public String deleteFromInbox(HttpSession session, @RequestParam Long id) {
+    public String deleteFromInbox(HttpSession session, @RequestParam List<Long> id,
+                                  @RequestParam(required = false) String folder) {
         UserAccount user = (UserAccount) session.getAttribute("currentUser");
+        // 自定义文件夹也走这个接口，folder 为空时表示收件箱
+        String fromFolder = StringUtils.hasText(folder) ? folder : "收件箱";
         if (user != null)
-            mailService.moveToTrash(user, "收件箱", id);
-        return "redirect:/inbox";
+            mailOperationService.trash(user, fromFolder, id);
+        if ("收件箱".equals(fromFolder)) return "redirect:/inbox";
+        return "redirect:/inbox?folder=" + URLEncoder.encode(fromFolder, StandardCharsets.UTF_8);
     }
 
     /**
      * 从已发送删除 (移动到垃圾箱)
      */
     @GetMapping("/deleteFromSent")
-    public String deleteFromSent(HttpSession session, @RequestParam Long id) {
+    public String deleteFromSent(HttpSession session, @RequestParam List<Long> id) {
         UserAccount user = (UserAccount) session.getAttribute("currentUser");
         if (user != null)
-            mailService.moveToTrash(user, "已发送", id);
+            mailOperationService.trash(user, "已发送", id);
         return "redirect:/sent";
     }
 
@@ -505,10 +719,10 @@ public class HelloController {
      * 永久删除 (从垃圾箱删除)
      */
     @GetMapping("/deleteForever")
-    public String deleteForever(HttpSession session, @RequestParam Long id) {
+    public String deleteForever(HttpSession session, @RequestParam List<Long> id) {
         UserAccount user = (UserAccount) session.getAttribute("currentUser");
         if (user != null)
-            mailService.deleteMessage(user, "已删除", id);
+            mailOperationService.delete(user, "已删除", id);
         return "redirect:/trash";
     }
 
@@ -528,6 +742,7 @@ public class HelloController {
         model.addAttribute("accounts", accounts);
 
         model.addAttribute("currentFolder", "设置");
+        model.addAttribute("customFolders", loadCustomFolders(session));
         return "settings";
     }
 
@@ -661,6 +876,8 @@ public class HelloController {
             // 确保只能删除自己的账号
             if (account.getAppUserId().equals(appUser.getId())) {
                 emailAccountRepository.delete(account);
+                // 池里还登录着的连接一并断开
+                evictConnections(account.getEmail());
 
                 // 如果删除的是当前正在使用的账号
                 Long currentId = (Long) session.getAttribute("currentEmailId");
@@ -684,7 +901,7 @@ public class HelloController {
     /**
      * 全局 Model 属性注入
      * 这里的代码会在每个 @GetMapping/@PostMapping 执行前运行
-     * 用于向所有页面提供公共数据（如当前选中的账号、自定义文件夹列表等）
+     * 用于向所有页面提供公共数据（如当前选中的账号、已绑定的邮箱列表等）
      */
     @ModelAttribute
     public void addGlobalAttributes(Model model, HttpSession session) {
@@ -704,14 +921,20 @@ public class HelloController {
                         .findFirst()
                         .ifPresent(acc -> model.addAttribute("currentAccount", acc));
             }
-
-            // 加载自定义文件夹
-            UserAccount currentUser = (UserAccount) session.getAttribute("currentUser");
-            if (currentUser != null) {
-                List<String> folders = mailService.getCustomFolders(currentUser);
-                model.addAttribute("customFolders", folders);
-            }
         }
+        // 注意：自定义文件夹列表需要访问 IMAP 服务器，不放在这里 (这里对 AJAX 接口也会执行)，
+        // 改为只在渲染页面的方法里调用 loadCustomFolders
+    }
+
+    /**
+     * 加载侧边栏的自定义文件夹列表
+     * 只有渲染页面 (inbox / send / drafts / settings) 时才需要，AJAX 接口不用。
+     * MailService 内部带缓存，一般不会真的访问服务器。
+     */
+    private List<String> loadCustomFolders(HttpSession session) {
+        UserAccount currentUser = (UserAccount) session.getAttribute("currentUser");
+        if (currentUser == null) return new ArrayList<>();
+        return mailService.getCustomFolders(currentUser);
     }
 
     /**
@@ -724,12 +947,25 @@ public class HelloController {
 
         emailAccountRepository.findById(id).ifPresent(account -> {
             if (account.getAppUserId().equals(appUser.getId())) {
+                UserAccount previous = (UserAccount) session.getAttribute("currentUser");
                 activateEmailAccount(session, account);
+                // 不再使用的旧账号，空闲连接不必一直登录着
+                if (previous != null && !previous.getEmail().equals(account.getEmail())) {
+                    evictConnections(previous.getEmail());
+                }
             }
         });
         return "redirect:/inbox";
     }
 
+    /**
+     * 关闭某个邮箱在 IMAP / SMTP 连接池里的空闲连接 (正在使用的连接归还后按空闲规则回收)
+     */
+    private void evictConnections(String email) {
+        imapConnectionPool.evictAccount(email);
+        smtpConnectionPool.evictAccount(email);
+    }
+
     // ... 在 HelloController 中添加以下方法 ...
 
     // 1. 创建自定义文件夹接口
@@ -777,11 +1013,38 @@ public class HelloController {
     }
 
     // 3. 移动邮件接口 (如从收件箱移动到自定义文件夹)
+    // uid 可以是逗号分隔的多个 UID，一次批量移动；记进操作日志后立即返回，由后台同步到服务器
     @PostMapping("/mail/move")
     @ResponseBody
     public Map<String, Object> moveMail(@RequestParam String fromFolder,
                                         @RequestParam String toFolder,
-                                        @RequestParam Long uid,
+                                        @RequestParam("uid") List<Long> uids,
+                                        HttpSession session) {
+        UserAccount user = (UserAccount) session.getAttribute("currentUser");
+        Map<String, Object> resp = new HashMap<>();
+        if (user == null) {
+            resp.put("success", false);
+            resp.put("error", "未登录");
+            return resp;
+        }
+        try {
+            mailOperationService.move(user, fromFolder, toFolder, uids);
+            resp.put("success", true);
+        } catch (Exception e) {
+            e.printStackTrace();
+            resp.put("success", false);
+            resp.put("error", e.getMessage());
+        }
+        return resp;
+    }
+
+    // 4. 批量标记邮件接口 (已读 / 未读 / 星标 / 取消星标)
+    // 先改本地缓存后立即返回，后台合并成一条 UID STORE 同步到服务器
+    @PostMapping("/mail/flags")
+    @ResponseBody
+    public Map<String, Object> markMail(@RequestParam String folder,
+                                        @RequestParam List<Long> uids,
+                                        @RequestParam String action,
                                         HttpSession session) {
         UserAccount user = (UserAccount) session.getAttribute("currentUser");
         Map<String, Object> resp = new HashMap<>();
@@ -791,7 +1054,24 @@ public class HelloController {
             return resp;
         }
         try {
-            mailService.moveMessage(user, fromFolder, toFolder, uid);
+            switch (action) {
+                case "read":
+                    mailOperationService.setFlags(user, folder, uids, Flags.Flag.SEEN, true);
+                    break;
+                case "unread":
+                    mailOperationService.setFlags(user, folder, uids, Flags.Flag.SEEN, false);
+                    break;
+                case "star":
+                    mailOperationService.setFlags(user, folder, uids, Flags.Flag.FLAGGED, true);
+                    break;
+                case "unstar":
+                    mailOperationService.setFlags(user, folder, uids, Flags.Flag.FLAGGED, false);
+                    break;
+                default:
+                    resp.put("success", false);
+                    resp.put("error", "未知操作: " + action);
+                    return resp;
+            }
             resp.put("success", true);
         } catch (Exception e) {
             e.printStackTrace();
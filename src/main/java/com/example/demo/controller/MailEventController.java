@@ -0,0 +1,40 @@
+package com.example.demo.controller;
+
+import com.example.demo.model.UserAccount;
+import com.example.demo.service.MailEventBroadcaster;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * 实时推送控制器：邮件列表页通过 EventSource 连接 /events，接收新邮件、删除、已读状态变化
+ */
+@Controller
+public class MailEventController {
+
+    @Autowired
+    private MailEventBroadcaster mailEventBroadcaster; // 注入推送广播器
+
+    /**
+     * 订阅当前邮箱账号的变化 (text/event-stream)
+     * 返回后请求线程立即释放，连接以异步方式保持，直到浏览器关闭页面或超时重连。
+     */
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public SseEmitter events(HttpSession session, HttpServletResponse response) {
+        UserAccount user = (UserAccount) session.getAttribute("currentUser");
+        if (user == null) {
+            // 204 会让浏览器的 EventSource 停止自动重连
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            return null;
+        }
+        // 告诉 Nginx 等反向代理不要缓冲这个响应，否则事件会被攒着发不出去
+        response.setHeader("X-Accel-Buffering", "no");
+        return mailEventBroadcaster.subscribe(user.getEmail());
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.demo.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * 附件内容实体类 (AttachmentBlob)
+ * 对应数据库中的 attachment_blob 表。
+ * * 作用：AttachmentStore 按内容的 SHA-256 存放附件，内容相同的附件 (同一个 logo、转发来转发去的同一份 PDF)
+ * 在磁盘上只存一份。这张表记下每份内容的大小和被多少个邮件部件引用 (refCount)。
+ * * refCount 降到 0 的内容由 AttachmentStore 的垃圾回收删除。
+ */
+@Entity
+@Table(name = "attachment_blob", indexes = @Index(columnList = "refCount"))
+public class AttachmentBlob {
+
+    /**
+     * 主键：内容的 SHA-256 (64 位十六进制)，也是磁盘上的文件名
+     */
+    @Id
+    @Column(length = 64)
+    private String sha256;
+
+    private Long size;         // 内容大小 (字节，已解码)
+    private Integer refCount;  // 引用这份内容的 AttachmentRef 数量
+    private Long createTime;   // 第一次保存的时间 (毫秒时间戳)
+
+    /**
+     * 无参构造函数 (JPA 规范必须)
+     */
+    public AttachmentBlob() {}
+
+    public AttachmentBlob(String sha256, long size) {
+        this.sha256 = sha256;
+        this.size = size;
+        this.refCount = 0;
+        this.createTime = System.currentTimeMillis();
+    }
+
+    // ================== Getters and Setters ==================
+
+    public String getSha256() { return sha256; }
+    public void setSha256(String sha256) { this.sha256 = sha256; }
+
+    public Long getSize() { return size; }
+    public void setSize(Long size) { this.size = size; }
+
+    public Integer getRefCount() { return refCount; }
+    public void setRefCount(Integer refCount) { this.refCount = refCount; }
+
+    public Long getCreateTime() { return createTime; }
+    public void setCreateTime(Long createTime) { this.createTime = createTime; }
+}
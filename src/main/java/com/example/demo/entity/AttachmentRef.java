@@ -0,0 +1,80 @@
+package com.example.demo.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * 附件索引实体类 (AttachmentRef)
+ * 对应数据库中的 attachment_ref 表。
+ * * 作用：记下“哪封邮件的哪个部件”对应哪份附件内容 (AttachmentBlob 的 SHA-256)，即 邮件 -> 部件 -> 哈希。
+ * 每条记录算 AttachmentBlob 的一个引用；邮件被删除 / 移走、文件夹 UIDVALIDITY 变化、或者容量不够被淘汰时删除记录。
+ * * lastAccess 用来在容量超出时淘汰最久没用过的附件。
+ */
+@Entity
+@Table(name = "attachment_ref",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"accountEmail", "folderName", "uidValidity", "uid", "section"}),
+        indexes = {@Index(columnList = "lastAccess"), @Index(columnList = "sha256")})
+public class AttachmentRef {
+
+    /**
+     * 主键 ID
+     * 自增策略
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String accountEmail;   // 所属邮箱地址
+    private String folderName;     // 服务器上的真实文件夹名
+    private Long uidValidity;      // 文件夹的 UIDVALIDITY (变化后同一个 UID 可能是另一封邮件)
+    private Long uid;              // 邮件 UID
+
+    @Column(length = 80)
+    private String section;        // 部件编号 (如 "2", "1.2")
+
+    @Column(length = 64)
+    private String sha256;         // 附件内容的哈希 (AttachmentBlob 主键)
+
+    private Long lastAccess;       // 最近一次读取的时间 (毫秒时间戳)
+
+    /**
+     * 无参构造函数 (JPA 规范必须)
+     */
+    public AttachmentRef() {}
+
+    public AttachmentRef(String accountEmail, String folderName, Long uidValidity, Long uid, String section,
+                         String sha256) {
+        this.accountEmail = accountEmail;
+        this.folderName = folderName;
+        this.uidValidity = uidValidity;
+        this.uid = uid;
+        this.section = section;
+        this.sha256 = sha256;
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    // ================== Getters and Setters ==================
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getAccountEmail() { return accountEmail; }
+    public void setAccountEmail(String accountEmail) { this.accountEmail = accountEmail; }
+
+    public String getFolderName() { return folderName; }
+    public void setFolderName(String folderName) { this.folderName = folderName; }
+
+    public Long getUidValidity() { return uidValidity; }
+    public void setUidValidity(Long uidValidity) { this.uidValidity = uidValidity; }
+
+    public Long getUid() { return uid; }
+    public void setUid(Long uid) { this.uid = uid; }
+
+    public String getSection() { return section; }
+    public void setSection(String section) { this.section = section; }
+
+    public String getSha256() { return sha256; }
+    public void setSha256(String sha256) { this.sha256 = sha256; }
+
+    public Long getLastAccess() { return lastAccess; }
+    public void setLastAccess(Long lastAccess) { this.lastAccess = lastAccess; }
+}
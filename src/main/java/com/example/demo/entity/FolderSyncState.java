@@ -0,0 +1,69 @@
+package com.example.demo.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * 文件夹同步状态实体类 (FolderSyncState)
+ * 对应数据库中的 folder_sync_state 表。
+ * * 作用：记录某个账号的某个文件夹上一次同步到了哪里，是 MailHeader 增量同步的“书签”。
+ * * IMAP 增量同步的两个关键值：
+ * 1. UIDVALIDITY：文件夹的“版本号”。只要它不变，旧的 UID 就一直有效；一旦变了，本地缓存全部作废。
+ * 2. UIDNEXT：下一封新邮件将会分配到的 UID。比它小的 UID 我们都已经见过了，下次只拉比它大的。
+ * 3. HIGHESTMODSEQ (RFC 7162 CONDSTORE)：文件夹里任何一封邮件的标记变化、删除都会让它变大。
+ * 记下它之后，下次只问服务器“这个值之后变过的邮件”，不用把整个文件夹的 FLAGS 重新拉一遍。
+ */
+@Entity
+@Table(name = "folder_sync_state",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"accountEmail", "folderName"}))
+public class FolderSyncState {
+
+    /**
+     * 主键 ID
+     * 自增策略
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String accountEmail;   // 所属邮箱地址
+    private String folderName;     // 服务器上的真实文件夹名
+
+    private Long uidValidity;      // 上次同步时的 UIDVALIDITY
+    private Long uidNext;          // 上次同步后，下一次从哪个 UID 开始拉取
+    private Long highestModSeq;    // 上次同步时的 HIGHESTMODSEQ (服务器不支持 CONDSTORE 时为 null)
+
+    private Long lastSyncTime;     // 上次同步完成的时间戳 (毫秒)
+
+    /**
+     * 无参构造函数 (JPA 规范必须)
+     */
+    public FolderSyncState() {}
+
+    public FolderSyncState(String accountEmail, String folderName) {
+        this.accountEmail = accountEmail;
+        this.folderName = folderName;
+    }
+
+    // ================== Getters and Setters ==================
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getAccountEmail() { return accountEmail; }
+    public void setAccountEmail(String accountEmail) { this.accountEmail = accountEmail; }
+
+    public String getFolderName() { return folderName; }
+    public void setFolderName(String folderName) { this.folderName = folderName; }
+
+    public Long getUidValidity() { return uidValidity; }
+    public void setUidValidity(Long uidValidity) { this.uidValidity = uidValidity; }
+
+    public Long getUidNext() { return uidNext; }
+    public void setUidNext(Long uidNext) { this.uidNext = uidNext; }
+
+    public Long getHighestModSeq() { return highestModSeq; }
+    public void setHighestModSeq(Long highestModSeq) { this.highestModSeq = highestModSeq; }
+
+    public Long getLastSyncTime() { return lastSyncTime; }
+    public void setLastSyncTime(Long lastSyncTime) { this.lastSyncTime = lastSyncTime; }
+}
@@ -0,0 +1,110 @@
+package com.example.demo.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * 邮件信封缓存实体类 (MailHeader)
+ * 对应数据库中的 mail_header 表。
+ * * 作用：把服务器上每封邮件的“信封信息” (标题、发件人、时间) 缓存到本地数据库。
+ * * 场景：用户搜索或按发件人/标题排序时，以前要把整个文件夹的信封都从服务器拉一遍，
+ * 几万封邮件的收件箱要几十秒。现在只在第一次全量拉取，之后每次只增量同步新邮件，
+ * 搜索、排序、分页全部交给数据库完成。
+ * * 注意：这里只存信封，不存正文 (正文用 LocalEmail 归档)。
+ */
+@Entity
+@Table(name = "mail_header",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"accountEmail", "folderName", "uid"}),
+        indexes = @Index(columnList = "accountEmail, folderName, sendDate"))
+public class MailHeader {
+
+    /**
+     * 主键 ID
+     * 自增策略
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * 所属邮箱地址 (如 "123@qq.com")
+     * 用邮箱地址而不是 EmailAccount 的 ID，因为 MailService 手里只有 UserAccount。
+     */
+    private String accountEmail;
+
+    /**
+     * 服务器上的真实文件夹名 (如 "INBOX", "Sent Messages")
+     */
+    private String folderName;
+
+    /**
+     * 邮件在该文件夹中的 UID
+     * 只在 UIDVALIDITY 不变的前提下有效，UIDVALIDITY 变化时整个文件夹的缓存会被清空重建。
+     */
+    private Long uid;
+
+    @Column(length = 1000)
+    private String title;        // 邮件标题 (已解码)
+
+    @Column(length = 500)
+    private String sender;       // 列表中显示的名字 (已发送箱里存的是收件人)
+
+    @Column(length = 500)
+    private String address;      // 列表中显示的邮箱地址
+
+    private String sendDate;     // 发送时间 (字符串格式 "yyyy-MM-dd HH:mm"，字典序即时间顺序)
+
+    /**
+     * 已读 / 星标状态 (\Seen, \Flagged)
+     * 拉取信封时一起记下，之后由 CONDSTORE 增量同步或 IDLE 推送更新；旧数据为 null 表示未知。
+     */
+    private Boolean seen;
+    private Boolean flagged;
+
+    /**
+     * 无参构造函数 (JPA 规范必须)
+     */
+    public MailHeader() {}
+
+    public MailHeader(String accountEmail, String folderName, Long uid,
+                      String title, String sender, String address, String sendDate) {
+        this.accountEmail = accountEmail;
+        this.folderName = folderName;
+        this.uid = uid;
+        this.title = title;
+        this.sender = sender;
+        this.address = address;
+        this.sendDate = sendDate;
+    }
+
+    // ================== Getters and Setters ==================
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getAccountEmail() { return accountEmail; }
+    public void setAccountEmail(String accountEmail) { this.accountEmail = accountEmail; }
+
+    public String getFolderName() { return folderName; }
+    public void setFolderName(String folderName) { this.folderName = folderName; }
+
+    public Long getUid() { return uid; }
+    public void setUid(Long uid) { this.uid = uid; }
+
+    public String getTitle() { return title; }
+    public void setTitle(String title) { this.title = title; }
+
+    public String getSender() { return sender; }
+    public void setSender(String sender) { this.sender = sender; }
+
+    public String getAddress() { return address; }
+    public void setAddress(String address) { this.address = address; }
+
+    public String getSendDate() { return sendDate; }
+    public void setSendDate(String sendDate) { this.sendDate = sendDate; }
+
+    public Boolean getSeen() { return seen; }
+    public void setSeen(Boolean seen) { this.seen = seen; }
+
+    public Boolean getFlagged() { return flagged; }
+    public void setFlagged(Boolean flagged) { this.flagged = flagged; }
+}
@@ -0,0 +1,120 @@
+package com.example.demo.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * 邮件操作日志实体类 (MailOperation)
+ * 对应数据库中的 mail_operation 表。
+ * * 作用：用户的 删除 / 移动 / 标记 操作先记在这里，本地缓存立刻更新、页面立刻返回，
+ * 再由 MailOperationService 的后台线程把操作同步到 IMAP 服务器 (write-behind)。
+ * * 记在数据库里而不是内存里：程序重启后没来得及同步的操作还在，会继续执行。
+ * 同步成功的记录直接删除，表里只剩“还没同步”和“彻底失败”的操作。
+ */
+@Entity
+@Table(name = "mail_operation", indexes = @Index(columnList = "status, id"))
+public class MailOperation {
+
+    // 操作类型
+    public static final String TYPE_TRASH = "TRASH";   // 移入垃圾箱 (移动失败也要删除原邮件)
+    public static final String TYPE_DELETE = "DELETE"; // 彻底删除
+    public static final String TYPE_MOVE = "MOVE";     // 移动到其它文件夹
+    public static final String TYPE_FLAG = "FLAG";     // 修改标记 (已读 / 星标)
+
+    // 状态
+    public static final String STATUS_PENDING = "PENDING"; // 等待同步 (包括失败后等待重试)
+    public static final String STATUS_FAILED = "FAILED";   // 重试次数用完或无法执行，不再重试
+
+    /**
+     * 主键 ID
+     * 自增策略，同一个账号的操作按 ID 顺序执行
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String accountEmail;   // 所属邮箱地址
+    private Long accountId;        // 所属邮箱账号 (email_account 表的 ID)，后台同步时按它取授权码
+    private String type;           // 操作类型 (TYPE_*)
+    private String folderName;     // 源文件夹 (服务器上的真实名称)
+    private String targetFolder;   // 目标文件夹 (真实名称)；TRASH 找不到垃圾箱时为 null，表示直接删除
+
+    /**
+     * 涉及的邮件 UID，IMAP 集合写法 (如 "1:5,8")
+     * 批量操作可能很长，用 TEXT
+     */
+    @Column(columnDefinition = "TEXT")
+    private String uids;
+
+    private String flagName;       // TYPE_FLAG：标记名称 ("\Seen" / "\Flagged")
+    private Boolean flagValue;     // TYPE_FLAG：true 加上标记，false 去掉
+
+    private String status;         // 状态 (STATUS_*)
+    private Integer attempts;      // 已经尝试同步的次数
+    private Long nextAttemptTime;  // 最早什么时候可以 (再) 执行 (毫秒时间戳)
+
+    @Column(length = 1000)
+    private String lastError;      // 最近一次失败的原因
+
+    private Long createTime;       // 记录时间 (毫秒时间戳)
+
+    /**
+     * 无参构造函数 (JPA 规范必须)
+     */
+    public MailOperation() {}
+
+    public MailOperation(String accountEmail, String type, String folderName, String targetFolder, String uids) {
+        this.accountEmail = accountEmail;
+        this.type = type;
+        this.folderName = folderName;
+        this.targetFolder = targetFolder;
+        this.uids = uids;
+        this.status = STATUS_PENDING;
+        this.attempts = 0;
+        this.createTime = System.currentTimeMillis();
+        this.nextAttemptTime = this.createTime;
+    }
+
+    // ================== Getters and Setters ==================
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getAccountEmail() { return accountEmail; }
+    public void setAccountEmail(String accountEmail) { this.accountEmail = accountEmail; }
+
+    public Long getAccountId() { return accountId; }
+    public void setAccountId(Long accountId) { this.accountId = accountId; }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public String getFolderName() { return folderName; }
+    public void setFolderName(String folderName) { this.folderName = folderName; }
+
+    public String getTargetFolder() { return targetFolder; }
+    public void setTargetFolder(String targetFolder) { this.targetFolder = targetFolder; }
+
+    public String getUids() { return uids; }
+    public void setUids(String uids) { this.uids = uids; }
+
+    public String getFlagName() { return flagName; }
+    public void setFlagName(String flagName) { this.flagName = flagName; }
+
+    public Boolean getFlagValue() { return flagValue; }
+    public void setFlagValue(Boolean flagValue) { this.flagValue = flagValue; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public Integer getAttempts() { return attempts; }
+    public void setAttempts(Integer attempts) { this.attempts = attempts; }
+
+    public Long getNextAttemptTime() { return nextAttemptTime; }
+    public void setNextAttemptTime(Long nextAttemptTime) { this.nextAttemptTime = nextAttemptTime; }
+
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    public Long getCreateTime() { return createTime; }
+    public void setCreateTime(Long createTime) { this.createTime = createTime; }
+}
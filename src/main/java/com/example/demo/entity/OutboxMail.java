@@ -0,0 +1,137 @@
+package com.example.demo.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * 发件箱实体类 (OutboxMail)
+ * 对应数据库中的 outbox_mail 表。
+ * * 作用：写邮件 / 转发 时先把邮件记在这里就返回页面，由 OutboxService 的后台线程负责
+ * SMTP 发送、失败重试、保存副本到“已发送”。页面通过 ID 查询发送进度。
+ * * 记的是“怎么组装这封邮件”(收件人、正文、附件路径、回复/转发的原邮件)，
+ * 而不是组装好的 MIME：转发要先从服务器下载原邮件，这一步也放到后台去做。
+ * * 发送成功或彻底失败的记录保留下来，供页面查询状态。
+ */
+@Entity
+@Table(name = "outbox_mail", indexes = @Index(columnList = "status, nextAttemptTime"))
+public class OutboxMail {
+
+    // 邮件类型
+    public static final String TYPE_SEND = "SEND";       // 写邮件 / 回复
+    public static final String TYPE_FORWARD = "FORWARD"; // 转发
+
+    // 状态
+    public static final String STATUS_PENDING = "PENDING"; // 排队中 (包括失败后等待重试)
+    public static final String STATUS_SENDING = "SENDING"; // 正在发送
+    public static final String STATUS_SENT = "SENT";       // 已发送
+    public static final String STATUS_FAILED = "FAILED";   // 发送失败，不再重试
+
+    /**
+     * 主键 ID
+     * 自增策略，同时也是页面查询发送进度用的编号
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String accountEmail;  // 用哪个邮箱发送
+    private Long accountId;       // 邮箱账号 (email_account 表的 ID)，发送时按它取授权码
+    private String type;          // 邮件类型 (TYPE_*)
+
+    @Column(length = 1000)
+    private String receiver;      // 收件人 (多个时用分号/逗号分隔，和写信页面的输入一致)
+
+    @Column(length = 1000)
+    private String subject;       // 标题 (转发时由原邮件生成，这里只记 "Fwd: (转发邮件)")
+
+    /**
+     * 正文 (HTML)；转发时是用户的附言
+     */
+    @Column(columnDefinition = "TEXT")
+    private String content;
+
+    private String attachmentName; // 上传的新附件的原始文件名
+    private String attachmentPath; // 新附件在本地暂存的路径 (请求结束后上传的临时文件就没了，先复制一份)
+
+    private String sourceFolder;  // 回复 / 转发的原邮件所在文件夹 (前端名称)
+    private Long sourceUid;       // 回复 / 转发的原邮件 UID
+
+    private String status;        // 状态 (STATUS_*)
+    private Integer attempts;     // 已经尝试发送的次数
+    private Long nextAttemptTime; // 最早什么时候可以 (再) 发送 (毫秒时间戳)
+
+    @Column(length = 1000)
+    private String lastError;     // 最近一次失败的原因
+
+    private Long createTime;      // 进入发件箱的时间 (毫秒时间戳)
+    private Long sentTime;        // 发送成功的时间 (毫秒时间戳)
+
+    /**
+     * 无参构造函数 (JPA 规范必须)
+     */
+    public OutboxMail() {}
+
+    public OutboxMail(String accountEmail, String type, String receiver, String subject, String content) {
+        this.accountEmail = accountEmail;
+        this.type = type;
+        this.receiver = receiver;
+        this.subject = subject;
+        this.content = content;
+        this.status = STATUS_PENDING;
+        this.attempts = 0;
+        this.createTime = System.currentTimeMillis();
+        this.nextAttemptTime = this.createTime;
+    }
+
+    // ================== Getters and Setters ==================
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getAccountEmail() { return accountEmail; }
+    public void setAccountEmail(String accountEmail) { this.accountEmail = accountEmail; }
+
+    public Long getAccountId() { return accountId; }
+    public void setAccountId(Long accountId) { this.accountId = accountId; }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public String getReceiver() { return receiver; }
+    public void setReceiver(String receiver) { this.receiver = receiver; }
+
+    public String getSubject() { return subject; }
+    public void setSubject(String subject) { this.subject = subject; }
+
+    public String getContent() { return content; }
+    public void setContent(String content) { this.content = content; }
+
+    public String getAttachmentName() { return attachmentName; }
+    public void setAttachmentName(String attachmentName) { this.attachmentName = attachmentName; }
+
+    public String getAttachmentPath() { return attachmentPath; }
+    public void setAttachmentPath(String attachmentPath) { this.attachmentPath = attachmentPath; }
+
+    public String getSourceFolder() { return sourceFolder; }
+    public void setSourceFolder(String sourceFolder) { this.sourceFolder = sourceFolder; }
+
+    public Long getSourceUid() { return sourceUid; }
+    public void setSourceUid(Long sourceUid) { this.sourceUid = sourceUid; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public Integer getAttempts() { return attempts; }
+    public void setAttempts(Integer attempts) { this.attempts = attempts; }
+
+    public Long getNextAttemptTime() { return nextAttemptTime; }
+    public void setNextAttemptTime(Long nextAttemptTime) { this.nextAttemptTime = nextAttemptTime; }
+
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    public Long getCreateTime() { return createTime; }
+    public void setCreateTime(Long createTime) { this.createTime = createTime; }
+
+    public Long getSentTime() { return sentTime; }
+    public void setSentTime(Long sentTime) { this.sentTime = sentTime; }
+}
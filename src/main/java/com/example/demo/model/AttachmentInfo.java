@@ -0,0 +1,45 @@
+package com.example.demo.model;
+
+/**
+ * 附件信息模型类 (AttachmentInfo)
+ * 非持久化类，只描述附件，不包含附件内容。
+ * 作用：邮件详情页列出附件时只需要名字、大小、类型，这些都来自 BODYSTRUCTURE，不用下载附件本身；
+ * 真正下载 / 预览时再按 section 去服务器 (或本地原始邮件) 取这一部分。
+ */
+public class AttachmentInfo {
+
+    // 文件名 (已解码、去掉了路径)
+    private String name;
+
+    // MIME 类型 (例如: "application/pdf", "image/png")
+    private String contentType;
+
+    // 大小 (字节，估算值：BODYSTRUCTURE 给出的是编码后的大小，base64 已换算成解码后的大小)
+    private long size;
+
+    // IMAP 的部件编号 (例如: "2", "1.2")，用于 BODY.PEEK[section] 单独取这一部分
+    private String section;
+
+    public AttachmentInfo(String name, String contentType, long size, String section) {
+        this.name = name;
+        this.contentType = contentType;
+        this.size = size;
+        this.section = section;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getSection() {
+        return section;
+    }
+}
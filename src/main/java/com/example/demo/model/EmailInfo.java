@@ -38,6 +38,13 @@ public class EmailInfo {
     // 初始化为空列表，防止空指针异常
     private List<String> filenames = new ArrayList<>();
 
+    // 附件详情 (名字、大小、类型、部件编号)，只有邮件详情页有；附件内容要用时再按部件编号下载
+    private List<AttachmentInfo> attachments = new ArrayList<>();
+
+    // 已读 / 星标状态 (列表页用；null 表示未知，比如本地邮件或还没同步过状态的旧缓存)
+    private Boolean seen;
+    private Boolean flagged;
+
     // ================== 构造函数 ==================
 
     /**
@@ -103,4 +110,30 @@ public class EmailInfo {
     public List<String> getFilenames() {
         return filenames;
     }
-}
\ No newline at end of file
+
+    public List<AttachmentInfo> getAttachments() {
+        return attachments;
+    }
+
+    // 详情页解析完 BODYSTRUCTURE 之后填入
+    public void setAttachments(List<AttachmentInfo> attachments) {
+        this.attachments = attachments;
+    }
+
+    // 状态是在信封之后单独拿到的 (FETCH FLAGS)，所以提供 Setter
+    public Boolean getSeen() {
+        return seen;
+    }
+
+    public void setSeen(Boolean seen) {
+        this.seen = seen;
+    }
+
+    public Boolean getFlagged() {
+        return flagged;
+    }
+
+    public void setFlagged(Boolean flagged) {
+        this.flagged = flagged;
+    }
+}
@@ -11,6 +11,7 @@ public class UserAccount {
     private String email;    // 邮箱地址
     private String password; // 【关键】这里存储的是解密后的真实授权码/密码
     private String type;     // 邮箱类型标识: "qq", "163", "hust" 等
+    private Long accountId;  // 对应 email_account 表的 ID (后台任务按它取回账号，同一个邮箱可能被多个用户绑定)
 
     public UserAccount(String email, String password, String type) {
         this.email = email;
@@ -30,6 +31,14 @@ public class UserAccount {
         return type;
     }
 
+    public Long getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(Long accountId) {
+        this.accountId = accountId;
+    }
+
     // ==================== 修改开始 ====================
     // 以下方法用于根据邮箱类型 (type) 动态获取服务器配置
     // 这样 Service 层就不需要写死 if-else 判断，直接调用这些方法即可
@@ -91,5 +100,35 @@ public class UserAccount {
         // 993 是标准的 IMAP over SSL 端口
         return 993;
     }
+
+    /**
+     * 获取单个账号允许同时保持的 IMAP 连接数上限
+     * 各家服务器对同一账号的并发连接数都有限制，超过会直接拒绝登录：
+     * QQ 大约 10 个，163 更严格 (同一 IP 几个连接就会报 "Connection limit")，
+     * 这里保守取值，给网页版、手机客户端等其它登录留出余量。
+     * 这里算的是服务器上真实的登录数：连接池里的连接 (打开文件夹不另外占) 加上 IDLE 监听连接。
+     */
+    public int getMaxImapConnections() {
+        if ("qq".equals(type))
+            return 6;
+        if ("163".equals(type))
+            return 2;
+        if ("hust".equals(type))
+            return 4;
+        return 2;
+    }
+
+    /**
+     * 全量扫描文件夹时最多同时用几个连接并行拉取信封 (包含当前请求自己那一个)
+     * 必须小于 getMaxImapConnections() - 1 (IDLE 监听连接占一个)，给同一账号的其它请求至少留一个连接。
+     * 163 的连接限制最严格，不并行。
+     */
+    public int getScanParallelism() {
+        if ("qq".equals(type))
+            return 3;
+        if ("hust".equals(type))
+            return 2;
+        return 1;
+    }
     // ==================== 修改结束 ====================
 }
\ No newline at end of file
@@ -0,0 +1,16 @@
+package com.example.demo.repository;
+
+import com.example.demo.entity.AttachmentBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
+
+public interface AttachmentBlobRepository extends JpaRepository<AttachmentBlob, String> {
+    // 已经没有引用的内容 (垃圾回收用)
+    List<AttachmentBlob> findByRefCountLessThanEqual(int refCount);
+
+    // 所有内容的总大小
+    @Query("select coalesce(sum(b.size), 0) from AttachmentBlob b")
+    long totalSize();
+}
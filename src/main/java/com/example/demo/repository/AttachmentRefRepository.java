@@ -0,0 +1,34 @@
+package com.example.demo.repository;
+
+import com.example.demo.entity.AttachmentRef;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface AttachmentRefRepository extends JpaRepository<AttachmentRef, Long> {
+    // 按 邮件 + 部件编号 查找
+    AttachmentRef findByAccountEmailAndFolderNameAndUidValidityAndUidAndSection(
+            String accountEmail, String folderName, Long uidValidity, Long uid, String section);
+
+    // 某个文件夹某个 UIDVALIDITY 下的全部引用 (UIDVALIDITY 变化时删除)
+    List<AttachmentRef> findByAccountEmailAndFolderNameAndUidValidity(String accountEmail, String folderName,
+                                                                      Long uidValidity);
+
+    // 指定邮件的全部引用 (邮件被删除 / 移走时删除)
+    List<AttachmentRef> findByAccountEmailAndFolderNameAndUidIn(String accountEmail, String folderName,
+                                                                Collection<Long> uids);
+
+    // 最久没用过的引用 (容量超出时淘汰)
+    List<AttachmentRef> findTop200ByOrderByLastAccessAsc();
+
+    // 只更新最近访问时间 (引用已经被删掉时什么也不做，不会像 save 那样把它重新插回去)
+    @Transactional
+    @Modifying
+    @Query("update AttachmentRef r set r.lastAccess = :time where r.id = :id")
+    int touch(@Param("id") Long id, @Param("time") Long time);
+}
@@ -10,4 +10,7 @@ public interface EmailAccountRepository extends JpaRepository<EmailAccount, Long
 
     // 检查邮箱是否已被绑定
     EmailAccount findByEmail(String email);
+
+    // 同一个邮箱可能被多个用户绑定，后台任务只需要其中一条
+    EmailAccount findFirstByEmailOrderByIdAsc(String email);
 }
\ No newline at end of file
@@ -0,0 +1,9 @@
+package com.example.demo.repository;
+
+import com.example.demo.entity.FolderSyncState;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface FolderSyncStateRepository extends JpaRepository<FolderSyncState, Long> {
+    // 查找某个账号某个文件夹的同步书签
+    FolderSyncState findByAccountEmailAndFolderName(String accountEmail, String folderName);
+}
@@ -0,0 +1,61 @@
+package com.example.demo.repository;
+
+import com.example.demo.entity.MailHeader;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface MailHeaderRepository extends JpaRepository<MailHeader, Long> {
+
+    // 分页查询某个文件夹的全部信封 (排序由 Pageable 决定)
+    Page<MailHeader> findByAccountEmailAndFolderName(String accountEmail, String folderName, Pageable pageable);
+
+    // 按发件人搜索
+    Page<MailHeader> findByAccountEmailAndFolderNameAndSenderContainingIgnoreCase(
+            String accountEmail, String folderName, String sender, Pageable pageable);
+
+    // 按标题搜索
+    Page<MailHeader> findByAccountEmailAndFolderNameAndTitleContainingIgnoreCase(
+            String accountEmail, String folderName, String title, Pageable pageable);
+
+    // 按日期搜索 (日期是 "yyyy-MM-dd HH:mm" 字符串，直接模糊匹配)
+    Page<MailHeader> findByAccountEmailAndFolderNameAndSendDateContaining(
+            String accountEmail, String folderName, String sendDate, Pageable pageable);
+
+    // 全部字段搜索：标题、发件人、日期任意一个包含关键字即可
+    @Query("select h from MailHeader h where h.accountEmail = :account and h.folderName = :folder and ("
+            + "lower(h.title) like lower(concat('%', :keyword, '%')) or "
+            + "lower(h.sender) like lower(concat('%', :keyword, '%')) or "
+            + "h.sendDate like concat('%', :keyword, '%'))")
+    Page<MailHeader> searchAll(@Param("account") String accountEmail, @Param("folder") String folderName,
+                               @Param("keyword") String keyword, Pageable pageable);
+
+    long countByAccountEmailAndFolderName(String accountEmail, String folderName);
+
+    // 本地已缓存的全部 UID，用于和服务器比对找出已被删除的邮件
+    @Query("select h.uid from MailHeader h where h.accountEmail = :account and h.folderName = :folder")
+    List<Long> findUids(@Param("account") String accountEmail, @Param("folder") String folderName);
+
+    // 按 UID 批量取出缓存 (更新已读/星标状态用)
+    List<MailHeader> findByAccountEmailAndFolderNameAndUidIn(String accountEmail, String folderName, Collection<Long> uids);
+
+    // 删除某个文件夹的全部缓存 (UIDVALIDITY 变化时使用)
+    @Transactional
+    @Modifying
+    @Query("delete from MailHeader h where h.accountEmail = :account and h.folderName = :folder")
+    int deleteFolder(@Param("account") String accountEmail, @Param("folder") String folderName);
+
+    // 删除指定 UID 的缓存 (服务器上已被删除的邮件)
+    @Transactional
+    @Modifying
+    @Query("delete from MailHeader h where h.accountEmail = :account and h.folderName = :folder and h.uid in :uids")
+    int deleteByUids(@Param("account") String accountEmail, @Param("folder") String folderName,
+                     @Param("uids") Collection<Long> uids);
+}
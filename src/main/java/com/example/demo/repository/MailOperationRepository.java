@@ -0,0 +1,14 @@
+package com.example.demo.repository;
+
+import com.example.demo.entity.MailOperation;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface MailOperationRepository extends JpaRepository<MailOperation, Long> {
+    // 按状态取出操作，按 ID 顺序 (即用户操作的先后顺序)
+    List<MailOperation> findByStatusOrderByIdAsc(String status);
+
+    // 某个账号还没同步的操作数量
+    long countByAccountEmailAndStatus(String accountEmail, String status);
+}
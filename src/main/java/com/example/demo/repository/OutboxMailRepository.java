@@ -0,0 +1,17 @@
+package com.example.demo.repository;
+
+import com.example.demo.entity.OutboxMail;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface OutboxMailRepository extends JpaRepository<OutboxMail, Long> {
+    // 取出到时间可以发送的邮件，按进入发件箱的顺序
+    List<OutboxMail> findTop50ByStatusAndNextAttemptTimeLessThanEqualOrderByIdAsc(String status, Long now);
+
+    // 按状态查找 (启动时把上次没发完的 SENDING 恢复成 PENDING)
+    List<OutboxMail> findByStatus(String status);
+
+    // 查询某个账号的某封邮件 (页面查询发送进度，不能查到别的账号的)
+    OutboxMail findByIdAndAccountEmail(Long id, String accountEmail);
+}
@@ -0,0 +1,247 @@
+package com.example.demo.service;
+
+import jakarta.mail.MessagingException;
+import org.eclipse.angus.mail.iap.ByteArray;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.eclipse.angus.mail.imap.protocol.BODY;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * 附件读取器 (Attachment Reader)
+ * 作用：把一个附件 (已解码的内容) 写到 HTTP 响应里，能确定总长度时支持只写其中一段 (HTTP Range)。
+ * 由 MailService#openAttachmentReader 按情况选择实现：
+ * 1. file：本地已经保存过 (AttachmentStore)，按偏移直接读文件；
+ * 2. imapRange：服务器上的附件，用 BODY.PEEK[section]<偏移.长度> 只取需要的那一段。
+ * * 💡 imapRange 每取一段才借一次 IMAP 连接，取完马上归还，再往浏览器写；
+ * 浏览器收得慢、或者同时有好几个 Range 请求时，也不会把连接池占满 (163 只有 2 条连接)。
+ */
+public abstract class AttachmentReader implements Closeable {
+
+    // 每次向服务器取多少行 base64 (一行 76 个字符，约 300KB)
+    private static final int CHUNK_LINES = 4096;
+    // 不编码的附件每次取多少字节
+    private static final int CHUNK_BYTES = 256 * 1024;
+    // 探测 base64 行长时取开头多少字节
+    private static final int PROBE_BYTES = 200;
+
+    // HTTP ETag (见 tag)，没有时为 null
+    private String etag;
+
+    /**
+     * 解码后的总长度，不知道时返回 -1 (这时不支持 Range)
+     */
+    public abstract long length();
+
+    /**
+     * 写出 [start, end] 这一段 (两端都包含)，只有 length() >= 0 时可用
+     */
+    public abstract void writeRange(OutputStream out, long start, long end) throws IOException;
+
+    /**
+     * 写出整个附件
+     */
+    public void writeAll(OutputStream out) throws IOException {
+        if (length() > 0) writeRange(out, 0, length() - 1);
+    }
+
+    /**
+     * 设置 ETag：同一个 UIDVALIDITY 下，(账号, 文件夹, UID, 部件编号) 对应的内容不会变，
+     * 再加上 UIDVALIDITY 和解码后的长度做 SHA-256，文件夹重建后旧的 If-Range 就对不上了。
+     */
+    public AttachmentReader tag(String account, String folder, long uidValidity, long uid, String section) {
+        String key = account + "|" + folder + "|" + uidValidity + "|" + uid + "|" + section + "|" + length();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            etag = "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    public String getETag() {
+        return etag;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // ================== 1. 本地文件 ==================
+
+    /**
+     * 本地文件 (AttachmentStore#find / BlobWriter#commit 打开的)，关闭读取器时关闭文件
+     */
+    public static AttachmentReader file(FileChannel channel) throws IOException {
+        long size = channel.size();
+        return new AttachmentReader() {
+            @Override
+            public long length() {
+                return size;
+            }
+
+            @Override
+            public void writeRange(OutputStream out, long start, long end) throws IOException {
+                WritableByteChannel target = Channels.newChannel(out);
+                long pos = start;
+                while (pos <= end) {
+                    long n = channel.transferTo(pos, end - pos + 1, target);
+                    if (n <= 0) break;
+                    pos += n;
+                }
+            }
+
+            @Override
+            public void close() {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                }
+            }
+        };
+    }
+
+    // ================== 2. 从服务器分段读取 ==================
+
+    /**
+     * 按偏移取一个部件的原文 (编码后的内容)
+     * MailService 提供的实现每次调用时借出连接、取完归还，测试时可以直接从字节数组里取。
+     */
+    public interface SectionFetcher {
+        byte[] fetch(long start, int len) throws Exception;
+    }
+
+    /**
+     * BODY.PEEK[section]<start.len> (不会把邮件标成已读)，调用方需要已经借出连接并打开了文件夹
+     */
+    public static byte[] peekSection(IMAPFolder folder, int messageNumber, String section, long start, int len)
+            throws MessagingException {
+        BODY body = (BODY) folder.doCommand(p -> p.peekBody(messageNumber, section, (int) start, len));
+        if (body == null || body.getByteArray() == null) {
+            throw new MessagingException("服务器没有返回附件数据");
+        }
+        ByteArray ba = body.getByteArray();
+        return Arrays.copyOfRange(ba.getBytes(), ba.getStart(), ba.getStart() + ba.getCount());
+    }
+
+    /**
+     * 服务器上的附件：算出解码后的长度和“解码偏移 -> 原文偏移”的对应关系，之后按段读取
+     * * 不编码 (7bit / 8bit / binary)：原文就是内容，BODYSTRUCTURE 里的大小就是总长度；
+     * * base64：每行固定 L 个字符 + CRLF，每行解码出 L/4*3 字节。取开头一段确定 L，取最后一行算出末尾的长度，
+     * 之后第 n 个字节就在第 n / (L/4*3) 行，按整行取回来再解码。
+     * 其它编码 (quoted-printable) 或者行长不规则的 base64，算不出对应关系，返回 null。
+     *
+     * @param part        按偏移取原文 (⚠️ 调用前要先归还自己借的连接，这里探测行长时还要再借)
+     * @param encodedSize BODYSTRUCTURE 里这一部分 (编码后) 的大小
+     */
+    public static AttachmentReader imapRange(SectionFetcher part, String encoding, long encodedSize)
+            throws Exception {
+        if (encodedSize <= 0) return null;
+        String enc = encoding == null ? "7bit" : encoding.toLowerCase();
+        if (enc.equals("7bit") || enc.equals("8bit") || enc.equals("binary")) {
+            return new ImapRangeReader(part, encodedSize, encodedSize, 0);
+        }
+        if (!enc.equals("base64")) return null;
+
+        // 1. 第一行的长度
+        byte[] head = part.fetch(0, (int) Math.min(encodedSize, PROBE_BYTES));
+        int lineLen = -1;
+        for (int i = 0; i + 1 < head.length; i++) {
+            if (head[i] == '\r' && head[i + 1] == '\n') {
+                lineLen = i;
+                break;
+            }
+        }
+        if (lineLen <= 0 || lineLen % 4 != 0) return null;
+        long lineBytes = lineLen + 2;
+
+        // 2. 最后一行：位置必须正好在某一行的开头，否则说明中间有长度不一样的行
+        int tailLen = (int) Math.min(encodedSize, lineBytes + 2);
+        long tailStart = encodedSize - tailLen;
+        byte[] tail = part.fetch(tailStart, tailLen);
+        int end = tail.length;
+        while (end > 0 && (tail[end - 1] == '\r' || tail[end - 1] == '\n' || tail[end - 1] == ' ')) end--;
+        int lastStart = 0;
+        for (int i = end - 1; i >= 0; i--) {
+            if (tail[i] == '\n') {
+                lastStart = i + 1;
+                break;
+            }
+        }
+        if (lastStart == 0 && tailStart > 0) return null;
+        long lastLineOffset = tailStart + lastStart;
+        if (lastLineOffset % lineBytes != 0 || end - lastStart > lineLen) return null;
+        int lastDecoded;
+        try {
+            lastDecoded = Base64.getDecoder().decode(Arrays.copyOfRange(tail, lastStart, end)).length;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        long perLine = lineLen / 4 * 3;
+        long length = lastLineOffset / lineBytes * perLine + lastDecoded;
+        return new ImapRangeReader(part, length, encodedSize, lineLen);
+    }
+
+    private static class ImapRangeReader extends AttachmentReader {
+        private final SectionFetcher part;
+        private final long length;
+        private final long encodedSize;
+        private final int lineLen; // 0 表示不编码
+
+        ImapRangeReader(SectionFetcher part, long length, long encodedSize, int lineLen) {
+            this.part = part;
+            this.length = length;
+            this.encodedSize = encodedSize;
+            this.lineLen = lineLen;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void writeRange(OutputStream out, long start, long end) throws IOException {
+            try {
+                long pos = start;
+                while (pos <= end) {
+                    int n;
+                    if (lineLen == 0) {
+                        n = (int) Math.min(CHUNK_BYTES, end - pos + 1);
+                        byte[] data = part.fetch(pos, n);
+                        n = Math.min(n, data.length);
+                        if (n <= 0) throw new IOException("附件数据不完整");
+                        out.write(data, 0, n);
+                    } else {
+                        long perLine = lineLen / 4 * 3;
+                        long line = pos / perLine;
+                        long encStart = line * (lineLen + 2);
+                        int encLen = (int) Math.min((long) CHUNK_LINES * (lineLen + 2), encodedSize - encStart);
+                        byte[] decoded = Base64.getMimeDecoder().decode(part.fetch(encStart, encLen));
+                        int off = (int) (pos - line * perLine);
+                        n = (int) Math.min(decoded.length - off, end - pos + 1);
+                        if (n <= 0) throw new IOException("附件数据不完整");
+                        out.write(decoded, off, n);
+                    }
+                    pos += n;
+                }
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("读取附件失败: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package com.example.demo.service;
+
+import com.example.demo.entity.AttachmentBlob;
+import com.example.demo.entity.AttachmentRef;
+import com.example.demo.repository.AttachmentBlobRepository;
+import com.example.demo.repository.AttachmentRefRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * 附件本地存储 (Attachment Store)
+ * 作用：把下载过的附件 (已解码的内容) 存在本地，再次下载 / 预览、拖动视频进度条时直接按偏移读本地文件。
+ * * 💡 按内容寻址 (content-addressed)：
+ * 文件名就是内容的 SHA-256，内容相同的附件只存一份 (同一个 newsletter logo 出现在几千封邮件里，磁盘上只有一个文件)。
+ * 数据库里两张表：
+ * 1. attachment_ref (AttachmentRef)：邮件 -> 部件 -> 哈希 的索引，按 (账号, 文件夹, UIDVALIDITY, UID, 部件编号) 查找；
+ * 2. attachment_blob (AttachmentBlob)：每份内容的大小和引用计数。
+ * * 引用计数：新增索引 +1；邮件被删除 / 移走 (release)、UIDVALIDITY 变化 (dropValidity)、容量淘汰时删除索引 -1。
+ * 计数为 0 的内容由垃圾回收 (gc) 删除。
+ * * 目录结构：BLOB_PATH / 哈希前两位 / 哈希.blob
+ * * 写入：用 FileChannel 写。小附件 (不超过 SPILL_BYTES) 先在内存里算哈希，已经有这份内容就不写盘；
+ * 大附件边写临时文件边算哈希，写完发现重复就删掉临时文件。
+ * * ⚠️ 索引和计数的修改都在 this 锁内进行 (单机程序，不需要数据库锁)。
+ * * ⚠️ find / commit 在锁内把文件打开再返回 FileChannel：gc 删除文件也要拿这把锁，
+ * 已经打开的文件被删掉后照样能读完 (Windows 上 Java 打开文件时允许别人删除)，不会下载到一半找不到文件。
+ */
+@Component
+public class AttachmentStore {
+
+    // 存放目录
+    private static final String BLOB_PATH = MailService.SAVE_PATH + "blobs/";
+    // 写到一半的临时文件
+    private static final String TMP_PATH = BLOB_PATH + "tmp/";
+    // 旧版本按 (账号, 文件夹, UID, 部件) 存放的附件目录，启动时清掉
+    private static final String LEGACY_PARTS_PATH = MailService.SAVE_PATH + "parts/";
+    // 总容量上限 (按不重复的内容计算)
+    private static final long MAX_TOTAL_BYTES = 2048L * 1024 * 1024;
+    // 不超过这个大小的附件先放在内存里，算出哈希确认是新内容再写盘
+    private static final int SPILL_BYTES = 1024 * 1024;
+    // 读取时间隔多久才更新一次 lastAccess (避免每次下载都写数据库)
+    private static final long TOUCH_INTERVAL_MS = 10 * 60_000;
+
+    @Autowired
+    private AttachmentRefRepository attachmentRefRepository;
+    @Autowired
+    private AttachmentBlobRepository attachmentBlobRepository;
+
+    // 所有内容的总大小 (在 this 锁内修改)
+    private long totalBytes = 0;
+
+    /**
+     * 正在写入的附件：写完调用 commit，不调用 commit 直接 close 等于放弃
+     */
+    public class BlobWriter extends OutputStream {
+        private final AttachmentRef key;
+        private final MessageDigest digest;
+        private byte[] buffer = new byte[8192];
+        private int buffered = 0;
+        private Path tmp;
+        private FileChannel channel;
+        private long size = 0;
+        private boolean done = false;
+
+        private BlobWriter(AttachmentRef key) {
+            this.key = key;
+            this.digest = sha256();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            digest.update(b, off, len);
+            size += len;
+            if (channel == null && buffered + len <= SPILL_BYTES) {
+                if (buffered + len > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.min(SPILL_BYTES, Math.max(buffer.length * 2, buffered + len)));
+                }
+                System.arraycopy(b, off, buffer, buffered, len);
+                buffered += len;
+                return;
+            }
+            if (channel == null) {
+                // 超过内存上限，转为写临时文件
+                Files.createDirectories(Paths.get(TMP_PATH));
+                tmp = Files.createTempFile(Paths.get(TMP_PATH), "att-", ".tmp");
+                channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+                writeFully(channel, buffer, 0, buffered);
+                buffer = null;
+            }
+            writeFully(channel, b, off, len);
+        }
+
+        /**
+         * 写完了：按哈希存好内容 (已有相同内容就不再存)，再记下索引
+         *
+         * @return 打开的内容文件 (调用方负责关闭)
+         */
+        public FileChannel commit() throws IOException {
+            String sha = HexFormat.of().formatHex(digest.digest());
+            Path blob = blobPath(sha);
+            if (channel != null) channel.close();
+            try {
+                synchronized (AttachmentStore.this) {
+                    AttachmentBlob row = attachmentBlobRepository.findById(sha).orElse(null);
+                    if (row == null || !Files.exists(blob)) {
+                        Files.createDirectories(blob.getParent());
+                        if (tmp == null) {
+                            // 小附件：从内存写临时文件再改名，别的线程不会读到写了一半的内容
+                            Files.createDirectories(Paths.get(TMP_PATH));
+                            tmp = Files.createTempFile(Paths.get(TMP_PATH), "att-", ".tmp");
+                            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                                writeFully(out, buffer, 0, buffered);
+                            }
+                        }
+                        Files.move(tmp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        tmp = null;
+                        if (row == null) {
+                            row = new AttachmentBlob(sha, size);
+                            totalBytes += size;
+                        }
+                    }
+                    addRef(key, row);
+                    return FileChannel.open(blob, StandardOpenOption.READ);
+                }
+            } finally {
+                done = true;
+                discardTmp();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (done) return;
+            done = true;
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException e) {
+            }
+            discardTmp();
+        }
+
+        private void discardTmp() {
+            if (tmp != null) tmp.toFile().delete();
+            tmp = null;
+            buffer = null;
+        }
+    }
+
+    /**
+     * 启动时：统计总大小，清掉临时文件、旧版本的附件目录、以及数据库里没有记录的内容文件
+     * (保存到一半程序退出时可能留下这些文件)
+     */
+    @PostConstruct
+    public void init() {
+        FileSystemUtils.deleteRecursively(new File(TMP_PATH));
+        FileSystemUtils.deleteRecursively(new File(LEGACY_PARTS_PATH));
+        try {
+            synchronized (this) {
+                totalBytes = attachmentBlobRepository.totalSize();
+            }
+            int orphans = 0;
+            Path root = Paths.get(BLOB_PATH);
+            if (Files.isDirectory(root)) {
+                List<Path> files = new ArrayList<>();
+                try (Stream<Path> walk = Files.walk(root)) {
+                    walk.filter(p -> p.toString().endsWith(".blob")).forEach(files::add);
+                }
+                for (Path p : files) {
+                    String sha = p.getFileName().toString().replace(".blob", "");
+                    if (!attachmentBlobRepository.existsById(sha) && p.toFile().delete()) orphans++;
+                }
+            }
+            System.out.println("✅ 本地附件: " + (totalBytes / 1024 / 1024) + " MB"
+                    + (orphans > 0 ? "，清理无主文件 " + orphans + " 个" : ""));
+        } catch (Exception e) {
+            System.err.println("⚠️ 初始化本地附件存储失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 查找本地保存的附件，没有时返回 null
+     *
+     * @return 打开的内容文件 (调用方负责关闭)
+     */
+    public FileChannel find(String account, String realFolder, long uidValidity, long uid, String section) {
+        AttachmentRef ref;
+        FileChannel channel;
+        synchronized (this) {
+            ref = attachmentRefRepository.findByAccountEmailAndFolderNameAndUidValidityAndUidAndSection(
+                    account, realFolder, uidValidity, uid, section);
+            if (ref == null) return null;
+            try {
+                channel = FileChannel.open(blobPath(ref.getSha256()), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                // 文件被手动删掉了：索引作废，重新下载
+                removeRefs(List.of(ref));
+                return null;
+            } catch (IOException e) {
+                System.err.println("⚠️ 读取本地附件失败: " + e.getMessage());
+                return null;
+            }
+        }
+        // 更新访问时间不用占着锁 (gc 删除文件时一直拿着锁，查找不能被它拖住)
+        long now = System.currentTimeMillis();
+        if (ref.getLastAccess() == null || now - ref.getLastAccess() > TOUCH_INTERVAL_MS) {
+            try {
+                attachmentRefRepository.touch(ref.getId(), now);
+            } catch (Exception e) {
+                // 没记上只影响淘汰顺序
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * 开始写入一个附件
+     */
+    public BlobWriter begin(String account, String realFolder, long uidValidity, long uid, String section)
+            throws IOException {
+        return new BlobWriter(new AttachmentRef(account, realFolder, uidValidity, uid, section, null));
+    }
+
+    /**
+     * 文件夹的 UIDVALIDITY 变了：旧的 UID 全部作废
+     */
+    public synchronized void dropValidity(String account, String realFolder, long uidValidity) {
+        try {
+            removeRefs(attachmentRefRepository.findByAccountEmailAndFolderNameAndUidValidity(account, realFolder,
+                    uidValidity));
+        } catch (Exception e) {
+            System.err.println("⚠️ 清理本地附件索引失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 邮件从文件夹里删除 / 移走了：去掉这些邮件的附件引用 (内容还被别的邮件引用时保留)
+     */
+    public synchronized void release(String account, String realFolder, Collection<Long> uids) {
+        if (uids.isEmpty()) return;
+        try {
+            // IN 列表太长数据库会报错，分批查询
+            List<Long> all = new ArrayList<>(uids);
+            for (int from = 0; from < all.size(); from += 500) {
+                List<Long> batch = all.subList(from, Math.min(from + 500, all.size()));
+                removeRefs(attachmentRefRepository.findByAccountEmailAndFolderNameAndUidIn(account, realFolder, batch));
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ 清理本地附件索引失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 【后台维护任务】垃圾回收
+     * 1. 总大小超过 MAX_TOTAL_BYTES 时，从最久没用过的索引开始删，直到够用；
+     * 2. 删除引用计数为 0 的内容文件。
+     * 删除失败的文件 (Windows 上正被读取) 保留记录，下一轮再删。
+     */
+    @Scheduled(fixedDelay = 5 * 60_000, initialDelay = 60_000)
+    public synchronized void gc() {
+        try {
+            long before = totalBytes;
+            int deleted = deleteUnreferenced();
+            while (totalBytes > MAX_TOTAL_BYTES) {
+                List<AttachmentRef> oldest = attachmentRefRepository.findTop200ByOrderByLastAccessAsc();
+                if (oldest.isEmpty()) break;
+                removeRefs(oldest);
+                deleted += deleteUnreferenced();
+            }
+            if (deleted > 0) {
+                System.out.println("🔄 本地附件回收: 删除 " + deleted + " 个, 释放 "
+                        + ((before - totalBytes) / 1024 / 1024) + " MB");
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ 本地附件回收失败: " + e.getMessage());
+        }
+    }
+
+    // ================== 内部方法 (都在 this 锁内调用) ==================
+
+    /**
+     * 记下 邮件部件 -> 内容 的索引，内容的引用计数 +1
+     * 同一个部件以前指向别的内容时 (理论上不会发生)，旧内容的计数 -1
+     */
+    private void addRef(AttachmentRef key, AttachmentBlob blob) {
+        AttachmentRef ref = attachmentRefRepository.findByAccountEmailAndFolderNameAndUidValidityAndUidAndSection(
+                key.getAccountEmail(), key.getFolderName(), key.getUidValidity(), key.getUid(), key.getSection());
+        if (ref != null && blob.getSha256().equals(ref.getSha256())) {
+            attachmentBlobRepository.save(blob);
+            return;
+        }
+        if (ref != null) {
+            attachmentBlobRepository.findById(ref.getSha256()).ifPresent(old -> {
+                old.setRefCount(old.getRefCount() - 1);
+                attachmentBlobRepository.save(old);
+            });
+        } else {
+            ref = key;
+        }
+        ref.setSha256(blob.getSha256());
+        ref.setLastAccess(System.currentTimeMillis());
+        blob.setRefCount(blob.getRefCount() + 1);
+        attachmentBlobRepository.save(blob);
+        attachmentRefRepository.save(ref);
+    }
+
+    /**
+     * 删除索引，对应内容的引用计数 -1 (文件留给 gc 删除)
+     */
+    private void removeRefs(List<AttachmentRef> refs) {
+        if (refs.isEmpty()) return;
+        Map<String, Integer> counts = new HashMap<>();
+        for (AttachmentRef ref : refs) {
+            counts.merge(ref.getSha256(), 1, Integer::sum);
+        }
+        List<AttachmentBlob> blobs = attachmentBlobRepository.findAllById(counts.keySet());
+        for (AttachmentBlob blob : blobs) {
+            blob.setRefCount(Math.max(0, blob.getRefCount() - counts.get(blob.getSha256())));
+        }
+        attachmentBlobRepository.saveAll(blobs);
+        attachmentRefRepository.deleteAll(refs);
+    }
+
+    /**
+     * 删除引用计数为 0 的内容
+     *
+     * @return 删除的个数
+     */
+    private int deleteUnreferenced() {
+        int deleted = 0;
+        for (AttachmentBlob blob : attachmentBlobRepository.findByRefCountLessThanEqual(0)) {
+            File f = blobPath(blob.getSha256()).toFile();
+            if (!f.delete() && f.exists()) continue;
+            attachmentBlobRepository.delete(blob);
+            totalBytes -= blob.getSize();
+            deleted++;
+        }
+        return deleted;
+    }
+
+    private static void writeFully(FileChannel channel, byte[] b, int off, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    private Path blobPath(String sha) {
+        return Paths.get(BLOB_PATH, sha.substring(0, 2), sha + ".blob");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
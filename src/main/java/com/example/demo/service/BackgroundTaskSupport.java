@@ -0,0 +1,92 @@
+package com.example.demo.service;
+
+import com.example.demo.entity.EmailAccount;
+import com.example.demo.model.UserAccount;
+import com.example.demo.repository.EmailAccountRepository;
+import com.example.demo.utils.AESUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 后台任务公用工具 (Background Task Support)
+ * 作用：操作日志 (MailOperationService) 和发件箱 (OutboxService) 的后台线程都要做的几件事放在一起：
+ * 1. 取账号：后台线程没有浏览器会话，按记录里的账号 ID 从数据库取账号并解密授权码；
+ * 2. 重试策略：失败后按 base, base*2, base*4... 退避，次数用完就放弃；
+ * 3. 错误信息截断、后台线程命名。
+ */
+@Component
+public class BackgroundTaskSupport {
+
+    // 错误信息最多保存多少个字符 (lastError 列的长度)
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    @Autowired
+    private EmailAccountRepository emailAccountRepository;
+
+    /**
+     * 重试策略
+     */
+    public static class RetryPolicy {
+        // 最多尝试次数，之后标成 FAILED
+        private final int maxAttempts;
+        // 重试的退避时间：第 n 次失败后等 baseMs * 2^(n-1)
+        private final long baseMs;
+
+        public RetryPolicy(int maxAttempts, long baseMs) {
+            this.maxAttempts = maxAttempts;
+            this.baseMs = baseMs;
+        }
+
+        /**
+         * 已经尝试了 attempts 次，是否还能再试
+         */
+        public boolean canRetry(int attempts) {
+            return attempts < maxAttempts;
+        }
+
+        /**
+         * 第 attempts 次失败后要等多久
+         */
+        public long delayMs(int attempts) {
+            return baseMs * (1L << (Math.max(1, attempts) - 1));
+        }
+    }
+
+    /**
+     * 按账号 ID 取账号并解密授权码
+     * 同一个邮箱可能被多个用户绑定，按 ID 取才不会取错 (旧记录没有 ID，按邮箱地址取第一条)
+     *
+     * @return null 表示账号已经解绑；数据库出错时抛异常，调用方应当稍后重试
+     */
+    public UserAccount loadAccount(Long accountId, String email) {
+        EmailAccount account = accountId != null
+                ? emailAccountRepository.findById(accountId).orElse(null)
+                : emailAccountRepository.findFirstByEmailOrderByIdAsc(email);
+        if (account == null || !account.getEmail().equals(email)) return null;
+        UserAccount user = new UserAccount(account.getEmail(), AESUtil.decrypt(account.getPassword()), account.getType());
+        user.setAccountId(account.getId());
+        return user;
+    }
+
+    public static String truncate(String error) {
+        if (error == null) return null;
+        return error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+    }
+
+    /**
+     * 后台线程：守护线程 (不阻止程序退出)，名字是 name 或 name-N
+     *
+     * @param numbered true 时按创建顺序编号 (线程池)
+     */
+    public static ThreadFactory daemonThreads(String name, boolean numbered) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, numbered ? name + "-" + count.incrementAndGet() : name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.demo.service;
+
+import com.example.demo.model.UserAccount;
+import jakarta.mail.Folder;
+import jakarta.mail.Store;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 文件夹角色解析器 (Folder Role Resolver)
+ * 作用：把前端的 “已发送 / 已删除 / 草稿箱 / 垃圾箱” 翻译成服务器上真实的文件夹名。
+ * * 💡 RFC 6154 SPECIAL-USE：
+ * 支持这个扩展的服务器会在 LIST 的结果里给系统文件夹打上标记，例如：
+ * * LIST (\HasNoChildren \Sent) "/" "Sent Messages"
+ * 所以只要 LIST 一次，就能知道每个角色对应哪个文件夹，不需要再一个个名字去 exists() 试探。
+ * * 解析顺序：
+ * 1. SPECIAL-USE 标记；
+ * 2. 原来按邮箱类型写死的名称表 (服务器没有标记时)，以及常见的别名，只认 LIST 里真实存在的；
+ * 3. LIST 失败时直接用名称表，和以前的行为一致。
+ * * 每个账号的 LIST 结果 (连同侧边栏要用的自定义文件夹列表) 缓存 FOLDER_TREE_TTL_MS，
+ * 之后的文件夹解析不再访问服务器；本程序里新建/删除文件夹时主动清掉。
+ * * ⚠️ 第一次解析时会自己从连接池借一个连接，所以调用方要在借连接之前解析文件夹名，
+ * 否则连接数很少的账号 (163) 可能出现自己等自己的情况。
+ */
+@Component
+public class FolderRoleResolver {
+
+    // LIST 结果缓存多久 (文件夹很少变化；本程序里的新建/删除会主动清缓存)
+    private static final long FOLDER_TREE_TTL_MS = 5 * 60_000;
+
+    public static final String ROLE_SENT = "\\Sent";
+    public static final String ROLE_TRASH = "\\Trash";
+    public static final String ROLE_DRAFTS = "\\Drafts";
+    public static final String ROLE_JUNK = "\\Junk";
+
+    // 前端文件夹名 -> SPECIAL-USE 角色
+    private static final Map<String, String> UI_ROLES = Map.of(
+            "已发送", ROLE_SENT,
+            "已删除", ROLE_TRASH,
+            "草稿箱", ROLE_DRAFTS,
+            "垃圾箱", ROLE_JUNK);
+
+    // 服务器没有 SPECIAL-USE 标记时，按这些常见名字去 LIST 结果里找 (名称表找不到时才用)
+    private static final Map<String, List<String>> ROLE_ALIASES = Map.of(
+            ROLE_SENT, Arrays.asList("Sent Messages", "Sent", "Sent Items", "已发送"),
+            ROLE_TRASH, Arrays.asList("Deleted Messages", "Trash", "Deleted", "已删除"),
+            ROLE_DRAFTS, Arrays.asList("Drafts", "Draft", "草稿箱"),
+            ROLE_JUNK, Arrays.asList("Junk", "Spam", "Junk E-mail", "垃圾邮件", "广告邮件"));
+
+    // 黑名单：这些名字的文件夹由系统管理，不显示在“自定义文件夹”区域 (兼容中英文)
+    private static final List<String> SYSTEM_FOLDER_NAMES = Arrays.asList(
+            "INBOX", "收件箱",
+            "Sent Messages", "Sent", "Sent Items", "已发送",
+            "Drafts", "Draft", "草稿箱",
+            "Deleted Messages", "Trash", "已删除", "垃圾箱", "Deleted",
+            "Junk", "Spam", "Junk E-mail", "垃圾邮件", "广告邮件");
+
+    @Autowired
+    private ImapConnectionPool imapConnectionPool;
+
+    /**
+     * 一个账号的 LIST 结果
+     */
+    private static class FolderTree {
+        final long createdAt = System.currentTimeMillis();
+        // 所有文件夹的完整名称
+        final Set<String> fullNames = new HashSet<>();
+        // SPECIAL-USE 角色 -> 文件夹完整名称
+        final Map<String, String> roles = new HashMap<>();
+        // 自定义文件夹 (侧边栏显示用)
+        final List<String> customFolders = new ArrayList<>();
+    }
+
+    // 邮箱地址 -> LIST 结果
+    private final Map<String, FolderTree> trees = new ConcurrentHashMap<>();
+    // 每个账号一把锁，防止多个请求同时 LIST 同一个账号
+    private final Map<String, Object> loadLocks = new ConcurrentHashMap<>();
+
+    /**
+     * 把前端文件夹名翻译成服务器上的真实名称
+     */
+    public String resolve(UserAccount user, String uiFolderName) {
+        // 收件箱：所有邮箱统一叫 INBOX，不需要 LIST
+        if ("收件箱".equals(uiFolderName)) {
+            return "INBOX";
+        }
+        String role = UI_ROLES.get(uiFolderName);
+        // 不是系统文件夹，假设是用户建立的自定义文件夹，原样返回
+        if (role == null) {
+            return uiFolderName;
+        }
+
+        String tableName = tableName(user.getType(), uiFolderName);
+        FolderTree tree = getTree(user);
+        if (tree == null) {
+            return tableName;
+        }
+
+        // 1. SPECIAL-USE 标记
+        String marked = tree.roles.get(role);
+        if (marked != null) return marked;
+
+        // 2. 名称表 / 常见别名，只认服务器上真实存在的
+        if (tree.fullNames.contains(tableName)) return tableName;
+        for (String alias : ROLE_ALIASES.get(role)) {
+            if (tree.fullNames.contains(alias)) return alias;
+        }
+        return tableName;
+    }
+
+    /**
+     * 服务器上是否有这个文件夹 (按缓存的 LIST 结果判断，不访问服务器)
+     * LIST 失败时返回 true，交给后续的 IMAP 命令去报错。
+     */
+    public boolean exists(UserAccount user, String realFolderName) {
+        if ("INBOX".equalsIgnoreCase(realFolderName)) return true;
+        FolderTree tree = getTree(user);
+        return tree == null || tree.fullNames.contains(realFolderName);
+    }
+
+    /**
+     * 获取自定义文件夹列表 (剔除 INBOX、带 SPECIAL-USE 标记的文件夹以及黑名单里的名字)
+     */
+    public List<String> getCustomFolders(UserAccount user) {
+        FolderTree tree = getTree(user);
+        return tree != null ? Collections.unmodifiableList(tree.customFolders) : new ArrayList<>();
+    }
+
+    /**
+     * 新建/删除文件夹后调用
+     */
+    public void invalidate(String account) {
+        trees.remove(account);
+    }
+
+    private FolderTree getTree(UserAccount user) {
+        FolderTree tree = trees.get(user.getEmail());
+        if (tree != null && System.currentTimeMillis() - tree.createdAt <= FOLDER_TREE_TTL_MS) {
+            return tree;
+        }
+        synchronized (loadLocks.computeIfAbsent(user.getEmail(), k -> new Object())) {
+            // 可能在等锁的时候别的请求已经 LIST 完了
+            tree = trees.get(user.getEmail());
+            if (tree != null && System.currentTimeMillis() - tree.createdAt <= FOLDER_TREE_TTL_MS) {
+                return tree;
+            }
+            tree = load(user);
+            if (tree != null) trees.put(user.getEmail(), tree);
+            return tree;
+        }
+    }
+
+    /**
+     * LIST "*" 一次，记下每个文件夹的名称和 SPECIAL-USE 标记
+     */
+    private FolderTree load(UserAccount user) {
+        Store store = null;
+        try {
+            store = imapConnectionPool.borrow(user);
+            FolderTree tree = new FolderTree();
+            for (Folder f : store.getDefaultFolder().list("*")) {
+                tree.fullNames.add(f.getFullName());
+
+                boolean hasRole = false;
+                if (f instanceof IMAPFolder) {
+                    // LIST 的响应里已经带了属性，这里不会再访问服务器
+                    for (String attr : ((IMAPFolder) f).getAttributes()) {
+                        for (String role : UI_ROLES.values()) {
+                            if (role.equalsIgnoreCase(attr)) {
+                                tree.roles.putIfAbsent(role, f.getFullName());
+                                hasRole = true;
+                            }
+                        }
+                    }
+                }
+
+                String name = f.getName();
+                boolean isSystem = hasRole || SYSTEM_FOLDER_NAMES.stream().anyMatch(sys -> sys.equalsIgnoreCase(name));
+                if (!isSystem) {
+                    tree.customFolders.add(name);
+                }
+            }
+            System.out.println("✅ 文件夹角色解析完成 [" + user.getEmail() + "]: " + tree.roles);
+            return tree;
+        } catch (Exception e) {
+            System.err.println("⚠️ 获取文件夹列表失败，按默认名称处理: " + e.getMessage());
+            return null;
+        } finally {
+            imapConnectionPool.release(store);
+        }
+    }
+
+    /**
+     * 【文件夹名称映射表】
+     * 服务器不支持 SPECIAL-USE 时的兜底：不同邮件服务商对系统文件夹的命名不一致。
+     * QQ 使用英文 ("Sent Messages"), 163 使用中文 ("已发送")。
+     */
+    private String tableName(String mailType, String uiFolderName) {
+        // 1. QQ 邮箱映射
+        if ("qq".equals(mailType)) {
+            if ("已发送".equals(uiFolderName)) return "Sent Messages";
+            if ("已删除".equals(uiFolderName)) return "Deleted Messages";
+            if ("草稿箱".equals(uiFolderName)) return "Drafts";
+            if ("垃圾箱".equals(uiFolderName)) return "Junk";
+        }
+
+        // 2. 163 邮箱映射
+        if ("163".equals(mailType)) {
+            if ("已发送".equals(uiFolderName)) return "已发送";
+            if ("已删除".equals(uiFolderName)) return "已删除";
+            if ("草稿箱".equals(uiFolderName)) return "草稿箱";
+            if ("垃圾箱".equals(uiFolderName)) return "垃圾邮件";
+        }
+
+        // 3. HUST (Coremail 系统)
+        if ("hust".equals(mailType)) {
+            if ("已发送".equals(uiFolderName)) return "Sent Items"; // Coremail 常见英文名
+            if ("已删除".equals(uiFolderName)) return "Trash";
+            if ("草稿箱".equals(uiFolderName)) return "Drafts";
+            if ("垃圾箱".equals(uiFolderName)) return "Junk E-mail";
+        }
+
+        // 4. 其他情况返回原名
+        return uiFolderName;
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.demo.service;
+
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.UIDFolder;
+import jakarta.mail.event.MailEvent;
+import jakarta.mail.event.MessageCountAdapter;
+import jakarta.mail.event.MessageCountEvent;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 已打开文件夹的会话缓存 (Folder Session)
+ * 作用：让一个 Folder 在多次请求之间保持打开状态，并记住 UID -> 邮件序号 的对应关系。
+ * * 💡 背景：
+ * 以前每次 getEmailDetail / deleteMessage / moveMessage 都要重新 SELECT/EXAMINE 文件夹，
+ * 再用 getMessageByUID 问服务器“这个 UID 现在是第几封”，每一步都是一次网络来回。
+ * 现在文件夹打开后挂在连接池的连接上，列表页拉取信封时顺便记下 UID 和序号，
+ * 用户在列表里逐封点开邮件时，直接按序号取消息，不再重复 SELECT，也不再查 UID。
+ * * ⚠️ 失效规则：
+ * 1. 收到 EXPUNGE (有邮件被物理删除) 后，后面所有邮件的序号都会前移，映射表整体作废；
+ * 2. UIDVALIDITY 变化说明服务器重建了文件夹，所有 UID 都不再可信，映射表整体作废；
+ * 3. 即使映射表还在，按序号取到邮件后也会核对一次 UID (已缓存的 UID 不走网络)，对不上就回退到 getMessageByUID。
+ * * QRESYNC：以 QRESYNC 方式打开时，服务器在 SELECT 里就报告了“上次同步之后”的删除和状态变化，
+ * 这些事件先存在这里，等 MailService 同步本地缓存时取走 (takeResyncEvents)。
+ * * 注意：这个对象只会被借到连接的那个线程使用，不需要额外加锁。
+ */
+public class FolderSession {
+
+    private final Folder folder;
+    private final int mode;
+    private long uidValidity;
+    private int messageCount;
+
+    // UID -> 邮件序号 (message number, 从 1 开始)
+    private final Map<Long, Integer> uidToMsgNum = new HashMap<>();
+
+    // QRESYNC 打开时服务器报告的变化：基于哪个 HIGHESTMODSEQ 算的，截止到哪个 HIGHESTMODSEQ
+    private List<MailEvent> resyncEvents;
+    private long resyncBaseModSeq;
+    private long resyncModSeq;
+
+    public FolderSession(Folder folder, int mode) throws MessagingException {
+        this.folder = folder;
+        this.mode = mode;
+        this.uidValidity = ((UIDFolder) folder).getUIDValidity();
+        this.messageCount = folder.getMessageCount();
+
+        // 服务器推送的 EXPUNGE/EXISTS 会在下一次与服务器交互时被处理，这里同步更新本地状态
+        folder.addMessageCountListener(new MessageCountAdapter() {
+            @Override
+            public void messagesRemoved(MessageCountEvent e) {
+                invalidate();
+            }
+
+            @Override
+            public void messagesAdded(MessageCountEvent e) {
+                // 新邮件追加在末尾，已有邮件的序号不变，映射表仍然有效
+            }
+        });
+    }
+
+    public Folder getFolder() {
+        return folder;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * 判断缓存的文件夹能否满足本次请求
+     * 以读写模式打开的文件夹也可以拿来只读 (会话里开启了 mail.imap.peek，读取正文不会误标已读)
+     */
+    public boolean canServe(int requestedMode) {
+        if (!folder.isOpen()) return false;
+        return mode == Folder.READ_WRITE || requestedMode == Folder.READ_ONLY;
+    }
+
+    /**
+     * 复用前刷新状态
+     * 对已打开的文件夹，getMessageCount() 最多发一个轻量的 NOOP，顺便处理服务器积压的 EXPUNGE/EXISTS 通知。
+     */
+    public void refresh() throws MessagingException {
+        int count = folder.getMessageCount();
+        if (count < messageCount) {
+            // 邮件变少了，一定发生过 EXPUNGE
+            invalidate();
+        }
+        messageCount = count;
+
+        long validity = ((UIDFolder) folder).getUIDValidity();
+        if (validity != uidValidity) {
+            invalidate();
+            uidValidity = validity;
+        }
+    }
+
+    /**
+     * 记住一批已经拉取过 UID 的邮件的序号
+     * 在列表页 fetch(UID) 之后调用，此时 getUID 直接读缓存，不走网络。
+     */
+    public void remember(Message[] messages) {
+        UIDFolder uidFolder = (UIDFolder) folder;
+        for (Message msg : messages) {
+            try {
+                uidToMsgNum.put(uidFolder.getUID(msg), msg.getMessageNumber());
+            } catch (Exception e) {
+                // 单封邮件失败不影响其它
+            }
+        }
+    }
+
+    /**
+     * 按 UID 查找邮件：优先走本地映射表，映射失效时才问服务器
+     */
+    public Message getMessageByUID(long uid) throws MessagingException {
+        UIDFolder uidFolder = (UIDFolder) folder;
+        Integer msgNum = uidToMsgNum.get(uid);
+        if (msgNum != null && msgNum <= folder.getMessageCount()) {
+            Message msg = folder.getMessage(msgNum);
+            // 核对一次 UID，防止映射表在失效通知到达前已经过期
+            if (!msg.isExpunged() && uidFolder.getUID(msg) == uid) {
+                return msg;
+            }
+            uidToMsgNum.remove(uid);
+        }
+
+        Message msg = uidFolder.getMessageByUID(uid);
+        if (msg != null) {
+            uidToMsgNum.put(uid, msg.getMessageNumber());
+        }
+        return msg;
+    }
+
+    /**
+     * 记下 QRESYNC 方式 SELECT 返回的变化 (由 ImapConnectionPool 在打开文件夹时调用)
+     *
+     * @param baseModSeq 打开时告诉服务器的 HIGHESTMODSEQ (变化从这之后算起)
+     * @param modSeq     SELECT 返回的 HIGHESTMODSEQ (变化截止到这里)
+     */
+    public void setResyncEvents(List<MailEvent> events, long baseModSeq, long modSeq) {
+        this.resyncEvents = events;
+        this.resyncBaseModSeq = baseModSeq;
+        this.resyncModSeq = modSeq;
+    }
+
+    /**
+     * 取走 SELECT 时报告的变化，只能取一次
+     * 本地书签已经不是当初打开时的那个值 (别的连接同步过了)，这些变化可能比本地还旧，直接丢弃，返回 null。
+     */
+    public List<MailEvent> takeResyncEvents(Long currentModSeq) {
+        List<MailEvent> events = resyncEvents;
+        resyncEvents = null;
+        if (events == null || currentModSeq == null || currentModSeq != resyncBaseModSeq) return null;
+        return events;
+    }
+
+    /**
+     * takeResyncEvents 返回的变化截止到的 HIGHESTMODSEQ
+     */
+    public long getResyncModSeq() {
+        return resyncModSeq;
+    }
+
+    /**
+     * 映射表整体作废 (EXPUNGE 之后调用)
+     */
+    public void invalidate() {
+        uidToMsgNum.clear();
+    }
+
+    /**
+     * 关闭文件夹，不执行 EXPUNGE
+     */
+    public void close() {
+        try {
+            if (folder.isOpen()) folder.close(false);
+        } catch (Exception e) {
+        }
+        uidToMsgNum.clear();
+    }
+}
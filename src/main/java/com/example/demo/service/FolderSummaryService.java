@@ -0,0 +1,200 @@
+package com.example.demo.service;
+
+import com.example.demo.model.UserAccount;
+import com.example.demo.utils.MailboxNameUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.mail.Store;
+import org.eclipse.angus.mail.iap.Argument;
+import org.eclipse.angus.mail.iap.ProtocolException;
+import org.eclipse.angus.mail.iap.Response;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.eclipse.angus.mail.imap.protocol.IMAPResponse;
+import org.eclipse.angus.mail.imap.protocol.Status;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 文件夹概况服务 (Folder Summary)
+ * 作用：给侧边栏提供每个文件夹的 邮件总数 / 未读数 / UIDNEXT，不需要打开 (SELECT) 任何文件夹。
+ * * 💡 流水线 (pipelining)：
+ * 以前每个文件夹一条 STATUS，发一条等一条，十几个文件夹就是十几次网络来回。
+ * IMAP 允许客户端不等响应就连续发命令，这里把所有文件夹的
+ * * STATUS "name" (MESSAGES UNSEEN UIDNEXT)
+ * 一口气写出去，再统一按 tag 收响应，整批只花一次来回的时间。
+ * * 缓存：每个账号的结果缓存 SUMMARY_TTL_MS；任何文件夹发生变化 (MailCache#invalidateFolder，
+ * 包括删除、移动、标记和 IDLE 推送) 时清掉这个账号的结果，下一次渲染页面再整批查一次。
+ */
+@Service
+public class FolderSummaryService {
+
+    // 结果缓存多久 (本程序里的操作和 IDLE 推送会主动清缓存，这里只是兜底)
+    private static final long SUMMARY_TTL_MS = 60_000;
+
+    // 侧边栏上的系统文件夹 (自定义文件夹由调用方传入)
+    private static final List<String> SYSTEM_FOLDERS = Arrays.asList("收件箱", "已发送", "草稿箱", "已删除", "垃圾箱");
+
+    @Autowired
+    private ImapConnectionPool imapConnectionPool;
+    @Autowired
+    private FolderRoleResolver folderRoleResolver;
+    @Autowired
+    private MailCache mailCache;
+
+    /**
+     * 单个文件夹的概况
+     */
+    public static class FolderSummary {
+        private final int messages;
+        private final int unseen;
+        private final long uidNext;
+
+        public FolderSummary(int messages, int unseen, long uidNext) {
+            this.messages = messages;
+            this.unseen = unseen;
+            this.uidNext = uidNext;
+        }
+
+        public int getMessages() {
+            return messages;
+        }
+
+        public int getUnseen() {
+            return unseen;
+        }
+
+        public long getUidNext() {
+            return uidNext;
+        }
+    }
+
+    /**
+     * 一个账号的查询结果
+     */
+    private static class Snapshot {
+        final long createdAt = System.currentTimeMillis();
+        // 查询了哪些文件夹 (服务器上不存在的文件夹不会出现在结果里，所以单独记)
+        final List<String> folders;
+        // 前端文件夹名 -> 概况
+        final Map<String, FolderSummary> summaries;
+
+        Snapshot(List<String> folders, Map<String, FolderSummary> summaries) {
+            this.folders = folders;
+            this.summaries = summaries;
+        }
+    }
+
+    // 邮箱地址 -> 查询结果
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        // 文件夹有变化，整个账号的结果作废 (重查一次也只是一次来回)
+        mailCache.addFolderListener((account, realFolder) -> snapshots.remove(account));
+    }
+
+    /**
+     * 获取系统文件夹 + 自定义文件夹的概况
+     *
+     * @return 前端文件夹名 -> 概况 (查询失败的文件夹不放进去)
+     */
+    public Map<String, FolderSummary> getSummaries(UserAccount user, List<String> customFolders) {
+        List<String> folders = new ArrayList<>(SYSTEM_FOLDERS);
+        for (String f : customFolders) {
+            if (!folders.contains(f)) folders.add(f);
+        }
+
+        Snapshot snapshot = snapshots.get(user.getEmail());
+        if (snapshot != null && System.currentTimeMillis() - snapshot.createdAt <= SUMMARY_TTL_MS
+                && snapshot.folders.containsAll(folders)) {
+            return snapshot.summaries;
+        }
+
+        // 先解析真实名称 (可能要 LIST)，再借连接，见 FolderRoleResolver 的说明
+        Map<String, String> realToUi = new LinkedHashMap<>();
+        for (String ui : folders) {
+            String real = folderRoleResolver.resolve(user, ui);
+            // 服务器上没有的文件夹 (比如某些邮箱没有垃圾箱) 不查，否则整批里会夹一个 NO
+            if (folderRoleResolver.exists(user, real)) {
+                realToUi.putIfAbsent(real, ui);
+            }
+        }
+
+        Map<String, FolderSummary> result = new HashMap<>();
+        Store store = null;
+        try {
+            store = imapConnectionPool.borrow(user);
+            Map<String, Status> statuses = statusAll(store, realToUi.keySet());
+            statuses.forEach((real, st) -> {
+                String ui = realToUi.get(real);
+                if (ui != null) result.put(ui, new FolderSummary(st.total, st.unseen, st.uidnext));
+            });
+            snapshots.put(user.getEmail(), new Snapshot(folders, result));
+        } catch (Exception e) {
+            System.err.println("⚠️ 获取文件夹概况失败: " + e.getMessage());
+        } finally {
+            imapConnectionPool.release(store);
+        }
+        return result;
+    }
+
+    /**
+     * 【流水线 STATUS】先把所有命令写出去，再一次性读完所有响应
+     * 在 Store 自己的连接上执行 (不指定文件夹借出的连接上没有打开着的文件夹，见 ImapConnectionPool#borrow)。
+     *
+     * @return 真实文件夹名 -> STATUS 结果
+     */
+    private Map<String, Status> statusAll(Store store, Collection<String> realFolders) throws Exception {
+        Map<String, Status> result = new HashMap<>();
+        if (realFolders.isEmpty()) return result;
+
+        IMAPFolder any = (IMAPFolder) store.getFolder("INBOX");
+        any.doCommand(p -> {
+            List<Response> others = new ArrayList<>();
+            // 独占这条连接，防止别的线程在中间插入命令
+            synchronized (p) {
+                try {
+                    // 1. 连续写出所有 STATUS，不等响应
+                    Map<String, String> tagToFolder = new HashMap<>();
+                    for (String folder : realFolders) {
+                        Argument args = new Argument();
+                        MailboxNameUtil.writeMailboxName(args, p, folder);
+                        Argument items = new Argument();
+                        items.writeAtom("MESSAGES");
+                        items.writeAtom("UNSEEN");
+                        items.writeAtom("UIDNEXT");
+                        args.writeArgument(items);
+                        tagToFolder.put(p.writeCommand("STATUS", args), folder);
+                    }
+
+                    // 2. 按 tag 收齐所有结果
+                    int pending = tagToFolder.size();
+                    while (pending > 0) {
+                        Response r = p.readResponse();
+                        if (r.isBYE()) {
+                            throw new ProtocolException(r);
+                        }
+                        if (r.isTagged() && tagToFolder.containsKey(r.getTag())) {
+                            // NO (文件夹不存在等) 只影响这一个文件夹
+                            pending--;
+                        } else if (r instanceof IMAPResponse && ((IMAPResponse) r).keyEquals("STATUS")) {
+                            Status st = new Status(r);
+                            result.put(st.mbox, st);
+                        } else {
+                            others.add(r);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new ProtocolException("STATUS 流水线读写失败", e);
+                }
+            }
+            // 夹带的其它通知 (EXISTS 等) 照常交给文件夹处理
+            p.notifyResponseHandlers(others.toArray(new Response[0]));
+            return null;
+        });
+        return result;
+    }
+}
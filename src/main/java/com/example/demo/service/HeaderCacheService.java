@@ -0,0 +1,239 @@
+package com.example.demo.service;
+
+import com.example.demo.entity.FolderSyncState;
+import com.example.demo.entity.MailHeader;
+import com.example.demo.model.EmailInfo;
+import com.example.demo.repository.FolderSyncStateRepository;
+import com.example.demo.repository.MailHeaderRepository;
+import jakarta.mail.Flags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地信封缓存服务 (Header Cache Service)
+ * 作用：负责 mail_header / folder_sync_state 两张表的读写，是 MailService 的“本地数据库”一侧。
+ * * 分工：
+ * - MailService 负责和 IMAP 服务器打交道：判断 UIDVALIDITY、按 UIDNEXT 增量拉取新邮件、找出被删除的邮件；
+ * - 这里负责把结果存进数据库，并在数据库里完成搜索、排序、分页。
+ */
+@Service
+public class HeaderCacheService {
+
+    // 截断长度需要和 MailHeader 的 @Column(length) 保持一致，防止超长报错
+    private static final int MAX_TITLE_LENGTH = 1000;
+    private static final int MAX_NAME_LENGTH = 500;
+
+    @Autowired
+    private MailHeaderRepository mailHeaderRepository;
+    @Autowired
+    private FolderSyncStateRepository folderSyncStateRepository;
+
+    // 每个 (账号, 文件夹) 一把锁，防止两个请求同时同步同一个文件夹导致重复插入
+    private final Map<String, Object> syncLocks = new ConcurrentHashMap<>();
+
+    public Object lockFor(String accountEmail, String folderName) {
+        return syncLocks.computeIfAbsent(accountEmail + "|" + folderName, k -> new Object());
+    }
+
+    /**
+     * 获取同步书签，没有的话新建一个 (还未保存)
+     */
+    public FolderSyncState getState(String accountEmail, String folderName) {
+        FolderSyncState state = folderSyncStateRepository.findByAccountEmailAndFolderName(accountEmail, folderName);
+        return state != null ? state : new FolderSyncState(accountEmail, folderName);
+    }
+
+    public void saveState(FolderSyncState state) {
+        state.setLastSyncTime(System.currentTimeMillis());
+        folderSyncStateRepository.save(state);
+    }
+
+    /**
+     * UIDVALIDITY 变化 (或第一次同步)：清空该文件夹的全部缓存，书签从头开始
+     */
+    public void resetFolder(FolderSyncState state, long uidValidity) {
+        mailHeaderRepository.deleteFolder(state.getAccountEmail(), state.getFolderName());
+        state.setUidValidity(uidValidity);
+        state.setUidNext(1L);
+        state.setHighestModSeq(null);
+    }
+
+    /**
+     * 本地缓存可能已经和服务器对不上 (例如后台同步的操作最终失败了)：
+     * 丢掉这个文件夹的全部缓存和书签，下次打开时从头同步
+     */
+    public void discardFolder(String accountEmail, String folderName) {
+        mailHeaderRepository.deleteFolder(accountEmail, folderName);
+        FolderSyncState state = folderSyncStateRepository.findByAccountEmailAndFolderName(accountEmail, folderName);
+        if (state != null) folderSyncStateRepository.delete(state);
+    }
+
+    /**
+     * 批量保存新拉取到的信封
+     */
+    public void saveHeaders(String accountEmail, String folderName, List<EmailInfo> emails) {
+        if (emails.isEmpty()) return;
+        List<MailHeader> headers = new ArrayList<>();
+        for (EmailInfo email : emails) {
+            MailHeader header = new MailHeader(accountEmail, folderName, email.getId(),
+                    truncate(email.getTitle(), MAX_TITLE_LENGTH),
+                    truncate(email.getSender(), MAX_NAME_LENGTH),
+                    truncate(email.getAddress(), MAX_NAME_LENGTH),
+                    email.getSendDate());
+            header.setSeen(email.getSeen());
+            header.setFlagged(email.getFlagged());
+            headers.add(header);
+        }
+        mailHeaderRepository.saveAll(headers);
+    }
+
+    public long count(String accountEmail, String folderName) {
+        return mailHeaderRepository.countByAccountEmailAndFolderName(accountEmail, folderName);
+    }
+
+    public Set<Long> localUids(String accountEmail, String folderName) {
+        return new HashSet<>(mailHeaderRepository.findUids(accountEmail, folderName));
+    }
+
+    /**
+     * 更新已缓存邮件的已读/星标状态 (CONDSTORE 增量同步、IDLE 推送的 FETCH)
+     * 本地没有缓存的 UID 直接忽略，等增量同步拉信封时会一起带上状态。
+     */
+    public void updateFlags(String accountEmail, String folderName, Map<Long, Flags> changes) {
+        if (changes.isEmpty()) return;
+        List<Long> uids = new ArrayList<>(changes.keySet());
+        // 和 removeUids 一样分批，防止 IN 列表太长
+        for (int from = 0; from < uids.size(); from += 500) {
+            List<Long> batch = uids.subList(from, Math.min(from + 500, uids.size()));
+            List<MailHeader> headers = mailHeaderRepository.findByAccountEmailAndFolderNameAndUidIn(
+                    accountEmail, folderName, batch);
+            for (MailHeader h : headers) {
+                Flags flags = changes.get(h.getUid());
+                h.setSeen(flags.contains(Flags.Flag.SEEN));
+                h.setFlagged(flags.contains(Flags.Flag.FLAGGED));
+            }
+            mailHeaderRepository.saveAll(headers);
+        }
+    }
+
+    /**
+     * 批量修改已缓存邮件的某一个标记 (用户在页面上批量标记已读/星标后调用)
+     */
+    public void setFlag(String accountEmail, String folderName, Collection<Long> uids, Flags.Flag flag, boolean value) {
+        List<Long> list = new ArrayList<>(uids);
+        for (int from = 0; from < list.size(); from += 500) {
+            List<MailHeader> headers = mailHeaderRepository.findByAccountEmailAndFolderNameAndUidIn(
+                    accountEmail, folderName, list.subList(from, Math.min(from + 500, list.size())));
+            for (MailHeader h : headers) {
+                if (flag == Flags.Flag.SEEN) h.setSeen(value);
+                else h.setFlagged(value);
+            }
+            mailHeaderRepository.saveAll(headers);
+        }
+    }
+
+    /**
+     * 删除服务器上已经不存在的邮件
+     */
+    public void removeUids(String accountEmail, String folderName, Collection<Long> uids) {
+        if (uids.isEmpty()) return;
+        // IN 列表太长数据库会报错，分批删除
+        List<Long> batch = new ArrayList<>();
+        for (Long uid : uids) {
+            batch.add(uid);
+            if (batch.size() == 500) {
+                mailHeaderRepository.deleteByUids(accountEmail, folderName, batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            mailHeaderRepository.deleteByUids(accountEmail, folderName, batch);
+        }
+    }
+
+    /**
+     * 【核心查询】在本地缓存上完成 搜索 + 排序 + 分页
+     * 返回结构与 MailService.receiveEmails 保持一致：{"list": 当前页, "totalCount": 总数}
+     */
+    public Map<String, Object> query(String accountEmail, String folderName, int page, int size,
+                                     String sortField, String sortOrder, String keyword, String searchType) {
+        // 1. 排序规则 (与原来的内存排序保持一致，UID 作为第二排序键保证翻页稳定)
+        String field = sortField != null ? sortField : "date";
+        String property;
+        switch (field) {
+            case "sender":
+                property = "sender";
+                break;
+            case "title":
+                property = "title";
+                break;
+            case "date":
+            default:
+                property = "sendDate";
+                break;
+        }
+        Sort.Direction direction = "desc".equals(sortOrder) ? Sort.Direction.DESC : Sort.Direction.ASC;
+        Sort sort = Sort.by(direction, property).and(Sort.by(direction, "uid"));
+        Pageable pageable = PageRequest.of(Math.max(page - 1, 0), size, sort);
+
+        // 2. 搜索范围
+        Page<MailHeader> result;
+        if (StringUtils.hasText(keyword)) {
+            String type = (searchType != null) ? searchType : "all";
+            switch (type) {
+                case "sender":
+                    result = mailHeaderRepository.findByAccountEmailAndFolderNameAndSenderContainingIgnoreCase(
+                            accountEmail, folderName, keyword, pageable);
+                    break;
+                case "title":
+                    result = mailHeaderRepository.findByAccountEmailAndFolderNameAndTitleContainingIgnoreCase(
+                            accountEmail, folderName, keyword, pageable);
+                    break;
+                case "date":
+                    result = mailHeaderRepository.findByAccountEmailAndFolderNameAndSendDateContaining(
+                            accountEmail, folderName, keyword, pageable);
+                    break;
+                case "all":
+                default:
+                    result = mailHeaderRepository.searchAll(accountEmail, folderName, keyword, pageable);
+                    break;
+            }
+        } else {
+            result = mailHeaderRepository.findByAccountEmailAndFolderName(accountEmail, folderName, pageable);
+        }
+
+        // 3. 转换为前端使用的 EmailInfo
+        List<EmailInfo> list = new ArrayList<>();
+        for (MailHeader h : result.getContent()) {
+            EmailInfo info = new EmailInfo(h.getUid(), h.getTitle(), h.getSender(), h.getAddress(), h.getSendDate(),
+                    null, new ArrayList<>());
+            info.setSeen(h.getSeen());
+            info.setFlagged(h.getFlagged());
+            list.add(info);
+        }
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("list", list);
+        map.put("totalCount", (int) result.getTotalElements());
+        return map;
+    }
+
+    private String truncate(String s, int max) {
+        if (s == null || s.length() <= max) return s;
+        return s.substring(0, max);
+    }
+}
@@ -0,0 +1,652 @@
+package com.example.demo.service;
+
+import com.example.demo.model.UserAccount;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Folder;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Store;
+import jakarta.mail.event.ConnectionAdapter;
+import jakarta.mail.event.ConnectionEvent;
+import jakarta.mail.event.MailEvent;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.eclipse.angus.mail.imap.IMAPStore;
+import org.eclipse.angus.mail.imap.ResyncData;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * IMAP 连接池 (Connection Pool)
+ * 作用：按邮箱账号缓存已经登录好的 IMAP Store，供 MailService 反复借用。
+ * * 💡 为什么需要连接池？
+ * 以前每个操作都要 new Session -> SSL 握手 -> LOGIN -> ID -> 干活 -> 断开，
+ * 光是建立连接就要三四个来回，打开一封邮件的大部分时间都花在了“握手”上。
+ * 现在连接用完后放回池子，下一次请求直接拿来就用。
+ * * 池子负责的几件事：
+ * 1. 每个账号单独一个子池，并限制同时存在的连接数 (不同服务商上限见 UserAccount#getMaxImapConnections)。
+ * 名额按服务器上真实登录的会话算：空闲连接、IDLE 监听连接 (connectDedicated) 都占名额，
+ * 连接上打开文件夹不另外占 (文件夹直接用 Store 自己的那个连接，见 createSession)。
+ * 2. 借出前做健康检查：空闲太久的连接先发一个 NOOP，确认还活着才交给调用方。
+ * 3. 后台定时任务给空闲连接发 NOOP 保活，超过空闲时限的连接直接关闭回收。
+ * 4. 连接上可以挂着已经打开的文件夹 (FolderSession)，下次借同一个文件夹时优先拿这条连接，免去重复 SELECT。
+ */
+@Component
+public class ImapConnectionPool {
+
+    // 借连接时最多等待多久 (所有连接都被占用时排队)
+    private static final long BORROW_TIMEOUT_MS = 15_000;
+    // 连接空闲超过这个时间，借出前要先 NOOP 一下确认没被服务器踢掉
+    private static final long VALIDATE_AFTER_IDLE_MS = 30_000;
+    // 保活间隔：空闲连接每隔这么久发一次 NOOP (服务器一般 30 分钟无活动就断开，这里远小于它)
+    private static final long KEEPALIVE_INTERVAL_MS = 60_000;
+    // 空闲回收：超过这个时间没人用的连接直接关闭，不长期占用服务器名额
+    private static final long IDLE_EVICT_MS = 5 * 60_000;
+    // 每条连接上最多保持打开的文件夹数
+    // 注意：第一个打开的文件夹接管了 Store 的连接，再开第二个就要另建一个 TCP 连接，所以只留最近用过的那一个
+    private static final int MAX_OPEN_FOLDERS_PER_STORE = 1;
+
+    // key: 邮箱地址，value: 这个账号的子池
+    private final Map<String, AccountPool> pools = new ConcurrentHashMap<>();
+    // 已借出的连接 -> 连接包装对象，归还时用来找到所属子池
+    private final Map<Store, PooledStore> leased = new ConcurrentHashMap<>();
+
+    /**
+     * 单个账号的子池
+     */
+    private static class AccountPool {
+        final String key;
+        final Session session;      // 同一账号共用一个 Session，不再每次 new Properties
+        final Semaphore permits;    // 限制同时存在的连接数：每条连接从建立到关闭一直占一个名额
+        final Deque<PooledStore> idle = new ArrayDeque<>(); // 空闲连接 (后进先出，优先用最热的连接)，也是排队等待用的锁
+        final Set<PooledStore> all = ConcurrentHashMap.newKeySet(); // 所有还没关闭的连接 (空闲、借出、保活检查中)
+        final AtomicInteger waiters = new AtomicInteger(); // 正在排队等连接的线程数
+
+        AccountPool(String key, Session session, int maxConnections) {
+            this.key = key;
+            this.session = session;
+            this.permits = new Semaphore(maxConnections);
+        }
+    }
+
+    /**
+     * 连接包装对象：记录最近使用时间，以及连接是否已经被服务器断开
+     */
+    private static class PooledStore {
+        final Store store;
+        final AccountPool owner;
+        volatile long lastUsed = System.currentTimeMillis();
+        volatile boolean broken = false;
+        // 挂在这条连接上、仍然打开着的文件夹 (按访问顺序排列，最久未用的在最前面)
+        final LinkedHashMap<String, FolderSession> folders = new LinkedHashMap<>(4, 0.75f, true);
+        // 借出期间被别的线程标记作废的文件夹 (例如被删除了)，由借用的线程在下次打开或归还时关闭
+        final Set<String> staleFolders = ConcurrentHashMap.newKeySet();
+
+        PooledStore(Store store, AccountPool owner) {
+            this.store = store;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * 【借出连接】
+     * 优先复用空闲连接；没有空闲的就新建一个。超过账号上限时排队等待。
+     * 不指定文件夹时，调用方要执行的是 LIST / STATUS / APPEND 这类 Store 级别的命令，
+     * 借出前会关掉这条连接上缓存的文件夹，把连接还给 Store，否则 Store 还得另外登录一个连接。
+     */
+    public Store borrow(UserAccount user) throws MessagingException {
+        return borrow(user, null);
+    }
+
+    /**
+     * 【借出连接 - 指定文件夹】
+     * 如果某条空闲连接上已经打开了 folderHint 这个文件夹，优先借出它，
+     * 这样列表页和详情页之间来回切换时，始终用的是同一个已打开的 Folder。
+     */
+    public Store borrow(UserAccount user, String folderHint) throws MessagingException {
+        AccountPool pool = poolFor(user);
+        long deadline = System.currentTimeMillis() + BORROW_TIMEOUT_MS;
+        Store store;
+        while ((store = obtain(pool, user, folderHint)) == null) {
+            awaitConnection(pool, deadline);
+        }
+        return store;
+    }
+
+    /**
+     * 【尝试借出连接 - 不排队】
+     * 有空余名额就借出，没有就立刻返回 null。
+     * 用于“锦上添花”的场景 (并行扫描的帮手连接等)：宁可少开一个连接，也不和正常请求抢名额。
+     */
+    public Store tryBorrow(UserAccount user, String folderHint) throws MessagingException {
+        AccountPool pool = poolFor(user);
+        // 有人在排队时不插队
+        if (pool.waiters.get() > 0) return null;
+        return obtain(pool, user, folderHint);
+    }
+
+    private AccountPool poolFor(UserAccount user) {
+        return pools.computeIfAbsent(user.getEmail(),
+                k -> new AccountPool(k, createSession(user), user.getMaxImapConnections()));
+    }
+
+    /**
+     * 取出一个空闲连接，没有的话在名额内新建一个
+     *
+     * @return null 表示没有空闲连接、名额也用完了
+     */
+    private Store obtain(AccountPool pool, UserAccount user, String folderHint) throws MessagingException {
+        // 1. 先从空闲队列里找一个健康的连接
+        PooledStore ps;
+        while ((ps = pollIdle(pool, folderHint)) != null) {
+            if (isHealthy(ps)) {
+                if (folderHint == null) closeFolders(ps);
+                ps.lastUsed = System.currentTimeMillis();
+                leased.put(ps.store, ps);
+                return ps.store;
+            }
+            closePooled(ps);
+        }
+        if (!pool.permits.tryAcquire()) return null;
+
+        try {
+            // 2. 没有可用的空闲连接，新建一个
+            ps = new PooledStore(connect(pool.session, user), pool);
+            pool.all.add(ps);
+            final PooledStore created = ps;
+            // 服务器主动断开 (BYE / 网络中断) 时会触发 closed 事件，打个标记，归还时直接丢弃
+            ps.store.addConnectionListener(new ConnectionAdapter() {
+                @Override
+                public void closed(ConnectionEvent e) {
+                    created.broken = true;
+                }
+
+                @Override
+                public void disconnected(ConnectionEvent e) {
+                    created.broken = true;
+                }
+            });
+            leased.put(ps.store, ps);
+            return ps.store;
+        } catch (MessagingException | RuntimeException e) {
+            releasePermit(pool);
+            throw e;
+        }
+    }
+
+    /**
+     * 没有可用连接时排队，直到有连接归还、有名额空出来，或者超时
+     */
+    private void awaitConnection(AccountPool pool, long deadline) throws MessagingException {
+        synchronized (pool.idle) {
+            // 在锁内再看一次：归还和释放名额都会先改状态、再拿这把锁通知，不会错过
+            if (!pool.idle.isEmpty() || pool.permits.availablePermits() > 0) return;
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new MessagingException("IMAP 连接池繁忙，请稍后重试");
+            }
+            pool.waiters.incrementAndGet();
+            try {
+                pool.idle.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("等待 IMAP 连接时被中断");
+            } finally {
+                pool.waiters.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 【独占连接】新建一条不归连接池管理的连接 (给 MailboxWatcher 的 IDLE 长连接用)
+     * IDLE 会一直占着连接，放在池子里会永久占掉一个借用名额，所以单独建立，由调用方自己 close。
+     * 但它同样是服务器上的一个登录，要占账号的连接名额：名额用完时先关掉一条空闲连接让出来，
+     * 连接关闭 (调用方 close 或被服务器断开) 时归还。
+     * 读超时要比 IDLE 的续期间隔长，否则 IDLE 等待期间会被当成超时断开。
+     */
+    public Store connectDedicated(UserAccount user, long readTimeoutMs) throws MessagingException {
+        AccountPool pool = poolFor(user);
+        long deadline = System.currentTimeMillis() + BORROW_TIMEOUT_MS;
+        while (!pool.permits.tryAcquire()) {
+            PooledStore victim;
+            synchronized (pool.idle) {
+                victim = pool.idle.pollLast(); // 最久没用的那条
+            }
+            if (victim != null) {
+                closePooled(victim);
+            } else {
+                awaitConnection(pool, deadline);
+            }
+        }
+
+        try {
+            Properties props = createSession(user).getProperties();
+            props.put("mail.imap.timeout", String.valueOf(readTimeoutMs));
+            Store store = connect(Session.getInstance(props), user);
+            AtomicBoolean closed = new AtomicBoolean(false);
+            store.addConnectionListener(new ConnectionAdapter() {
+                @Override
+                public void closed(ConnectionEvent e) {
+                    if (closed.compareAndSet(false, true)) releasePermit(pool);
+                }
+            });
+            return store;
+        } catch (MessagingException | RuntimeException e) {
+            releasePermit(pool);
+            throw e;
+        }
+    }
+
+    /**
+     * 账号是否还有富余的连接名额 (给后台预取等“可有可无”的任务判断用)
+     * 有请求正在排队、或空闲连接加空余名额少于 spare 个，都算“有压力”，返回 false。
+     */
+    public boolean hasSpareConnections(UserAccount user, int spare) {
+        AccountPool pool = pools.get(user.getEmail());
+        if (pool == null) return false;
+        int idle;
+        synchronized (pool.idle) {
+            idle = pool.idle.size();
+        }
+        return pool.waiters.get() == 0 && pool.permits.availablePermits() + idle >= spare;
+    }
+
+    /**
+     * 【归还连接】
+     * 调用方用完后必须归还，否则这条连接别人就借不到了。
+     * 已经断开的连接不会放回池子。
+     * 注意这里不再发 NOOP 检查 (那样每次归还都多一个来回)，只看服务器断开事件打的标记。
+     */
+    public void release(Store store) {
+        if (store == null) return;
+        PooledStore ps = leased.remove(store);
+        if (ps == null) {
+            // 不是从池子里借的 (理论上不会发生)，直接关闭
+            closeStore(store);
+            return;
+        }
+        if (ps.broken) {
+            closePooled(ps);
+        } else {
+            closeStaleFolders(ps);
+            ps.lastUsed = System.currentTimeMillis();
+            synchronized (ps.owner.idle) {
+                ps.owner.idle.addFirst(ps);
+                ps.owner.idle.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 【打开文件夹 (带缓存)】
+     * store 必须是从本连接池借出的连接。
+     * 如果这条连接上已经打开了同名文件夹、且打开模式满足要求，直接复用；否则重新打开并缓存。
+     * 返回的文件夹由连接池负责关闭，调用方不要自己 close。
+     */
+    public FolderSession openFolder(Store store, String folderName, int mode) throws MessagingException {
+        return openFolder(store, folderName, mode, null);
+    }
+
+    /**
+     * 【打开文件夹 (带缓存，支持 QRESYNC)】
+     * 服务器支持 QRESYNC (RFC 7162) 时，需要重新 SELECT 的话会带上 resync 提供的本地同步书签
+     * (UIDVALIDITY + HIGHESTMODSEQ)：连接上会启用 QRESYNC，服务器在 SELECT 里顺带报告书签之后的删除和状态变化，
+     * 之后的 FETCH 也可以用 VANISHED 拿到删除的 UID。报告的变化存在 FolderSession 里，由调用方取走。
+     *
+     * @param resync 只在真正需要 SELECT 时才调用，返回 null 表示本地还没有书签，按普通方式打开
+     */
+    public FolderSession openFolder(Store store, String folderName, int mode, Supplier<ResyncData> resync)
+            throws MessagingException {
+        PooledStore ps = leased.get(store);
+        if (ps == null) {
+            throw new IllegalStateException("只能在从连接池借出的连接上打开文件夹");
+        }
+
+        closeStaleFolders(ps);
+        FolderSession session = ps.folders.get(folderName);
+        if (session != null) {
+            if (session.canServe(mode)) {
+                try {
+                    session.refresh();
+                    return session;
+                } catch (MessagingException e) {
+                    // 文件夹连接已失效，下面重新打开
+                }
+            }
+            session.close();
+            ps.folders.remove(folderName);
+        }
+
+        // 超出上限时先关闭最久未使用的文件夹，把连接还给 Store，新文件夹才能接着用它
+        Iterator<Map.Entry<String, FolderSession>> it = ps.folders.entrySet().iterator();
+        while (ps.folders.size() >= MAX_OPEN_FOLDERS_PER_STORE && it.hasNext()) {
+            it.next().getValue().close();
+            it.remove();
+        }
+
+        Folder folder = store.getFolder(folderName);
+        ResyncData resyncData = null;
+        if (resync != null && folder instanceof IMAPFolder && hasCapability((IMAPFolder) folder, "QRESYNC")) {
+            resyncData = resync.get();
+        }
+        if (resyncData != null) {
+            List<MailEvent> events = ((IMAPFolder) folder).open(mode, resyncData);
+            session = new FolderSession(folder, mode);
+            session.setResyncEvents(events, resyncData.getModSeq(), ((IMAPFolder) folder).getHighestModSeq());
+        } else {
+            folder.open(mode);
+            session = new FolderSession(folder, mode);
+        }
+        ps.folders.put(folderName, session);
+        return session;
+    }
+
+    /**
+     * 服务器是否支持某个扩展
+     * 不用 IMAPStore#hasCapability：它走的是 Store 自己的连接，文件夹打开着时 Store 的连接已经交给了文件夹，
+     * 会另外再登录一个连接。这里文件夹打开着就问文件夹的连接，没打开就问 Store 的连接。
+     */
+    public static boolean hasCapability(IMAPFolder folder, String capability) throws MessagingException {
+        return (Boolean) folder.doCommand(p -> p.hasCapability(capability));
+    }
+
+    /**
+     * 关闭连接上缓存的某个文件夹 (例如文件夹被删除、或需要强制重新 SELECT)
+     */
+    public void closeFolder(Store store, String folderName) {
+        PooledStore ps = leased.get(store);
+        if (ps == null) return;
+        ps.staleFolders.remove(folderName);
+        FolderSession session = ps.folders.remove(folderName);
+        if (session != null) session.close();
+    }
+
+    /**
+     * 关闭某个账号所有连接上缓存的某个文件夹 (删除文件夹前调用)
+     * 只关借用连接自己的那个不够：别的空闲连接还 SELECT 着它，有的服务器会拒绝 DELETE，
+     * 而且同名文件夹重建后，borrow 还会优先挑这条旧会话。
+     * - 空闲连接：先从空闲队列里取出来再关，避免和 borrow 抢同一个连接；
+     * - 其它连接 (借出中、保活检查中)：正在被别的线程使用，只打标记，由借用的线程在下次打开文件夹或归还时关闭。
+     */
+    public void closeFolder(String email, String folderName) {
+        AccountPool pool = pools.get(email);
+        if (pool == null) return;
+        List<PooledStore> holding = new ArrayList<>();
+        synchronized (pool.idle) {
+            Iterator<PooledStore> it = pool.idle.iterator();
+            while (it.hasNext()) {
+                PooledStore ps = it.next();
+                if (ps.folders.containsKey(folderName)) {
+                    it.remove();
+                    holding.add(ps);
+                }
+            }
+        }
+        for (PooledStore ps : pool.all) {
+            if (!holding.contains(ps)) ps.staleFolders.add(folderName);
+        }
+        for (PooledStore ps : holding) {
+            FolderSession session = ps.folders.remove(folderName);
+            if (session != null) session.close();
+            synchronized (pool.idle) {
+                pool.idle.addLast(ps);
+            }
+        }
+    }
+
+    /**
+     * 作废连接：调用方确认连接已经不可用时使用，关闭后不放回池子
+     */
+    public void invalidate(Store store) {
+        if (store == null) return;
+        PooledStore ps = leased.remove(store);
+        if (ps != null) {
+            closePooled(ps);
+        } else {
+            closeStore(store);
+        }
+    }
+
+    /**
+     * 关闭某个账号的所有空闲连接 (例如账号被解绑、授权码被修改)
+     * 正在使用中的连接会在归还后按空闲规则自然回收。
+     */
+    public void evictAccount(String email) {
+        AccountPool pool = pools.get(email);
+        if (pool == null) return;
+        List<PooledStore> toClose;
+        synchronized (pool.idle) {
+            toClose = new ArrayList<>(pool.idle);
+            pool.idle.clear();
+        }
+        toClose.forEach(this::closePooled);
+    }
+
+    /**
+     * 【后台维护任务】保活 + 空闲回收
+     * 每 30 秒运行一次：
+     * - 空闲超过 IDLE_EVICT_MS 的连接直接关闭；
+     * - 空闲超过 KEEPALIVE_INTERVAL_MS 的连接发 NOOP，失败的关闭。
+     * 检查时先把连接从空闲队列里取出来，避免和 borrow 抢同一个连接。
+     */
+    @Scheduled(fixedDelay = 30_000)
+    public void maintain() {
+        long now = System.currentTimeMillis();
+        for (AccountPool pool : pools.values()) {
+            List<PooledStore> toCheck = new ArrayList<>();
+            List<PooledStore> toClose = new ArrayList<>();
+            synchronized (pool.idle) {
+                Iterator<PooledStore> it = pool.idle.iterator();
+                while (it.hasNext()) {
+                    PooledStore ps = it.next();
+                    long idleTime = now - ps.lastUsed;
+                    if (ps.broken || idleTime > IDLE_EVICT_MS) {
+                        it.remove();
+                        toClose.add(ps);
+                    } else if (idleTime > KEEPALIVE_INTERVAL_MS) {
+                        it.remove();
+                        toCheck.add(ps);
+                    }
+                }
+            }
+
+            toClose.forEach(this::closePooled);
+
+            for (PooledStore ps : toCheck) {
+                closeStaleFolders(ps);
+                if (!ps.broken && ping(ps)) {
+                    // 注意：保活不刷新 lastUsed，否则空闲连接永远不会被回收
+                    synchronized (pool.idle) {
+                        pool.idle.addLast(ps);
+                        pool.idle.notifyAll();
+                    }
+                } else {
+                    closePooled(ps);
+                }
+            }
+        }
+    }
+
+    /**
+     * 应用关闭时断开所有连接，给服务器发 LOGOUT，不留僵尸连接
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (AccountPool pool : pools.values()) {
+            synchronized (pool.idle) {
+                pool.idle.forEach(this::closePooled);
+                pool.idle.clear();
+            }
+        }
+        leased.values().forEach(this::closePooled);
+        leased.clear();
+    }
+
+    // ================== 内部方法 ==================
+
+    /**
+     * 关闭被标记作废的文件夹 (只能由借用这条连接、或正在对它做保活检查的线程调用)
+     */
+    private void closeStaleFolders(PooledStore ps) {
+        for (String name : ps.staleFolders) {
+            ps.staleFolders.remove(name);
+            FolderSession session = ps.folders.remove(name);
+            if (session != null) session.close();
+        }
+    }
+
+    /**
+     * 取出一条空闲连接：优先挑已经打开了目标文件夹的 (不指定文件夹时挑没有打开文件夹的)，否则取最近用过的
+     */
+    private PooledStore pollIdle(AccountPool pool, String folderHint) {
+        synchronized (pool.idle) {
+            Iterator<PooledStore> it = pool.idle.iterator();
+            while (it.hasNext()) {
+                PooledStore ps = it.next();
+                if (folderHint != null ? ps.folders.containsKey(folderHint) : ps.folders.isEmpty()) {
+                    it.remove();
+                    return ps;
+                }
+            }
+            return pool.idle.pollFirst();
+        }
+    }
+
+    /**
+     * 关闭连接上缓存的所有文件夹，连接回到 Store 手里 (只能由借用这条连接的线程调用)
+     */
+    private void closeFolders(PooledStore ps) {
+        ps.folders.values().forEach(FolderSession::close);
+        ps.folders.clear();
+    }
+
+    /**
+     * 发 NOOP 确认连接还活着
+     * 打开着文件夹时连接在文件夹手里，给文件夹发 (顺便保活)；IMAPStore.isConnected() 这时会另外登录一个连接。
+     */
+    private boolean ping(PooledStore ps) {
+        if (!ps.folders.isEmpty()) {
+            keepFoldersAlive(ps);
+            if (!ps.folders.isEmpty()) return true;
+        }
+        // IMAPStore.isConnected() 内部会真正发送一次 NOOP
+        return ps.store.isConnected();
+    }
+
+    /**
+     * 给连接上打开着的文件夹发 NOOP 保活，失效的直接关掉
+     */
+    private void keepFoldersAlive(PooledStore ps) {
+        Iterator<FolderSession> it = ps.folders.values().iterator();
+        while (it.hasNext()) {
+            FolderSession session = it.next();
+            try {
+                session.refresh();
+            } catch (Exception e) {
+                session.close();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 借出前的健康检查
+     * 刚用过的连接直接信任；空闲较久的才发 NOOP，避免每次借用都多一个来回。
+     */
+    private boolean isHealthy(PooledStore ps) {
+        if (ps.broken) return false;
+        if (System.currentTimeMillis() - ps.lastUsed < VALIDATE_AFTER_IDLE_MS) return true;
+        return ping(ps);
+    }
+
+    /**
+     * 为账号创建 Session (每个账号只创建一次)
+     */
+    private Session createSession(UserAccount user) {
+        Properties props = new Properties();
+        props.put("mail.store.protocol", "imap");
+        props.put("mail.imap.host", user.getImapHost());
+        props.put("mail.imap.port", String.valueOf(user.getImapPort()));
+        props.put("mail.imap.ssl.enable", "true");
+        props.put("mail.imap.partialfetch", "false"); // 关闭部分抓取，防乱码
+        props.put("mail.imap.ssl.trust", "*"); // 信任所有证书，防握手失败
+        // 文件夹会以读写模式缓存复用，开启 peek 保证读取正文时不会顺手把邮件标成已读
+        props.put("mail.imap.peek", "true");
+        // 打开文件夹时直接接管 Store 的连接，一个 Store 在服务器上始终只占一个登录 (连接名额按这个算)
+        // 代价是文件夹打开期间 Store 级别的命令 (LIST/STATUS/CAPABILITY) 会另建连接，所以：
+        // 借出做 Store 级别命令的连接前先关掉缓存的文件夹 (见 borrow)，问 CAPABILITY 走 hasCapability
+        props.put("mail.imap.separatestoreconnection", "false");
+        // 连接会被长期复用，必须设置超时，否则网络断了之后 NOOP 会一直卡住
+        props.put("mail.imap.connectiontimeout", "15000");
+        props.put("mail.imap.timeout", "60000");
+        // APPEND 前要先算出邮件大小：默认 (-1) 会把整封邮件序列化进内存缓冲区再发，
+        // 设成 0 则只数字节、发送时再写一遍；保存到“已发送”的邮件是从本地文件读的 (见 MailService#deliver)，写两遍只是两次文件拷贝
+        props.put("mail.imap.appendbuffersize", "0");
+        return Session.getInstance(props);
+    }
+
+    /**
+     * 【通用 IMAP 连接器】
+     * 统一处理了 SSL、端口、Trust 设置，最重要的是统一处理了 163 的 IMAP ID 验证
+     */
+    private Store connect(Session session, UserAccount user) throws MessagingException {
+        Store store = session.getStore("imap");
+        store.connect(user.getImapHost(), user.getEmail(), user.getPassword());
+
+        // --- 核心：统一发送 IMAP ID (解决 163 报错 "Unsafe Login" 问题) ---
+        // 163 邮箱强制要求客户端发送 ID 信息，否则会拒绝部分操作
+        if (store instanceof IMAPStore) {
+            IMAPStore imapStore = (IMAPStore) store;
+            Map<String, String> idMap = new HashMap<>();
+            idMap.put("name", "my-email-client");
+            idMap.put("version", "1.0.0");
+            idMap.put("vendor", "my-company");
+            idMap.put("support-email", "test@test.com");
+            try {
+                imapStore.id(idMap);
+            } catch (Exception e) {
+                // 忽略非关键错误
+            }
+        }
+        return store;
+    }
+
+    private void closePooled(PooledStore ps) {
+        boolean counted = ps.owner.all.remove(ps);
+        closeFolders(ps);
+        closeStore(ps.store);
+        if (counted) releasePermit(ps.owner);
+    }
+
+    /**
+     * 归还一个连接名额，并叫醒排队的线程
+     */
+    private void releasePermit(AccountPool pool) {
+        pool.permits.release();
+        synchronized (pool.idle) {
+            pool.idle.notifyAll();
+        }
+    }
+
+    private void closeStore(Store store) {
+        try {
+            store.close();
+        } catch (Exception e) {
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.example.demo.service;
+
+import com.example.demo.model.UserAccount;
+import jakarta.mail.FetchProfile;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.UIDFolder;
+import jakarta.mail.search.*;
+import org.eclipse.angus.mail.iap.Argument;
+import org.eclipse.angus.mail.iap.BadCommandException;
+import org.eclipse.angus.mail.iap.CommandFailedException;
+import org.eclipse.angus.mail.iap.ProtocolException;
+import org.eclipse.angus.mail.iap.Response;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.eclipse.angus.mail.imap.SortTerm;
+import org.eclipse.angus.mail.imap.protocol.IMAPResponse;
+import org.eclipse.angus.mail.imap.protocol.SearchSequence;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 服务器端搜索 / 排序服务 (IMAP SEARCH + SORT)
+ * 作用：把搜索关键字翻译成 IMAP 的 "UID SEARCH CHARSET UTF-8 ..." 命令，让邮件服务器去搜，
+ * 我们只需要下载当前页那几封邮件的信封。
+ * * 💡 为什么要“探测”？
+ * 以前的注释说“IMAP 对中文搜索支持很差”，这话对一半：有的服务器完全支持，有的会直接返回空结果，
+ * 甚至返回错误结果。所以每个邮箱厂商 (qq/163/hust) 第一次搜中文时，我们先拿一封已知的中文标题邮件试一下：
+ * 搜得到，说明这家服务器靠得住；搜不到，以后就老老实实走本地缓存。
+ */
+@Service
+public class ImapSearchService {
+
+    // 探测时最多往回看多少封邮件去找中文标题
+    private static final int PROBE_SAMPLE_SIZE = 30;
+
+    // 探测结果缓存：邮箱类型 (qq/163/hust) -> 中文搜索是否可信
+    private final Map<String, Boolean> cjkSearchTrusted = new ConcurrentHashMap<>();
+
+    // SORT 能力缓存：邮箱地址 -> 服务器是否支持 SORT
+    private final Map<String, Boolean> sortSupported = new ConcurrentHashMap<>();
+
+    /**
+     * 【核心方法】在服务器上搜索，返回匹配邮件的 UID (升序)
+     *
+     * @return 匹配的 UID 列表；返回 null 表示这次搜索不能交给服务器 (条件无法表达或服务器不可信)，调用方需要走兜底方案
+     */
+    public long[] search(String mailType, IMAPFolder folder, String keyword, String searchType, boolean isSentFolder) {
+        try {
+            SearchTerm term = trustedTerm(mailType, folder, keyword, searchType, isSentFolder);
+            if (term == null) return null;
+            return uidSearch(folder, term);
+        } catch (Exception e) {
+            System.err.println("⚠️ 服务器端搜索失败，改用本地搜索: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 【核心方法】在服务器上排序 (IMAP SORT 扩展，RFC 5256)，可以同时带上搜索条件
+     * 服务器只返回排好序的邮件序号，我们再按页切片、只下载这一页的信封。
+     *
+     * @return 排好序的邮件 (还没有下载信封)；返回 null 表示服务器不支持 SORT 或条件无法交给服务器，调用方需要走兜底方案
+     */
+    public Message[] sort(UserAccount user, IMAPFolder folder, String sortField, String sortOrder,
+                          String keyword, String searchType, boolean isSentFolder) {
+        try {
+            if (!supportsSort(user.getEmail(), folder)) return null;
+
+            SearchTerm term = null;
+            if (StringUtils.hasText(keyword)) {
+                term = trustedTerm(user.getType(), folder, keyword, searchType, isSentFolder);
+                if (term == null) return null;
+            }
+
+            // 排序字段映射 (已发送箱里显示的是收件人，所以按 TO 排)
+            SortTerm key;
+            String field = sortField != null ? sortField : "date";
+            switch (field) {
+                case "sender":
+                    key = isSentFolder ? SortTerm.TO : SortTerm.FROM;
+                    break;
+                case "title":
+                    key = SortTerm.SUBJECT;
+                    break;
+                case "date":
+                default:
+                    key = SortTerm.DATE;
+                    break;
+            }
+            SortTerm[] terms = "desc".equals(sortOrder)
+                    ? new SortTerm[] { SortTerm.REVERSE, key }
+                    : new SortTerm[] { key };
+            return folder.getSortedMessages(terms, term);
+        } catch (Exception e) {
+            System.err.println("⚠️ 服务器端排序失败，改用本地排序: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 服务器是否支持 SORT 扩展 (按账号缓存，只在第一次时看一下 CAPABILITY)
+     */
+    private boolean supportsSort(String accountEmail, IMAPFolder folder) throws MessagingException {
+        Boolean cached = sortSupported.get(accountEmail);
+        if (cached != null) return cached;
+        boolean supported = ImapConnectionPool.hasCapability(folder, "SORT");
+        sortSupported.put(accountEmail, supported);
+        return supported;
+    }
+
+    /**
+     * 把关键字翻译成搜索条件，并确认服务器能搜对
+     * 纯英文/数字关键字所有服务器都支持，只有中文等非 ASCII 关键字才需要探测。
+     */
+    private SearchTerm trustedTerm(String mailType, IMAPFolder folder, String keyword, String searchType,
+                                   boolean isSentFolder) throws MessagingException {
+        SearchTerm term = buildTerm(keyword, searchType, isSentFolder);
+        if (term == null) return null;
+        if (!SearchSequence.isAscii(keyword) && !isCjkSearchTrusted(mailType, folder)) {
+            return null;
+        }
+        return term;
+    }
+
+    /**
+     * 把前端的 searchType 翻译成 JavaMail 的 SearchTerm
+     * - sender: FROM (已发送箱里显示的是收件人，所以搜 TO)
+     * - title:  SUBJECT
+     * - date:   SENTON / SENTSINCE + SENTBEFORE (只支持 yyyy、yyyy-MM、yyyy-MM-dd 三种写法)
+     * - all:    以上任意一个满足即可 (OR)
+     */
+    private SearchTerm buildTerm(String keyword, String searchType, boolean isSentFolder) {
+        String type = (searchType != null) ? searchType : "all";
+        SearchTerm senderTerm = isSentFolder
+                ? new RecipientStringTerm(Message.RecipientType.TO, keyword)
+                : new FromStringTerm(keyword);
+
+        switch (type) {
+            case "sender":
+                return senderTerm;
+            case "title":
+                return new SubjectTerm(keyword);
+            case "date":
+                return buildDateTerm(keyword);
+            case "all":
+            default:
+                SearchTerm dateTerm = buildDateTerm(keyword);
+                if (dateTerm != null) {
+                    return new OrTerm(new SearchTerm[] { new SubjectTerm(keyword), senderTerm, dateTerm });
+                }
+                return new OrTerm(new SubjectTerm(keyword), senderTerm);
+        }
+    }
+
+    /**
+     * 日期关键字 -> SENT* 条件
+     * IMAP 只能按“天”比较，像 "10:30" 这种时间关键字没法表达，返回 null 交给本地搜索
+     */
+    private SearchTerm buildDateTerm(String keyword) {
+        String k = keyword.trim();
+        try {
+            Calendar start = Calendar.getInstance();
+            Calendar end = Calendar.getInstance();
+            if (k.matches("\\d{4}-\\d{2}-\\d{2}")) {
+                start.setTime(parseDate(k, "yyyy-MM-dd"));
+                return new SentDateTerm(ComparisonTerm.EQ, start.getTime());
+            } else if (k.matches("\\d{4}-\\d{2}")) {
+                start.setTime(parseDate(k, "yyyy-MM"));
+                end.setTime(start.getTime());
+                end.add(Calendar.MONTH, 1);
+            } else if (k.matches("\\d{4}")) {
+                start.setTime(parseDate(k, "yyyy"));
+                end.setTime(start.getTime());
+                end.add(Calendar.YEAR, 1);
+            } else {
+                return null;
+            }
+            return new AndTerm(new SentDateTerm(ComparisonTerm.GE, start.getTime()),
+                    new SentDateTerm(ComparisonTerm.LT, end.getTime()));
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private Date parseDate(String text, String pattern) throws ParseException {
+        SimpleDateFormat fmt = new SimpleDateFormat(pattern);
+        fmt.setLenient(false);
+        return fmt.parse(text);
+    }
+
+    /**
+     * 探测某个邮箱厂商的中文搜索是否可靠 (结果按厂商缓存)
+     * 做法：在最近的邮件里找一封中文标题，取其中两个汉字去 SUBJECT 搜索，看能不能把它搜回来。
+     * * ⚠️ 只缓存确定的结果 (服务器给出了搜索结果，或者明确拒绝了命令)；
+     * 超时、断线这类临时错误这次按不可信处理，但不缓存，下次再探测。
+     */
+    private boolean isCjkSearchTrusted(String mailType, IMAPFolder folder) throws MessagingException {
+        Boolean cached = cjkSearchTrusted.get(mailType);
+        if (cached != null) return cached;
+
+        int total = folder.getMessageCount();
+        if (total == 0) return false; // 没有样本，这次先不信任，下次再探测
+
+        Message[] recent = folder.getMessages(Math.max(1, total - PROBE_SAMPLE_SIZE + 1), total);
+        FetchProfile fp = new FetchProfile();
+        fp.add(FetchProfile.Item.ENVELOPE);
+        fp.add(UIDFolder.FetchProfileItem.UID);
+        folder.fetch(recent, fp);
+
+        for (int i = recent.length - 1; i >= 0; i--) {
+            String sample = cjkSample(recent[i].getSubject());
+            if (sample == null) continue;
+
+            long expectedUid = folder.getUID(recent[i]);
+            boolean trusted;
+            try {
+                trusted = Arrays.stream(uidSearch(folder, new SubjectTerm(sample))).anyMatch(u -> u == expectedUid);
+            } catch (Exception e) {
+                if (!isServerRefusal(e)) {
+                    System.err.println("⚠️ [" + mailType + "] 中文服务器搜索探测失败，下次再试: " + e.getMessage());
+                    return false;
+                }
+                // 服务器直接拒绝 CHARSET UTF-8 (BADCHARSET)，同样视为不可信
+                trusted = false;
+            }
+            cjkSearchTrusted.put(mailType, trusted);
+            System.out.println((trusted ? "✅" : "⚠️") + " [" + mailType + "] 中文服务器搜索探测结果: " + trusted);
+            return trusted;
+        }
+        return false; // 最近没有中文标题的邮件，无法判断，下次再探测
+    }
+
+    /**
+     * 服务器回了 NO / BAD (命令被拒绝)，而不是连接出了问题 (顺着异常原因一层层找)
+     */
+    private boolean isServerRefusal(Throwable e) {
+        if (e instanceof CommandFailedException || e instanceof BadCommandException) return true;
+        Throwable cause = e.getCause();
+        return cause != null && cause != e && isServerRefusal(cause);
+    }
+
+    /**
+     * 从标题里取连续两个汉字作为探测样本
+     */
+    private String cjkSample(String subject) {
+        if (subject == null) return null;
+        for (int i = 0; i + 1 < subject.length(); i++) {
+            if (isCjk(subject.charAt(i)) && isCjk(subject.charAt(i + 1))) {
+                return subject.substring(i, i + 2);
+            }
+        }
+        return null;
+    }
+
+    private boolean isCjk(char c) {
+        return Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+    }
+
+    /**
+     * 发送 "UID SEARCH CHARSET UTF-8 <条件>"
+     * 不直接用 folder.search()：它会按 JVM 默认编码选 CHARSET，中文 Windows 上会变成 GBK。
+     */
+    @SuppressWarnings("unchecked")
+    private long[] uidSearch(IMAPFolder folder, SearchTerm term) throws MessagingException {
+        List<Long> uids = (List<Long>) folder.doCommand(p -> {
+            Argument args = new Argument();
+            args.writeAtom("CHARSET");
+            args.writeAtom("UTF-8");
+            try {
+                args.append(new SearchSequence(p).generateSequence(term, "UTF-8"));
+            } catch (SearchException | IOException e) {
+                throw new ProtocolException(e.getMessage());
+            }
+
+            Response[] responses = p.command("UID SEARCH", args);
+            Response response = responses[responses.length - 1];
+            List<Long> found = new ArrayList<>();
+            if (response.isOK()) {
+                for (Response r : responses) {
+                    if (r instanceof IMAPResponse && ((IMAPResponse) r).keyEquals("SEARCH")) {
+                        long uid;
+                        while ((uid = r.readLong()) != -1) {
+                            found.add(uid);
+                        }
+                    }
+                }
+            }
+            p.notifyResponseHandlers(responses);
+            p.handleResult(response);
+            return found;
+        });
+
+        return uids.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+}
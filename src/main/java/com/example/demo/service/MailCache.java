@@ -0,0 +1,346 @@
+package com.example.demo.service;
+
+import com.example.demo.model.AttachmentInfo;
+import com.example.demo.model.EmailInfo;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * 邮件内存缓存 (Mail Cache)
+ * 作用：缓存“列表页”和“邮件详情”，用户翻回刚看过的页、或者点开后台已经预取好的邮件时，不用再访问服务器。
+ * * 两种缓存：
+ * 1. 列表页：key 是 (账号, 文件夹, 页码, 排序, 搜索条件)。
+ * 取出时要求文件夹的 UIDVALIDITY 和邮件总数都没变，并且不超过 LISTING_TTL_MS，否则视为过期。
+ * 2. 邮件详情：key 是 (账号, 文件夹, UID)。同一个 UID 的邮件内容不会变，只在删除/移动时清掉。
+ * 列表页缓存是按访问顺序淘汰的 LRU，条数有上限，防止占用太多内存。
+ * 详情缓存按估算的字节数限制 (一封营销邮件的 HTML 可能比几百封普通邮件加起来还大，按条数限制没有意义)：
+ * * 每个账号一个分区，各自按 LRU 排列，单个账号最多占 MAX_ACCOUNT_DETAIL_BYTES，不会把别的账号挤出去；
+ * * 所有账号合计超过 MAX_DETAIL_BYTES 时，淘汰全局最久没看过的那封 (比较各分区最旧一封的访问序号)。
+ * * 记录命中 / 未命中 / 淘汰次数，见 getDetailStats。
+ * (自定义文件夹列表和文件夹角色一起缓存在 FolderRoleResolver 里)
+ * * 另外记录 MailboxWatcher 通过 IDLE 推送维护的文件夹状态 (UIDVALIDITY + 邮件总数)：
+ * 推送在线时，列表页缓存不用连服务器就能判断是否过期，有效期也放宽到 PUSHED_LISTING_TTL_MS。
+ */
+@Component
+public class MailCache {
+
+    // 列表页缓存最多保留多久 (邮件总数没变但标题/已读状态可能变了，不能无限期使用)
+    private static final long LISTING_TTL_MS = 60_000;
+    // 列表页缓存最多多少页
+    private static final int MAX_LISTINGS = 100;
+    // 有 IDLE 推送时列表页缓存的有效期 (文件夹的任何变化都会主动清缓存，所以可以放心用久一点)
+    private static final long PUSHED_LISTING_TTL_MS = 10 * 60_000;
+    // 邮件详情缓存总共最多占多少内存 (估算值)
+    private static final long MAX_DETAIL_BYTES = 64L * 1024 * 1024;
+    // 单个账号的详情最多占多少内存
+    private static final long MAX_ACCOUNT_DETAIL_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * 列表页缓存条目：记下缓存时文件夹的状态，用来判断是否过期
+     */
+    private static class ListingEntry {
+        final long uidValidity;
+        final int messageCount;
+        final long createdAt = System.currentTimeMillis();
+        final Map<String, Object> result;
+
+        ListingEntry(long uidValidity, int messageCount, Map<String, Object> result) {
+            this.uidValidity = uidValidity;
+            this.messageCount = messageCount;
+            this.result = result;
+        }
+    }
+
+    // invalidateFolder 的订阅者 (账号, 真实文件夹名)
+    private final List<BiConsumer<String, String>> folderListeners = new CopyOnWriteArrayList<>();
+
+    private final LinkedHashMap<String, ListingEntry> listings = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ListingEntry> eldest) {
+            return size() > MAX_LISTINGS;
+        }
+    };
+
+    /**
+     * IDLE 推送维护的文件夹状态
+     */
+    public static class FolderState {
+        private final long uidValidity;
+        private final int messageCount;
+
+        public FolderState(long uidValidity, int messageCount) {
+            this.uidValidity = uidValidity;
+            this.messageCount = messageCount;
+        }
+
+        public long getUidValidity() {
+            return uidValidity;
+        }
+
+        public int getMessageCount() {
+            return messageCount;
+        }
+    }
+
+    // (账号|文件夹) -> 推送维护的文件夹状态
+    private final Map<String, FolderState> pushedStates = new ConcurrentHashMap<>();
+
+    /**
+     * 详情缓存条目：记下估算的大小和最近一次访问的序号 (跨账号比较谁更旧)
+     */
+    private static class DetailEntry {
+        final EmailInfo detail;
+        final long bytes;
+        long lastAccess;
+
+        DetailEntry(EmailInfo detail, long bytes, long lastAccess) {
+            this.detail = detail;
+            this.bytes = bytes;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * 单个账号的详情分区：(文件夹|UID) -> 条目，按访问顺序排列
+     */
+    private static class DetailPartition {
+        final LinkedHashMap<String, DetailEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        long bytes = 0;
+    }
+
+    // 账号 -> 详情分区 (都在 this 锁内访问)
+    private final Map<String, DetailPartition> details = new HashMap<>();
+    // 所有分区合计的估算字节数
+    private long detailBytes = 0;
+    // 访问序号，每次读写加一
+    private long accessClock = 0;
+
+    // 统计：命中 / 未命中 / 淘汰
+    private final AtomicLong detailHits = new AtomicLong();
+    private final AtomicLong detailMisses = new AtomicLong();
+    private final AtomicLong detailEvictions = new AtomicLong();
+
+    // ================== 列表页 ==================
+
+    public String listingKey(String account, String realFolder, int page, int size, String sortField,
+                             String sortOrder, String keyword, String searchType) {
+        return account + "|" + realFolder + "|" + page + "|" + size + "|" + sortField + "|" + sortOrder
+                + "|" + keyword + "|" + searchType;
+    }
+
+    /**
+     * 取出列表页缓存，文件夹状态对不上或已超时则返回 null
+     *
+     * @param pushed 文件夹状态是否来自 IDLE 推送 (是的话有效期更长)
+     */
+    public synchronized Map<String, Object> getListing(String key, long uidValidity, int messageCount,
+                                                       boolean pushed) {
+        ListingEntry entry = listings.get(key);
+        if (entry == null) return null;
+        long ttl = pushed ? PUSHED_LISTING_TTL_MS : LISTING_TTL_MS;
+        if (entry.uidValidity != uidValidity || entry.messageCount != messageCount
+                || System.currentTimeMillis() - entry.createdAt > ttl) {
+            listings.remove(key);
+            return null;
+        }
+        return entry.result;
+    }
+
+    public synchronized void putListing(String key, long uidValidity, int messageCount, Map<String, Object> result) {
+        listings.put(key, new ListingEntry(uidValidity, messageCount, result));
+    }
+
+    /**
+     * 文件夹里的邮件被删除/移动后，清掉这个文件夹的所有列表页缓存
+     * (删除一封再来一封新邮件时总数不变，只靠总数判断不出来)
+     */
+    public synchronized void invalidateFolder(String account, String realFolder) {
+        String prefix = account + "|" + realFolder + "|";
+        Iterator<String> it = listings.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) it.remove();
+        }
+        // 通知其它按文件夹缓存的数据 (例如侧边栏的邮件数)
+        for (BiConsumer<String, String> listener : folderListeners) {
+            listener.accept(account, realFolder);
+        }
+    }
+
+    /**
+     * 订阅文件夹变化：任何地方调用 invalidateFolder (删除、移动、标记、IDLE 推送……) 时都会收到通知
+     */
+    public void addFolderListener(BiConsumer<String, String> listener) {
+        folderListeners.add(listener);
+    }
+
+    // ================== IDLE 推送的文件夹状态 ==================
+
+    /**
+     * 取出推送维护的文件夹状态，没有在线的 IDLE 监听时返回 null
+     */
+    public FolderState getPushedState(String account, String realFolder) {
+        return pushedStates.get(account + "|" + realFolder);
+    }
+
+    public void putPushedState(String account, String realFolder, long uidValidity, int messageCount) {
+        pushedStates.put(account + "|" + realFolder, new FolderState(uidValidity, messageCount));
+    }
+
+    /**
+     * IDLE 监听断开/停止时调用，之后列表页又回到每次向服务器确认状态
+     */
+    public void removePushedState(String account, String realFolder) {
+        pushedStates.remove(account + "|" + realFolder);
+    }
+
+    // ================== 邮件详情 ==================
+
+    private String detailKey(String realFolder, long uid) {
+        return realFolder + "|" + uid;
+    }
+
+    public synchronized EmailInfo getDetail(String account, String realFolder, long uid) {
+        DetailPartition partition = details.get(account);
+        DetailEntry entry = partition != null ? partition.entries.get(detailKey(realFolder, uid)) : null;
+        if (entry == null) {
+            detailMisses.incrementAndGet();
+            return null;
+        }
+        entry.lastAccess = ++accessClock;
+        detailHits.incrementAndGet();
+        return entry.detail;
+    }
+
+    public synchronized void putDetail(String account, String realFolder, long uid, EmailInfo detail) {
+        long bytes = estimateBytes(detail);
+        // 比一个账号的上限还大的邮件不缓存，否则会把这个账号的其它邮件全部挤掉
+        if (bytes > MAX_ACCOUNT_DETAIL_BYTES) {
+            removeDetail(account, realFolder, uid);
+            return;
+        }
+        DetailPartition partition = details.computeIfAbsent(account, k -> new DetailPartition());
+        DetailEntry old = partition.entries.put(detailKey(realFolder, uid), new DetailEntry(detail, bytes, ++accessClock));
+        long delta = bytes - (old != null ? old.bytes : 0);
+        partition.bytes += delta;
+        detailBytes += delta;
+
+        // 先在本账号内淘汰，再看总量
+        while (partition.bytes > MAX_ACCOUNT_DETAIL_BYTES) {
+            evictEldest(account, partition);
+        }
+        while (detailBytes > MAX_DETAIL_BYTES) {
+            String victim = null;
+            long oldest = Long.MAX_VALUE;
+            for (Map.Entry<String, DetailPartition> e : details.entrySet()) {
+                Iterator<DetailEntry> it = e.getValue().entries.values().iterator();
+                // 分区内按访问顺序排列，第一条就是这个账号最久没看过的
+                if (it.hasNext()) {
+                    long access = it.next().lastAccess;
+                    if (access < oldest) {
+                        oldest = access;
+                        victim = e.getKey();
+                    }
+                }
+            }
+            if (victim == null) break;
+            evictEldest(victim, details.get(victim));
+        }
+    }
+
+    public synchronized void removeDetail(String account, String realFolder, long uid) {
+        DetailPartition partition = details.get(account);
+        if (partition == null) return;
+        DetailEntry old = partition.entries.remove(detailKey(realFolder, uid));
+        if (old != null) release(account, partition, old.bytes);
+    }
+
+    /**
+     * 清掉一个文件夹的所有详情 (UIDVALIDITY 变了，旧的 UID 全部作废)
+     */
+    public synchronized void removeFolderDetails(String account, String realFolder) {
+        DetailPartition partition = details.get(account);
+        if (partition == null) return;
+        String prefix = realFolder + "|";
+        Iterator<Map.Entry<String, DetailEntry>> it = partition.entries.entrySet().iterator();
+        long freed = 0;
+        while (it.hasNext()) {
+            Map.Entry<String, DetailEntry> e = it.next();
+            if (e.getKey().startsWith(prefix)) {
+                freed += e.getValue().bytes;
+                it.remove();
+            }
+        }
+        release(account, partition, freed);
+    }
+
+    /**
+     * 详情缓存的统计数据 (条数、估算大小、命中率、淘汰次数)
+     * ⚠️ 只返回当前账号自己的分区和全局的汇总数字，不能带出其它账号的邮箱地址
+     */
+    public synchronized Map<String, Object> getDetailStats(String account) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hits = detailHits.get();
+        long misses = detailMisses.get();
+        int count = 0;
+        for (DetailPartition p : details.values()) {
+            count += p.entries.size();
+        }
+        DetailPartition own = details.get(account);
+        stats.put("entries", count);
+        stats.put("bytes", detailBytes);
+        stats.put("maxBytes", MAX_DETAIL_BYTES);
+        stats.put("accountEntries", own == null ? 0 : own.entries.size());
+        stats.put("accountBytes", own == null ? 0L : own.bytes);
+        stats.put("maxAccountBytes", MAX_ACCOUNT_DETAIL_BYTES);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("evictions", detailEvictions.get());
+        return stats;
+    }
+
+    private void evictEldest(String account, DetailPartition partition) {
+        Iterator<DetailEntry> it = partition.entries.values().iterator();
+        DetailEntry eldest = it.next();
+        it.remove();
+        detailEvictions.incrementAndGet();
+        release(account, partition, eldest.bytes);
+    }
+
+    private void release(String account, DetailPartition partition, long bytes) {
+        partition.bytes -= bytes;
+        detailBytes -= bytes;
+        if (partition.entries.isEmpty()) details.remove(account);
+    }
+
+    /**
+     * 估算一封邮件详情占用的内存：字符串按每个字符 2 字节算 (含中文时 String 用 UTF-16 存储)，
+     * 再加上对象头、引用等固定开销。只用来控制缓存总量，不需要精确。
+     */
+    private static long estimateBytes(EmailInfo detail) {
+        long bytes = 256;
+        bytes += stringBytes(detail.getTitle()) + stringBytes(detail.getSender()) + stringBytes(detail.getAddress())
+                + stringBytes(detail.getRecipients()) + stringBytes(detail.getSendDate())
+                + stringBytes(detail.getContent());
+        if (detail.getFilenames() != null) {
+            for (String name : detail.getFilenames()) {
+                bytes += stringBytes(name) + 8;
+            }
+        }
+        if (detail.getAttachments() != null) {
+            for (AttachmentInfo att : detail.getAttachments()) {
+                bytes += 48 + stringBytes(att.getName()) + stringBytes(att.getContentType()) + stringBytes(att.getSection());
+            }
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String s) {
+        return s == null ? 0 : 40 + 2L * s.length();
+    }
+}
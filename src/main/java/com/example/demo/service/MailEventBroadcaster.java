@@ -0,0 +1,117 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * 邮箱变化广播器 (Server-Sent Events)
+ * 作用：MailboxWatcher 收到服务器推送后，经这里转发给所有打开着页面的浏览器，页面原地更新列表，不用整页刷新。
+ * * 💡 为什么用 SSE 而不是 WebSocket？
+ * 这里只需要“服务器 -> 浏览器”单向推送，SSE 就是一个不结束的 HTTP 响应，浏览器原生的 EventSource 会自动重连。
+ * * 为什么能扛住大量空闲连接？
+ * 1. SseEmitter 基于 Servlet 异步请求：请求线程把响应挂起后立刻回到线程池，空闲连接不占线程，只占一个 socket；
+ * 2. 每个账号一份订阅列表，同一个账号开多个标签页也只有一个 MailboxWatcher 在监听服务器；
+ * 3. 一条事件只序列化一次 JSON，再写给这个账号的所有连接。
+ */
+@Component
+public class MailEventBroadcaster {
+
+    // 单个 SSE 连接最长保持多久，超时后浏览器的 EventSource 会自动重连 (顺便清理掉半死不活的连接)
+    private static final long EMITTER_TIMEOUT_MS = 30 * 60_000;
+    // 浏览器断线后多久重连
+    private static final long RECONNECT_TIME_MS = 10_000;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // 邮箱地址 -> 订阅这个账号的所有浏览器连接
+    private final Map<String, Set<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * 浏览器订阅某个账号的变化
+     */
+    public SseEmitter subscribe(String account) {
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MS);
+        subscribers.compute(account, (k, set) -> {
+            if (set == null) set = new CopyOnWriteArraySet<>();
+            set.add(emitter);
+            return set;
+        });
+
+        // 连接结束 (浏览器关闭页面、超时、网络错误) 时从订阅列表里移除
+        Runnable remove = () -> remove(account, emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+
+        try {
+            // 先发一条注释把响应头刷出去，浏览器端 onopen 才会触发
+            emitter.send(SseEmitter.event().reconnectTime(RECONNECT_TIME_MS).comment("connected"));
+        } catch (IOException e) {
+            remove(account, emitter);
+        }
+        return emitter;
+    }
+
+    /**
+     * 给某个账号的所有浏览器推送一条事件
+     *
+     * @param eventName 事件名 (前端用 addEventListener 按名字接收)
+     * @param data      事件内容，会被序列化成 JSON
+     */
+    public void publish(String account, String eventName, Object data) {
+        Set<SseEmitter> set = subscribers.get(account);
+        if (set == null || set.isEmpty()) return;
+
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(data);
+        } catch (Exception e) {
+            System.err.println("⚠️ 推送事件序列化失败: " + e.getMessage());
+            return;
+        }
+        for (SseEmitter emitter : set) {
+            try {
+                emitter.send(SseEmitter.event().name(eventName).data(json));
+            } catch (Exception e) {
+                // 浏览器已经断开，这个连接作废
+                remove(account, emitter);
+            }
+        }
+    }
+
+    /**
+     * 【心跳】每 25 秒给所有连接发一条注释
+     * 1. 防止代理服务器 / 浏览器把长时间没有数据的连接当成死连接断掉；
+     * 2. 写失败就说明浏览器早就走了，顺便清理掉。
+     */
+    @Scheduled(fixedDelay = 25_000)
+    public void heartbeat() {
+        subscribers.forEach((account, set) -> {
+            for (SseEmitter emitter : set) {
+                try {
+                    emitter.send(SseEmitter.event().comment("ping"));
+                } catch (Exception e) {
+                    remove(account, emitter);
+                }
+            }
+        });
+    }
+
+    private void remove(String account, SseEmitter emitter) {
+        subscribers.computeIfPresent(account, (k, set) -> {
+            set.remove(emitter);
+            return set.isEmpty() ? null : set;
+        });
+        // 注意：写失败时 Spring 会自己结束这个异步请求，这里只从列表里移除，不再调用 complete
+    }
+}
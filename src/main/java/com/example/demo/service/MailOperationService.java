@@ -0,0 +1,413 @@
+package com.example.demo.service;
+
+import com.example.demo.entity.MailOperation;
+import com.example.demo.model.EmailInfo;
+import com.example.demo.model.UserAccount;
+import com.example.demo.repository.MailOperationRepository;
+import com.example.demo.utils.UidSetUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Flags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 邮件操作日志服务 (Write-behind Operation Journal)
+ * 作用：删除 / 移动 / 标记 不再让用户等服务器 (163 / QQ 一次往返常常要好几秒)。
+ * * 流程：
+ * 1. 请求线程：解析文件夹名 -> 操作记进 mail_operation 表 -> 立刻改本地缓存 (信封缓存、列表页缓存、详情缓存) -> 返回；
+ * 2. 后台线程 (mail-op-journal)：按账号、按记录顺序把操作同步到 IMAP 服务器，成功后删除记录。
+ * * 💡 合并：同一个账号里相邻的、同类型同文件夹的操作 (比如连续点了几次删除) 合并成一批 UID，一条命令发出去。
+ * 只合并相邻的，不跨过别的操作，保证服务器上的执行顺序和用户的操作顺序一致。
+ * * 失败处理：
+ * 1. 网络 / 服务器临时错误：按 1, 2, 4, 8... 秒退避重试，最多 5 次 (RETRY)；
+ * 在等待重试期间，这个账号后面的操作也一起等着，不会插队；
+ * 2. 邮件已经不在了 (别的客户端删了)：UID 命令会直接忽略不存在的 UID，当作成功；
+ * 3. 文件夹没了、账号被解绑、重试次数用完：记录标成 FAILED 不再重试，
+ * 并丢掉相关文件夹的本地缓存，下次打开时按服务器的真实状态重新同步。
+ * * 页面上的列表在同步完成之前仍可能从服务器读到旧状态，所以 getFolderView 会用 applyPending 把还没同步的操作叠加上去。
+ * * ⚠️ 数据库不可用时记不了日志，退回到原来的同步执行 (直接调用 MailService)。
+ */
+@Service
+public class MailOperationService {
+
+    // 后台线程多久检查一次 (主要是处理等待重试的操作；新操作会主动唤醒)
+    private static final long POLL_INTERVAL_MS = 5_000;
+    // 新操作记下后等一小会再同步，让连续的点击能合并成一批
+    private static final long COALESCE_DELAY_MS = 300;
+    // 最多尝试 5 次，每次失败后按 1, 2, 4, 8 秒退避
+    private static final BackgroundTaskSupport.RetryPolicy RETRY = new BackgroundTaskSupport.RetryPolicy(5, 1_000);
+    // 一次合并的 UID 数上限，防止命令行过长
+    private static final int MAX_BATCH_UIDS = 2000;
+
+    @Autowired
+    private MailOperationRepository mailOperationRepository;
+    @Autowired
+    private BackgroundTaskSupport backgroundTaskSupport;
+    @Autowired
+    private MailService mailService;
+    @Autowired
+    private MailCache mailCache;
+    @Autowired
+    private HeaderCacheService headerCacheService;
+    @Autowired
+    private FolderRoleResolver folderRoleResolver;
+
+    // 还没同步的操作 (mail_operation 表里 PENDING 记录的内存副本)：ID -> 操作
+    // 后台线程和 applyPending 都只读这里，不用每次查数据库
+    private final Map<Long, MailOperation> pending = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(
+            BackgroundTaskSupport.daemonThreads("mail-op-journal", false));
+
+    /**
+     * 启动时把上次没同步完的操作读回来，继续同步
+     */
+    @PostConstruct
+    public void init() {
+        try {
+            for (MailOperation op : mailOperationRepository.findByStatusOrderByIdAsc(MailOperation.STATUS_PENDING)) {
+                pending.put(op.getId(), op);
+            }
+            if (!pending.isEmpty()) {
+                System.out.println("🔄 继续同步上次未完成的邮件操作: " + pending.size() + " 条");
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ 读取邮件操作日志失败: " + e.getMessage());
+        }
+        worker.scheduleWithFixedDelay(this::replay, POLL_INTERVAL_MS, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 没同步完的操作还在数据库里，下次启动继续
+        worker.shutdownNow();
+    }
+
+    // ================== 请求线程：记录操作 ==================
+
+    /**
+     * 删除到垃圾箱 (找不到垃圾箱时直接删除)
+     */
+    public void trash(UserAccount user, String uiFolder, Collection<Long> uids) {
+        String source = folderRoleResolver.resolve(user, uiFolder);
+        String trashName = folderRoleResolver.resolve(user, "已删除");
+        String target = folderRoleResolver.exists(user, trashName) ? trashName : null;
+        MailOperation op = new MailOperation(user.getEmail(), MailOperation.TYPE_TRASH, source, target,
+                UidSetUtil.toUidSet(uids));
+        if (!record(user, op)) mailService.moveToTrash(user, uiFolder, uids);
+    }
+
+    /**
+     * 彻底删除
+     */
+    public void delete(UserAccount user, String uiFolder, Collection<Long> uids) {
+        String source = folderRoleResolver.resolve(user, uiFolder);
+        MailOperation op = new MailOperation(user.getEmail(), MailOperation.TYPE_DELETE, source, null,
+                UidSetUtil.toUidSet(uids));
+        if (!record(user, op)) mailService.deleteMessage(user, uiFolder, uids);
+    }
+
+    /**
+     * 移动到其它文件夹；目标文件夹不存在时直接报错 (按缓存的 LIST 结果判断，不访问服务器)
+     */
+    public void move(UserAccount user, String fromFolder, String toFolder, Collection<Long> uids) throws Exception {
+        String source = folderRoleResolver.resolve(user, fromFolder);
+        String target = folderRoleResolver.resolve(user, toFolder);
+        if (!folderRoleResolver.exists(user, target)) {
+            throw new RuntimeException("目标文件夹不存在");
+        }
+        MailOperation op = new MailOperation(user.getEmail(), MailOperation.TYPE_MOVE, source, target,
+                UidSetUtil.toUidSet(uids));
+        if (!record(user, op)) mailService.moveMessage(user, fromFolder, toFolder, uids);
+    }
+
+    /**
+     * 已读 / 未读 / 星标 / 取消星标
+     */
+    public void setFlags(UserAccount user, String uiFolder, Collection<Long> uids, Flags.Flag flag, boolean value)
+            throws Exception {
+        String source = folderRoleResolver.resolve(user, uiFolder);
+        MailOperation op = new MailOperation(user.getEmail(), MailOperation.TYPE_FLAG, source, null,
+                UidSetUtil.toUidSet(uids));
+        op.setFlagName(flag == Flags.Flag.SEEN ? "\\Seen" : "\\Flagged");
+        op.setFlagValue(value);
+        if (!record(user, op)) mailService.setFlags(user, uiFolder, uids, flag, value);
+    }
+
+    /**
+     * 写日志 -> 改本地缓存 -> 唤醒后台线程
+     *
+     * @return false 表示日志写不进去，调用方改为同步执行
+     */
+    private boolean record(UserAccount user, MailOperation op) {
+        if (op.getUids().isEmpty()) return true;
+        op.setAccountId(user.getAccountId());
+        try {
+            mailOperationRepository.save(op);
+        } catch (Exception e) {
+            System.err.println("⚠️ 邮件操作日志写入失败，改为直接同步到服务器: " + e.getMessage());
+            return false;
+        }
+        pending.put(op.getId(), op);
+        applyLocal(op);
+        worker.schedule(this::replay, COALESCE_DELAY_MS, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * 先把操作的结果写进本地缓存，页面马上就能看到
+     */
+    private void applyLocal(MailOperation op) {
+        String account = op.getAccountEmail();
+        String folder = op.getFolderName();
+        List<Long> uids = UidSetUtil.parse(op.getUids());
+        try {
+            mailCache.invalidateFolder(account, folder);
+            if (MailOperation.TYPE_FLAG.equals(op.getType())) {
+                synchronized (headerCacheService.lockFor(account, folder)) {
+                    headerCacheService.setFlag(account, folder, uids, toFlag(op.getFlagName()), op.getFlagValue());
+                }
+                return;
+            }
+            for (Long uid : uids) {
+                mailCache.removeDetail(account, folder, uid);
+            }
+            if (op.getTargetFolder() != null) mailCache.invalidateFolder(account, op.getTargetFolder());
+            synchronized (headerCacheService.lockFor(account, folder)) {
+                headerCacheService.removeUids(account, folder, uids);
+            }
+        } catch (Exception e) {
+            // 本地缓存没改成不影响同步，最多页面晚一点看到变化
+            System.err.println("⚠️ 更新本地缓存失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 把还没同步的操作叠加到列表页结果上 (删掉已删除/已移走的邮件，改写标记)
+     * 服务器还没执行的操作，从服务器读到的列表里看不出来，这里补上。
+     *
+     * @param result MailService#receiveEmails 的返回值 (可能来自列表页缓存，不能原地修改)
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> applyPending(UserAccount user, String uiFolder, Map<String, Object> result) {
+        if (pending.isEmpty()) return result;
+        String folder = folderRoleResolver.resolve(user, uiFolder);
+        Set<Long> removed = new HashSet<>();
+        Map<Long, List<MailOperation>> flagOps = new HashMap<>();
+        for (MailOperation op : sorted(pending.values())) {
+            if (!op.getAccountEmail().equals(user.getEmail()) || !op.getFolderName().equals(folder)) continue;
+            for (Long uid : UidSetUtil.parse(op.getUids())) {
+                if (MailOperation.TYPE_FLAG.equals(op.getType())) {
+                    flagOps.computeIfAbsent(uid, k -> new ArrayList<>()).add(op);
+                } else {
+                    removed.add(uid);
+                }
+            }
+        }
+        if (removed.isEmpty() && flagOps.isEmpty()) return result;
+
+        List<EmailInfo> list = new ArrayList<>();
+        int dropped = 0;
+        for (EmailInfo email : (List<EmailInfo>) result.get("list")) {
+            if (removed.contains(email.getId())) {
+                dropped++;
+                continue;
+            }
+            List<MailOperation> ops = flagOps.get(email.getId());
+            if (ops != null) {
+                email = copyOf(email);
+                for (MailOperation op : ops) {
+                    if ("\\Seen".equals(op.getFlagName())) email.setSeen(op.getFlagValue());
+                    else email.setFlagged(op.getFlagValue());
+                }
+            }
+            list.add(email);
+        }
+        Map<String, Object> patched = new HashMap<>(result);
+        patched.put("list", list);
+        // 总数只减掉这一页里真的去掉了的：本地缓存的结果里 applyLocal 已经删过这些 UID，
+        // 搜索结果、其他页里也不一定有它们，按 removed 的个数减会减多
+        patched.put("totalCount", Math.max(0, (int) result.get("totalCount") - dropped));
+        return patched;
+    }
+
+    // ================== 后台线程：同步到服务器 ==================
+
+    /**
+     * 按账号依次同步；每个账号内严格按记录顺序执行
+     */
+    private void replay() {
+        if (pending.isEmpty()) return;
+        // 异常不能抛出去：scheduleWithFixedDelay 的任务抛异常后就不会再执行了
+        try {
+            Map<String, List<MailOperation>> byAccount = new LinkedHashMap<>();
+            for (MailOperation op : sorted(pending.values())) {
+                byAccount.computeIfAbsent(op.getAccountEmail(), k -> new ArrayList<>()).add(op);
+            }
+            byAccount.forEach(this::replayAccount);
+        } catch (Exception e) {
+            System.err.println("❌ 邮件操作同步异常: " + e.getMessage());
+        }
+    }
+
+    private void replayAccount(String email, List<MailOperation> ops) {
+        UserAccount user = null;
+        int i = 0;
+        while (i < ops.size()) {
+            // 第一条还在等待重试时，后面的也不执行，保证顺序
+            if (ops.get(i).getNextAttemptTime() > System.currentTimeMillis()) return;
+
+            // 取出从 i 开始的、可以合并的相邻操作
+            List<MailOperation> batch = new ArrayList<>();
+            Set<Long> uids = new LinkedHashSet<>();
+            while (i < ops.size() && (batch.isEmpty() || canMerge(batch.get(0), ops.get(i)))
+                    && (batch.isEmpty() || uids.size() < MAX_BATCH_UIDS)) {
+                batch.add(ops.get(i));
+                uids.addAll(UidSetUtil.parse(ops.get(i).getUids()));
+                i++;
+            }
+
+            if (user == null) {
+                try {
+                    user = backgroundTaskSupport.loadAccount(batch.get(0).getAccountId(), email);
+                } catch (Exception e) {
+                    // 数据库暂时不可用等，和网络错误一样稍后重试
+                    retry(batch, "读取邮箱账号失败: " + e.getMessage());
+                    return;
+                }
+                if (user == null) {
+                    fail(ops.subList(i - batch.size(), ops.size()), "邮箱账号已解绑");
+                    return;
+                }
+            }
+            if (!execute(user, batch, uids)) return;
+        }
+    }
+
+    /**
+     * 执行合并后的一批操作
+     *
+     * @return true 表示这个账号可以继续执行下一批
+     */
+    private boolean execute(UserAccount user, List<MailOperation> batch, Set<Long> uids) {
+        MailOperation head = batch.get(0);
+        try {
+            switch (head.getType()) {
+                case MailOperation.TYPE_TRASH:
+                    mailService.transferUids(user, head.getFolderName(), head.getTargetFolder(), uids, true);
+                    break;
+                case MailOperation.TYPE_DELETE:
+                case MailOperation.TYPE_MOVE:
+                    mailService.transferUids(user, head.getFolderName(), head.getTargetFolder(), uids, false);
+                    break;
+                case MailOperation.TYPE_FLAG:
+                    mailService.storeFlags(user, head.getFolderName(), uids, toFlag(head.getFlagName()),
+                            head.getFlagValue());
+                    break;
+                default:
+                    throw new IllegalStateException("未知操作类型: " + head.getType());
+            }
+        } catch (RuntimeException e) {
+            // 文件夹不存在等，重试也没用
+            fail(batch, e.getMessage());
+            return true;
+        } catch (Exception e) {
+            retry(batch, e.getMessage());
+            return false;
+        }
+
+        batch.forEach(op -> pending.remove(op.getId()));
+        try {
+            mailOperationRepository.deleteAll(batch);
+        } catch (Exception e) {
+            // 记录没删掉，下次启动会再执行一遍，UID 命令重复执行是安全的
+            System.err.println("⚠️ 删除已完成的邮件操作失败: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * 临时错误：退避后重试，次数用完就放弃
+     */
+    private void retry(List<MailOperation> batch, String error) {
+        if (!RETRY.canRetry(batch.get(0).getAttempts() + 1)) {
+            fail(batch, error);
+            return;
+        }
+        for (MailOperation op : batch) {
+            int attempts = op.getAttempts() + 1;
+            op.setAttempts(attempts);
+            op.setNextAttemptTime(System.currentTimeMillis() + RETRY.delayMs(attempts));
+            op.setLastError(BackgroundTaskSupport.truncate(error));
+        }
+        System.err.println("⚠️ 邮件操作同步失败，稍后重试 [" + batch.get(0).getAccountEmail() + "]: " + error);
+        try {
+            mailOperationRepository.saveAll(batch);
+        } catch (Exception e) {
+            // 数据库里的次数没更新，内存里的照样退避
+        }
+    }
+
+    /**
+     * 放弃：记录标成 FAILED，丢掉相关文件夹的本地缓存，让它按服务器的真实状态重新同步
+     */
+    private void fail(List<MailOperation> ops, String error) {
+        Set<String> folders = new HashSet<>();
+        for (MailOperation op : ops) {
+            pending.remove(op.getId());
+            op.setStatus(MailOperation.STATUS_FAILED);
+            op.setAttempts(op.getAttempts() + 1);
+            op.setLastError(BackgroundTaskSupport.truncate(error));
+            folders.add(op.getFolderName());
+            if (op.getTargetFolder() != null) folders.add(op.getTargetFolder());
+        }
+        String account = ops.get(0).getAccountEmail();
+        System.err.println("❌ 邮件操作同步失败，已放弃 [" + account + "] " + ops.size() + " 条: " + error);
+        try {
+            mailOperationRepository.saveAll(ops);
+        } catch (Exception e) {
+            System.err.println("⚠️ 保存失败的邮件操作记录失败: " + e.getMessage());
+        }
+        for (String folder : folders) {
+            mailCache.invalidateFolder(account, folder);
+            try {
+                synchronized (headerCacheService.lockFor(account, folder)) {
+                    headerCacheService.discardFolder(account, folder);
+                }
+            } catch (Exception e) {
+                System.err.println("⚠️ 清理本地缓存失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean canMerge(MailOperation a, MailOperation b) {
+        return a.getType().equals(b.getType())
+                && a.getFolderName().equals(b.getFolderName())
+                && Objects.equals(a.getTargetFolder(), b.getTargetFolder())
+                && Objects.equals(a.getFlagName(), b.getFlagName())
+                && Objects.equals(a.getFlagValue(), b.getFlagValue())
+                && b.getNextAttemptTime() <= System.currentTimeMillis();
+    }
+
+    private static List<MailOperation> sorted(Collection<MailOperation> ops) {
+        List<MailOperation> list = new ArrayList<>(ops);
+        list.sort(Comparator.comparing(MailOperation::getId));
+        return list;
+    }
+
+    private static Flags.Flag toFlag(String flagName) {
+        return "\\Seen".equals(flagName) ? Flags.Flag.SEEN : Flags.Flag.FLAGGED;
+    }
+
+    private static EmailInfo copyOf(EmailInfo e) {
+        EmailInfo copy = new EmailInfo(e.getId(), e.getTitle(), e.getSender(), e.getAddress(), e.getRecipients(),
+                e.getSendDate(), e.getContent(), e.getFilenames());
+        copy.setSeen(e.getSeen());
+        copy.setFlagged(e.getFlagged());
+        return copy;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.demo.service;
+
+import com.example.demo.model.EmailInfo;
+import com.example.demo.model.UserAccount;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * 后台预取器 (Mail Prefetcher)
+ * 作用：用户看完第 N 页列表后，几乎总是接着点第 N+1 页，或者点开最上面几封邮件。
+ * 所以在列表页的响应发出去之后，我们悄悄在后台把 “第 N+1 页的信封” 和 “前几封邮件的正文” 提前拉进 MailCache，
+ * 等用户真的点过去时就能直接从缓存返回。
+ * * ⚠️ 预取是“锦上添花”，绝不能影响正常请求：
+ * 1. 线程池和排队长度都有上限，排不上就直接放弃；
+ * 2. 同一个账号同时只跑一个预取任务；
+ * 3. 连接池没有富余名额 (有请求在排队) 时直接跳过，每一步开始前都会再检查一次。
+ */
+@Component
+public class MailPrefetcher {
+
+    // 预取前几封邮件的正文
+    private static final int PREFETCH_DETAIL_COUNT = 3;
+    // 每个账号同时最多几个预取任务
+    private static final int MAX_PREFETCH_PER_ACCOUNT = 1;
+    // 连接池至少要空出几个名额才预取 (预取自己用一个，再给用户的下一个点击留一个)
+    private static final int SPARE_CONNECTIONS = 2;
+
+    @Autowired
+    private MailService mailService;
+    @Autowired
+    private ImapConnectionPool imapConnectionPool;
+
+    private final ExecutorService executor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(20), r -> {
+                Thread t = new Thread(r, "mail-prefetch");
+                t.setDaemon(true);
+                return t;
+            });
+
+    // 邮箱地址 -> 该账号的预取名额
+    private final Map<String, Semaphore> accountSlots = new ConcurrentHashMap<>();
+
+    /**
+     * 列表页渲染完成后调用：预取下一页，以及当前页前几封邮件的详情
+     *
+     * @param shown 当前页显示的邮件 (按显示顺序)
+     */
+    public void prefetchAfterListing(UserAccount user, String folderName, int page, int totalPages, int size,
+                                     String sort, String order, String keyword, String searchType,
+                                     List<EmailInfo> shown) {
+        if (!imapConnectionPool.hasSpareConnections(user, SPARE_CONNECTIONS)) return;
+
+        Semaphore slot = accountSlots.computeIfAbsent(user.getEmail(), k -> new Semaphore(MAX_PREFETCH_PER_ACCOUNT));
+        if (!slot.tryAcquire()) return;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    // 1. 下一页的信封
+                    // 只预取默认列表 (无搜索、按时间倒序)：它只需要一次小 FETCH；
+                    // 搜索/排序可能要走全量扫描，而全量扫描会把同一账号正在进行的扫描取消掉，不能在后台乱跑
+                    boolean isDefaultListing = !StringUtils.hasText(keyword)
+                            && (sort == null || "date".equals(sort)) && (order == null || "desc".equals(order));
+                    if (isDefaultListing && page < totalPages
+                            && imapConnectionPool.hasSpareConnections(user, SPARE_CONNECTIONS)) {
+                        mailService.receiveEmails(user, folderName, page + 1, size, sort, order, keyword, searchType);
+                    }
+                    // 2. 最上面几封邮件的正文 (已经在缓存里的，getEmailDetail 会直接返回)
+                    if (shown != null) {
+                        for (int i = 0; i < Math.min(PREFETCH_DETAIL_COUNT, shown.size()); i++) {
+                            if (!imapConnectionPool.hasSpareConnections(user, SPARE_CONNECTIONS)) break;
+                            mailService.getEmailDetail(user, folderName, shown.get(i).getId());
+                        }
+                    }
+                } catch (Exception e) {
+                    System.err.println("⚠️ 后台预取失败 (不影响正常使用): " + e.getMessage());
+                } finally {
+                    slot.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 队列满了，这次不预取
+            slot.release();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,21 +1,50 @@
 package com.example.demo.service;
 
+import com.example.demo.entity.FolderSyncState;
+import com.example.demo.model.AttachmentInfo;
 import com.example.demo.model.EmailInfo;
 import com.example.demo.model.UserAccount;
+import com.example.demo.utils.MailboxNameUtil;
+import com.example.demo.utils.UidSetUtil;
+import jakarta.annotation.PreDestroy;
 import jakarta.mail.*;
+import jakarta.mail.event.MailEvent;
+import jakarta.mail.event.MessageChangedEvent;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimePart;
 import jakarta.mail.internet.MimeUtility;
-import org.springframework.mail.javamail.JavaMailSenderImpl;
+import jakarta.mail.util.SharedFileInputStream;
+import org.eclipse.angus.mail.iap.Argument;
+import org.eclipse.angus.mail.iap.Response;
+import org.eclipse.angus.mail.imap.IMAPBodyPart;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.eclipse.angus.mail.imap.MessageVanishedEvent;
+import org.eclipse.angus.mail.imap.ResyncData;
+import org.eclipse.angus.mail.imap.protocol.ENVELOPE;
+import org.eclipse.angus.mail.imap.protocol.FLAGS;
+import org.eclipse.angus.mail.imap.protocol.FetchResponse;
+import org.eclipse.angus.mail.imap.protocol.IMAPProtocol;
+import org.eclipse.angus.mail.imap.protocol.IMAPResponse;
+import org.eclipse.angus.mail.imap.protocol.MODSEQ;
+import org.eclipse.angus.mail.imap.protocol.UID;
+import org.eclipse.angus.mail.imap.protocol.UIDSet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
-import org.eclipse.angus.mail.imap.IMAPStore;
 
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 /**
  * 邮件服务核心类 (Service Layer)
@@ -31,7 +60,55 @@ public class MailService {
     // ⚠️ 注意：Windows使用 D:/...，Linux服务器通常使用 /var/data/...
     // 如果路径不存在，代码里会有逻辑自动创建文件夹
     public static final String SAVE_PATH = "D:/email_data/";
+    // 待发送邮件的临时文件 (见 deliver)
+    public static final String SPOOL_PATH = SAVE_PATH + "spool/";
+    // 不超过这个大小的邮件打开时整封下载存到本地 (RawMessageStore)；更大的邮件按 BODYSTRUCTURE 只下载正文
+    private static final long RAW_SAVE_MAX_BYTES = 1024 * 1024;
 
+    // IMAP 连接池：所有 IMAP 操作都从这里借连接，用完归还，不再每次重新登录
+    @Autowired
+    private ImapConnectionPool imapConnectionPool;
+
+    // SMTP 连接池：连续发送时复用已经登录好的连接，不再每封邮件都握手 + AUTH
+    @Autowired
+    private SmtpConnectionPool smtpConnectionPool;
+
+    // 原始邮件本地存储：打开过的邮件整封存在磁盘上，再次打开 / 回复 / 转发不再重新下载
+    @Autowired
+    private RawMessageStore rawMessageStore;
+
+    // 附件本地存储：下载过的附件按内容哈希存在磁盘上 (相同内容只存一份)，再次下载 / 预览按偏移直接读
+    @Autowired
+    private AttachmentStore attachmentStore;
+
+    // 本地信封缓存：搜索 / 排序 / 分页走数据库，不再每次拉取整个文件夹
+    @Autowired
+    private HeaderCacheService headerCacheService;
+
+    // 服务器端搜索 (UID SEARCH)：能交给服务器搜的就不在本地搜
+    @Autowired
+    private ImapSearchService imapSearchService;
+
+    // 内存缓存：列表页 + 邮件详情 (后台预取也写在这里)
+    @Autowired
+    private MailCache mailCache;
+
+    // 文件夹角色解析：前端的 “已发送” 等翻译成服务器上的真实名称 (每个账号只 LIST 一次)
+    @Autowired
+    private FolderRoleResolver folderRoleResolver;
+
+    // 增量同步时每批拉取的邮件数，防止一次 FETCH 的响应过大
+    private static final int SYNC_CHUNK_SIZE = 500;
+
+    // 全量扫描的帮手线程池 (每个线程占用一个 IMAP 连接，所以不需要很多)
+    private final ExecutorService scanExecutor = Executors.newFixedThreadPool(4, r -> {
+        Thread t = new Thread(r, "mail-scan");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 每个账号正在进行的全量扫描 (邮箱地址 -> 取消标记)，新扫描开始时取消旧的
+    private final Map<String, AtomicBoolean> activeScans = new ConcurrentHashMap<>();
 
 
     /**
@@ -58,104 +135,64 @@ public class MailService {
         result.put("totalCount", 0);
         result.put("list", new ArrayList<EmailInfo>());
 
-        List<EmailInfo> fullList = new ArrayList<>();
         Store store = null;  // 代表与邮件服务器的连接对象
         Folder folder = null; // 代表具体的文件夹对象
 
         try {
-            // 2. 建立连接 (调用下面的 getImapStore 方法)
-            // 这里会进行 SSL 握手、密码验证，也是最容易报错（连接超时、密码错误）的地方
-            // 内部包含了针对 163 邮箱 "Unsafe Login" 错误的特殊处理 ID 命令
-            store = getImapStore(user);
-
-            // 3. 文件夹名称映射
+            // 2. 文件夹名称映射
             // 前端显示的是“已发送”，但服务器上可能叫 "Sent Messages" (QQ) 或 "Sent" (163)。
-            // getCorrectFolderName 方法负责做这个翻译工作。
-            String realFolder = getCorrectFolderName(user.getType(), folderName);
-            folder = store.getFolder(realFolder);
-
-            // 4. 【关键修改】文件夹存在性检查与自动纠错
-            // 现在的逻辑是：如果文件夹不存在，尝试智能纠错，纠错失败则报错，不再强行跳转到收件箱混淆视听。
-            if (!folder.exists()) {
-                System.err.println("❌ 严重错误：在服务器上找不到文件夹 [" + realFolder + "]");
-
-                // --- 自动纠错逻辑 ---
-                // 不同服务器对 "已发送" 和 "垃圾箱" 的命名五花八门，尝试备选方案
-                if (realFolder.equals("Sent Messages")) {
-                    // 163/Coremail 有时也叫 "Sent" 或中文 "已发送"
-                    if (store.getFolder("Sent").exists())
-                        folder = store.getFolder("Sent");
-                    else if (store.getFolder("已发送").exists())
-                        folder = store.getFolder("已发送");
-                } else if (realFolder.equals("Deleted Messages")) {
-                    // 垃圾箱同理，有的叫 Trash，有的叫 Deleted
-                    if (store.getFolder("Trash").exists())
-                        folder = store.getFolder("Trash");
-                    else if (store.getFolder("已删除").exists())
-                        folder = store.getFolder("已删除");
-                }
+            // getCorrectFolderName 方法负责做这个翻译工作 (必须在借连接之前调用)。
+            String realFolder = getCorrectFolderName(user, folderName);
+
+            // 2.5 IDLE 推送在线时 (见 MailboxWatcher)，文件夹状态是实时维护的，
+            // 直接用它检查列表页缓存，命中就完全不用访问服务器
+            MailCache.FolderState pushed = mailCache.getPushedState(user.getEmail(), realFolder);
+            if (pushed != null) {
+                Map<String, Object> cached = mailCache.getListing(
+                        mailCache.listingKey(user.getEmail(), realFolder, page, size, sortField, sortOrder, keyword, searchType),
+                        pushed.getUidValidity(), pushed.getMessageCount(), true);
+                if (cached != null) return cached;
             }
 
-            // 二次检查，如果还是不存在，说明真的没有这个文件夹，直接返回空结果
-            if (!folder.exists()) {
-                System.err.println("❌ 最终确认文件夹不存在: " + realFolder);
-                return result;
-            }
+            // 3. 从连接池借一个已登录的连接 (调用下面的 getImapStore 方法)
+            // 优先借已经打开了这个文件夹的连接；第一次使用时才会进行 SSL 握手、密码验证，
+            // 也是最容易报错（连接超时、密码错误）的地方。
+            // 内部包含了针对 163 邮箱 "Unsafe Login" 错误的特殊处理 ID 命令
+            store = getImapStore(user, realFolder);
 
-            // 5. 打开文件夹
+            // 4. 打开文件夹 (带缓存)
             // Folder.READ_ONLY：只读模式。这很重要！
             // 原因 1: 速度快，不需要锁定文件夹。
             // 原因 2: 防止我们在读取列表时不小心把未读邮件标记为已读了 (SEEN flag)。
-            folder.open(Folder.READ_ONLY);
+            // 如果这条连接上已经打开过这个文件夹，直接复用，不再重复 EXAMINE。
+            FolderSession session = openFolderSession(user, store, realFolder, Folder.READ_ONLY);
+
+            // 5. 文件夹存在性检查
+            // 备选名称 ("Sent" / "已发送" / "Trash" ...) 已经由 FolderRoleResolver 按 LIST 结果挑好了，
+            // 这里还打不开说明真的没有这个文件夹，直接返回空结果，不再强行跳转到收件箱混淆视听。
+            if (session == null) {
+                System.err.println("❌ 严重错误：在服务器上找不到文件夹 [" + realFolder + "]");
+                return result;
+            }
+            folder = session.getFolder();
 
             int totalMessages = folder.getMessageCount();
             result.put("totalCount", totalMessages); // 更新总邮件数
 
-            Message[] messages = null;
-
-            // --- 6. 分页策略 (性能优化的关键点！) ---
-
-            // 场景 A [极速模式]：没有搜索关键字，且按时间倒序（默认情况）。
-            // 此时我们可以直接利用 IMAP 协议的特性，只下载第 1-10 封邮件的头信息。
-            // 不需要下载几千封邮件，速度极快。
-            boolean hasKeyword = StringUtils.hasText(keyword);
-            boolean isDefaultSort = (sortField == null || "date".equals(sortField))
-                    && (sortOrder == null || "desc".equals(sortOrder));
-            boolean useServerSidePaging = !hasKeyword && isDefaultSort;
-
-            if (useServerSidePaging) {
-                // [极速模式] 服务器端分页
-                // 注意：JavaMail 的索引是从 1 开始的，且最大的索引是最新的邮件。
-                // 比如总共 100 封，第 1 页取 91-100。
-                int end = totalMessages - (page - 1) * size;
-                int start = end - size + 1;
-                if (end > 0) {
-                    if (start < 1) start = 1; // 防止索引越界
-                    messages = folder.getMessages(start, end); // 只抓取这 10 封
-                }
-            } else {
-                // 场景 B [全量模式]：用户要搜索或按发件人排序。
-                // IMAP 对中文搜索支持很差，所以我们只能把所有邮件的“信封信息”都拉下来，
-                // 然后在 Java 内存里过滤。这会慢一些，但是功能最全。
-                if (totalMessages > 0) {
-                    messages = folder.getMessages(); // 抓取所有邮件对象（此时还没下载内容）
-                }
+            // 6. 先查列表页缓存 (后台预取好的下一页，或者刚刚看过的同一页)
+            // 文件夹的 UIDVALIDITY 和邮件总数都没变，就直接返回，不再下载信封
+            long uidValidity = ((UIDFolder) folder).getUIDValidity();
+            String cacheKey = mailCache.listingKey(user.getEmail(), folder.getFullName(), page, size,
+                    sortField, sortOrder, keyword, searchType);
+            Map<String, Object> cached = mailCache.getListing(cacheKey, uidValidity, totalMessages, false);
+            if (cached != null) {
+                return cached;
             }
 
-            if (messages != null && messages.length > 0) {
-                // 7. 性能优化神器：FetchProfile
-                // 默认情况下，当你调用 message.getSubject() 时，JavaMail 才会发网络请求去取标题。
-                // 如果有 100 封邮件，就会发 100 次网络请求（N+1问题），巨慢无比。
-                // FetchProfile 告诉服务器：“请一次性把这 100 封邮件的标题、发件人、时间打包发给我”。
-                FetchProfile fp = new FetchProfile();
-                fp.add(FetchProfile.Item.ENVELOPE); // 包含主题、发件人、时间
-                fp.add(UIDFolder.FetchProfileItem.UID); // 包含唯一ID
-                folder.fetch(messages, fp); // 批量预加载
-
-                // 解析邮件，转换为我们自己的 EmailInfo 对象
-                boolean isSentFolder = realFolder.equalsIgnoreCase("Sent Messages") || realFolder.equals("已发送");
-                fullList = parseMessages((UIDFolder) folder, messages, isSentFolder);
-            }
+            Map<String, Object> loaded = listFolder(user, session, realFolder, totalMessages, page, size,
+                    sortField, sortOrder, keyword, searchType);
+            mailCache.putListing(cacheKey, uidValidity, totalMessages, loaded);
+            return loaded;
 
         } catch (Exception e) {
             // 打印错误日志，方便调试 (特别是 163 报错)
@@ -163,48 +200,429 @@ public class MailService {
             e.printStackTrace();
             // 这里不抛出异常，而是让方法正常结束返回空 result，保证前端页面能加载出框架
         } finally {
-            // 8. 资源释放 (非常重要！)
-            // 如果不关闭 Folder 和 Store，连接会一直占用，很快就会达到邮箱服务器的连接数上限（通常是 10-20 个），
-            // 导致后续无法登录。
-            closeQuietly(folder, store);
-        }
-
-        // --- 9. 内存搜索过滤 (Java Stream API) ---
-        // 对应之前的 [全量模式]，数据都在内存里了，现在进行关键词匹配
-        if (StringUtils.hasText(keyword)) {
-            String k = keyword.toLowerCase();
-            String type = (searchType != null) ? searchType : "all";
-
-            fullList = fullList.stream()
-                    .filter(email -> {
-                        boolean match = false;
-                        switch (type) {
-                            case "sender":
-                                match = (email.getSender() != null && email.getSender().toLowerCase().contains(k));
-                                break;
-                            case "title":
-                                match = (email.getTitle() != null && email.getTitle().toLowerCase().contains(k));
-                                break;
-                            case "date":
-                                match = (email.getSendDate() != null && email.getSendDate().contains(k));
-                                break;
-                            case "all":
-                            default:
-                                match = (email.getTitle() != null && email.getTitle().toLowerCase().contains(k)) ||
-                                        (email.getSender() != null && email.getSender().toLowerCase().contains(k)) ||
-                                        (email.getSendDate() != null && email.getSendDate().contains(k));
-                                break;
+            // 7. 资源释放 (非常重要！)
+            // 如果不把 Store 还给连接池，连接会一直占用，很快就会达到邮箱服务器的连接数上限（通常是 10-20 个），
+            // 导致后续无法登录。文件夹保持打开，由连接池统一管理。
+            closeQuietly(null, store);
+        }
+
+        return result;
+    }
+
+    /**
+     * 按分页策略加载一页邮件 (receiveEmails 在缓存未命中时调用)
+     * 依次尝试：极速模式 -> 服务器搜索 -> 服务器排序 -> 本地信封缓存 -> 流式全量扫描
+     */
+    private Map<String, Object> listFolder(UserAccount user, FolderSession session, String realFolder,
+                                           int totalMessages, int page, int size, String sortField,
+                                           String sortOrder, String keyword, String searchType) throws Exception {
+        Folder folder = session.getFolder();
+        Message[] messages = null;
+        List<EmailInfo> fullList = new ArrayList<>();
+
+        // --- 分页策略 (性能优化的关键点！) ---
+
+        // 场景 A [极速模式]：没有搜索关键字，且按时间倒序（默认情况）。
+        // 此时我们可以直接利用 IMAP 协议的特性，只下载第 1-10 封邮件的头信息。
+        // 不需要下载几千封邮件，速度极快。
+        boolean hasKeyword = StringUtils.hasText(keyword);
+        boolean isDefaultSort = (sortField == null || "date".equals(sortField))
+                && (sortOrder == null || "desc".equals(sortOrder));
+        boolean useServerSidePaging = !hasKeyword && isDefaultSort;
+
+        if (useServerSidePaging) {
+            // [极速模式] 服务器端分页
+            // 注意：JavaMail 的索引是从 1 开始的，且最大的索引是最新的邮件。
+            // 比如总共 100 封，第 1 页取 91-100。
+            int end = totalMessages - (page - 1) * size;
+            int start = end - size + 1;
+            if (end > 0) {
+                if (start < 1) start = 1; // 防止索引越界
+                messages = folder.getMessages(start, end); // 只抓取这 10 封
+            }
+        } else {
+            // 场景 B [本地缓存模式]：用户要搜索或按发件人排序。
+            // IMAP 对中文搜索支持很差，所以我们把信封缓存在本地数据库 (mail_header) 里，
+            // 每次只按 UIDNEXT 增量同步新邮件，然后让数据库完成 搜索 + 排序 + 分页。
+            boolean isSentFolder = realFolder.equalsIgnoreCase("Sent Messages") || realFolder.equals("已发送");
+
+            // 场景 B1 [服务器搜索]：按时间倒序搜索时，先试试让服务器去搜 (UID SEARCH CHARSET UTF-8)，
+            // 只下载当前页的信封。服务器对中文搜索不可信时返回 null，继续走本地缓存。
+            if (hasKeyword && isDefaultSort) {
+                long[] uids = imapSearchService.search(user.getType(), (IMAPFolder) folder,
+                        keyword, searchType, isSentFolder);
+                if (uids != null) {
+                    return buildUidPage(session, uids, page, size, isSentFolder);
+                }
+            }
+
+            // 场景 B2 [服务器排序]：按发件人/标题/时间排序时，服务器支持 SORT 扩展的话让它排好序，
+            // 我们只切出当前页再下载信封。不支持 SORT 时返回 null，继续走本地缓存。
+            if (!isDefaultSort) {
+                Message[] sorted = imapSearchService.sort(user, (IMAPFolder) folder, sortField, sortOrder,
+                        keyword, searchType, isSentFolder);
+                if (sorted != null) {
+                    return buildSortedPage(session, sorted, page, size, isSentFolder);
+                }
+            }
+
+            try {
+                syncHeaderCache(user, session, folder.getFullName(), isSentFolder);
+                return headerCacheService.query(user.getEmail(), folder.getFullName(), page, size,
+                        sortField, sortOrder, keyword, searchType);
+            } catch (Exception e) {
+                // 数据库不可用等情况，退回到原来的内存全量模式，保证功能可用
+                System.err.println("⚠️ 本地信封缓存不可用，退回内存模式: " + e.getMessage());
+            }
+
+            // 场景 C [全量模式 - 兜底]：把所有邮件的“信封信息”分批拉下来，
+            // 边拉边在 Java 内存里过滤，只保留当前页需要的那部分。这会慢一些，但是功能最全。
+            return scanFolderTopK(user, (IMAPFolder) folder, totalMessages, page, size,
+                    sortField, sortOrder, keyword, searchType, isSentFolder);
+        }
+
+        if (messages != null && messages.length > 0) {
+            // 7. 性能优化神器：FetchProfile
+            // 默认情况下，当你调用 message.getSubject() 时，JavaMail 才会发网络请求去取标题。
+            // 如果有 100 封邮件，就会发 100 次网络请求（N+1问题），巨慢无比。
+            // FetchProfile 告诉服务器：“请一次性把这 100 封邮件的标题、发件人、时间打包发给我”。
+            FetchProfile fp = new FetchProfile();
+            fp.add(FetchProfile.Item.ENVELOPE); // 包含主题、发件人、时间
+            fp.add(FetchProfile.Item.FLAGS);    // 已读/星标
+            fp.add(UIDFolder.FetchProfileItem.UID); // 包含唯一ID
+            folder.fetch(messages, fp); // 批量预加载
+            // 顺便记下 UID -> 序号，用户接着点开其中某封邮件时不用再问服务器
+            session.remember(messages);
+
+            // 解析邮件，转换为我们自己的 EmailInfo 对象
+            boolean isSentFolder = realFolder.equalsIgnoreCase("Sent Messages") || realFolder.equals("已发送");
+            fullList = parseMessages((UIDFolder) folder, messages, isSentFolder);
+        }
+
+        // --- 7. 页内排序 ---
+        // 走到这里的只有 [极速模式]，fullList 就是当前页，按时间倒序排一下即可
+        if (!fullList.isEmpty()) {
+            fullList.sort(buildComparator(sortField, sortOrder));
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("totalCount", totalMessages);
+        result.put("list", fullList);
+        return result;
+    }
+
+    /**
+     * 应用关闭时停掉扫描线程池
+     */
+    @PreDestroy
+    public void shutdown() {
+        scanExecutor.shutdownNow();
+    }
+
+    /**
+     * 获取自定义文件夹列表
+     * 逻辑：获取服务器所有文件夹 -> 剔除系统默认文件夹 (如 INBOX, Trash 等) -> 返回剩余的
+     */
+    public List<String> getCustomFolders(UserAccount user) {
+        // 和文件夹角色解析共用同一次 LIST 的缓存结果，每个页面的侧边栏都要用，没必要每次都 LIST 一遍
+        return folderRoleResolver.getCustomFolders(user);
+    }
+
+    /**
+     * 辅助方法：批量将 JavaMail 的 Message 对象解析为轻量级的 EmailInfo 对象
+     * 仅解析信封信息 (标题、发件人、时间)，不解析正文，速度快。
+     * 用于列表页展示。
+     */
+    private List<EmailInfo> parseMessages(UIDFolder uidFolder, Message[] messages, boolean isSentFolder)
+            throws Exception {
+        List<EmailInfo> list = new ArrayList<>();
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+
+        for (Message msg : messages) {
+            try {
+                // 获取 UID (唯一标识)
+                long uid = uidFolder.getUID(msg);
+                // 逻辑判断：如果是“已发送”箱，我们要看的是“收件人”是谁；否则看“发件人”
+                Address[] people = isSentFolder ? msg.getRecipients(Message.RecipientType.TO) : msg.getFrom();
+                EmailInfo info = buildEmailInfo(uid, msg.getSubject(), people, msg.getSentDate(), isSentFolder, fmt);
+                // 已读/星标：调用方的 FetchProfile 里带了 FLAGS，这里直接读缓存，不走网络
+                Flags flags = msg.getFlags();
+                info.setSeen(flags.contains(Flags.Flag.SEEN));
+                info.setFlagged(flags.contains(Flags.Flag.FLAGGED));
+                // 添加到列表
+                list.add(info);
+            } catch (Exception e) {
+                // 单个邮件解析失败不影响整体
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 辅助方法：把一封邮件的信封字段组装成列表页使用的 EmailInfo
+     * parseMessages (JavaMail 的 Message) 和 fetchEnvelopeRange (原始 ENVELOPE 响应) 共用这一段解析逻辑。
+     *
+     * @param people 已发送箱传收件人 (TO)，其他文件夹传发件人 (FROM)
+     */
+    private EmailInfo buildEmailInfo(long uid, String rawSubject, Address[] people, Date date,
+                                     boolean isSentFolder, SimpleDateFormat fmt) throws Exception {
+        // 解码标题 (处理 =?UTF-8?B?... 格式的 MIME 编码)
+        String subject = (rawSubject != null) ? MimeUtility.decodeText(rawSubject) : "无标题";
+
+        String fullString = "";
+        if (people != null && people.length > 0) {
+            fullString = MimeUtility.decodeText(people[0].toString());
+        } else {
+            fullString = isSentFolder ? "未知收件人" : "未知发件人";
+        }
+
+        // 字符串处理：分离 姓名 和 邮箱地址
+        // 格式通常是: "张三 <zhangsan@qq.com>"
+        String displayName = fullString;
+        String address = "";
+        if (fullString.contains("<")) {
+            displayName = fullString.substring(0, fullString.indexOf("<")).trim();
+            address = fullString.substring(fullString.indexOf("<") + 1, fullString.indexOf(">")).trim();
+            if (displayName.isEmpty())
+                displayName = address;
+        } else {
+            address = fullString;
+        }
+
+        String sentDate = (date != null) ? fmt.format(date) : "未知时间";
+        return new EmailInfo(uid, subject, displayName, address, sentDate, null, new ArrayList<>());
+    }
+
+    /**
+     * 【流式扫描】全量模式的最后兜底方案 (服务器搜索/排序、本地缓存都用不了时才会走到这里)
+     * 以前是把整个文件夹的信封都拉进一个 List，再整体排序、切片，几万封邮件时很容易把内存撑爆。
+     * 现在：
+     * 1. 按序号分成若干块 (每块 SYNC_CHUNK_SIZE 封)，放进一个共享队列；
+     * 2. 当前连接 + 最多 (getScanParallelism() - 1) 个帮手连接同时从队列里取块下载信封，解析完这一块就丢掉；
+     * 3. 每一块边下载边过滤，只在一个容量为 page*size 的堆里保留“目前排最前面”的邮件，同时累加匹配总数；
+     * 4. 最后把堆里的数据排好序，切出当前页。排序规则里带了 UID，所以不管哪个连接先做完，合并结果都一样。
+     * 内存占用只和页码有关，和文件夹有多大无关。
+     */
+    private Map<String, Object> scanFolderTopK(UserAccount user, IMAPFolder folder, int totalMessages, int page,
+                                               int size, String sortField, String sortOrder, String keyword,
+                                               String searchType, boolean isSentFolder) throws MessagingException {
+        TopKCollector collector = new TopKCollector(buildComparator(sortField, sortOrder), page * size);
+
+        Queue<int[]> chunks = new ConcurrentLinkedQueue<>();
+        for (int start = 1; start <= totalMessages; start += SYNC_CHUNK_SIZE) {
+            chunks.add(new int[] { start, Math.min(start + SYNC_CHUNK_SIZE - 1, totalMessages) });
+        }
+
+        // 同一账号上一次还没跑完的扫描直接取消：用户已经翻页或换了搜索词，浏览器早就放弃了那个请求
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        AtomicBoolean previous = activeScans.put(user.getEmail(), cancelled);
+        if (previous != null) previous.set(true);
+
+        try {
+            // 帮手连接只在有空余名额时才借 (tryBorrow)，借不到就由当前连接自己做完
+            List<Future<?>> helpers = new ArrayList<>();
+            int helperCount = Math.min(user.getScanParallelism() - 1, chunks.size() - 1);
+            for (int i = 0; i < helperCount; i++) {
+                helpers.add(scanExecutor.submit(() -> scanWithHelperConnection(user, folder.getFullName(), chunks,
+                        collector, cancelled, keyword, searchType, isSentFolder)));
+            }
+
+            drainChunks(folder, chunks, collector, cancelled, keyword, searchType, isSentFolder);
+            for (Future<?> helper : helpers) {
+                helper.get();
+            }
+            // 帮手中途出错时会把没做完的块放回队列，这里补做
+            drainChunks(folder, chunks, collector, cancelled, keyword, searchType, isSentFolder);
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new MessagingException("邮件扫描被中断");
+        } catch (ExecutionException e) {
+            cancelled.set(true);
+            throw new MessagingException("邮件扫描失败: " + e.getCause().getMessage());
+        } catch (MessagingException | RuntimeException e) {
+            cancelled.set(true); // 让帮手连接也尽快停下
+            throw e;
+        } finally {
+            activeScans.remove(user.getEmail(), cancelled);
+        }
+
+        if (cancelled.get()) {
+            throw new MessagingException("邮件扫描已被新的请求取消");
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("totalCount", collector.getMatchCount());
+        result.put("list", collector.page(page, size));
+        return result;
+    }
+
+    /**
+     * 帮手连接：从连接池另借一个连接，打开同一个文件夹，和主连接一起从队列里取块
+     */
+    private void scanWithHelperConnection(UserAccount user, String realFolder, Queue<int[]> chunks,
+                                          TopKCollector collector, AtomicBoolean cancelled, String keyword,
+                                          String searchType, boolean isSentFolder) {
+        Store store = null;
+        try {
+            store = imapConnectionPool.tryBorrow(user, realFolder);
+            if (store == null) return; // 没有空余连接，剩下的交给主连接
+            FolderSession session = openFolderSession(user, store, realFolder, Folder.READ_ONLY);
+            if (session == null) return;
+            drainChunks((IMAPFolder) session.getFolder(), chunks, collector, cancelled, keyword, searchType,
+                    isSentFolder);
+        } catch (Exception e) {
+            System.err.println("⚠️ 并行扫描的帮手连接出错，剩下的交给主连接: " + e.getMessage());
+        } finally {
+            closeQuietly(null, store);
+        }
+    }
+
+    /**
+     * 不断从队列里取块、下载信封、过滤后交给收集器，直到队列取空或被取消
+     * 下载失败时把这一块放回队列，留给别的连接重试。
+     */
+    private void drainChunks(IMAPFolder folder, Queue<int[]> chunks, TopKCollector collector,
+                             AtomicBoolean cancelled, String keyword, String searchType, boolean isSentFolder)
+            throws MessagingException {
+        int[] chunk;
+        while (!cancelled.get() && (chunk = chunks.poll()) != null) {
+            List<EmailInfo> emails;
+            try {
+                emails = fetchEnvelopeRange(folder, chunk[0], chunk[1], isSentFolder);
+            } catch (MessagingException | RuntimeException e) {
+                chunks.add(chunk);
+                throw e;
+            }
+            for (EmailInfo email : emails) {
+                if (matchesKeyword(email, keyword, searchType)) {
+                    collector.offer(email);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按序号区间下载信封 (FETCH start:end (UID ENVELOPE))
+     * 不走 folder.fetch()：那样信封会一直缓存在 Message 对象上，文件夹保持打开时内存就回收不掉了。
+     * 这里直接解析原始响应，用完即弃。
+     */
+    private List<EmailInfo> fetchEnvelopeRange(IMAPFolder folder, int start, int end, boolean isSentFolder)
+            throws MessagingException {
+        Response[] responses = (Response[]) folder.doCommand(p -> {
+            Response[] r = p.fetch(start, end, "UID FLAGS ENVELOPE");
+            notifyUnsolicited(p, r);
+            p.handleResult(r[r.length - 1]);
+            return r;
+        });
+        return parseEnvelopes(responses, isSentFolder);
+    }
+
+    /**
+     * 按 UID 集合下载信封 (UID FETCH 1:5,8 (UID FLAGS ENVELOPE))，和 fetchEnvelopeRange 一样直接解析原始响应
+     */
+    private List<EmailInfo> fetchEnvelopesByUidSet(IMAPFolder folder, String uidSet, boolean isSentFolder)
+            throws MessagingException {
+        Response[] responses = (Response[]) folder.doCommand(p -> {
+            Response[] r = p.command("UID FETCH " + uidSet + " (UID FLAGS ENVELOPE)", null);
+            notifyUnsolicited(p, r);
+            p.handleResult(r[r.length - 1]);
+            return r;
+        });
+        return parseEnvelopes(responses, isSentFolder);
+    }
+
+    /**
+     * 从原始 FETCH 响应里取出 UID、已读/星标和信封，组装成 EmailInfo
+     */
+    private List<EmailInfo> parseEnvelopes(Response[] responses, boolean isSentFolder) {
+        List<EmailInfo> list = new ArrayList<>();
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        for (Response r : responses) {
+            if (!(r instanceof FetchResponse)) continue;
+            FetchResponse fr = (FetchResponse) r;
+            UID uid = fr.getItem(UID.class);
+            ENVELOPE env = fr.getItem(ENVELOPE.class);
+            FLAGS flags = fr.getItem(FLAGS.class);
+            if (uid == null || env == null) continue;
+            try {
+                EmailInfo info = buildEmailInfo(uid.uid, env.subject, isSentFolder ? env.to : env.from, env.date,
+                        isSentFolder, fmt);
+                if (flags != null) {
+                    info.setSeen(flags.contains(Flags.Flag.SEEN));
+                    info.setFlagged(flags.contains(Flags.Flag.FLAGGED));
+                }
+                list.add(info);
+            } catch (Exception e) {
+                // 单个邮件解析失败不影响整体
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 发送 "UID SEARCH <条件>"，返回升序的 UID 列表
+     * 只要 UID 时不用 folder.getMessages() + fetch(UID)：那样每封邮件都会在文件夹里留下一个 Message 对象。
+     */
+    private long[] uidSearch(IMAPFolder folder, String criteria) throws MessagingException {
+        return (long[]) folder.doCommand(p -> {
+            Response[] r = p.command("UID SEARCH " + criteria, null);
+            List<Long> found = new ArrayList<>();
+            if (r[r.length - 1].isOK()) {
+                for (Response resp : r) {
+                    if (resp instanceof IMAPResponse && ((IMAPResponse) resp).keyEquals("SEARCH")) {
+                        long uid;
+                        while ((uid = resp.readLong()) != -1) {
+                            found.add(uid);
                         }
-                        return match;
-                    })
-                    .collect(Collectors.toList());
+                    }
+                }
+            }
+            notifyUnsolicited(p, r);
+            p.handleResult(r[r.length - 1]);
+            return found.stream().mapToLong(Long::longValue).sorted().toArray();
+        });
+    }
 
-            // 更新搜索后的结果总数
-            result.put("totalCount", fullList.size());
+    /**
+     * 把原始响应里夹带的 EXISTS / EXPUNGE / VANISHED 等通知交给文件夹处理，FETCH 响应除外
+     * ⚠️ 带 FLAGS 的 FETCH 交给文件夹的话，IMAPFolder 会为每一封邮件建一个 IMAPMessage 放进缓存并发出
+     * MessageChangedEvent，文件夹保持打开时这些对象一直回收不掉，自己解析原始响应就白做了。
+     */
+    private static void notifyUnsolicited(IMAPProtocol p, Response[] r) {
+        p.notifyResponseHandlers(Arrays.stream(r)
+                .filter(resp -> !(resp instanceof FetchResponse))
+                .toArray(Response[]::new));
+    }
+
+    /**
+     * 关键字匹配规则 (与本地缓存 HeaderCacheService.query 的规则保持一致)
+     */
+    private boolean matchesKeyword(EmailInfo email, String keyword, String searchType) {
+        if (!StringUtils.hasText(keyword)) return true;
+        String k = keyword.toLowerCase();
+        String type = (searchType != null) ? searchType : "all";
+
+        switch (type) {
+            case "sender":
+                return (email.getSender() != null && email.getSender().toLowerCase().contains(k));
+            case "title":
+                return (email.getTitle() != null && email.getTitle().toLowerCase().contains(k));
+            case "date":
+                return (email.getSendDate() != null && email.getSendDate().contains(k));
+            case "all":
+            default:
+                return (email.getTitle() != null && email.getTitle().toLowerCase().contains(k)) ||
+                        (email.getSender() != null && email.getSender().toLowerCase().contains(k)) ||
+                        (email.getSendDate() != null && email.getSendDate().contains(k));
         }
+    }
 
-        // --- 10. 内存排序 ---
-        Comparator<EmailInfo> comparator = null;
+    /**
+     * 排序规则 (UID 作为第二排序键，保证翻页时顺序稳定)
+     */
+    private Comparator<EmailInfo> buildComparator(String sortField, String sortOrder) {
+        Comparator<EmailInfo> comparator;
         String field = sortField != null ? sortField : "date";
 
         switch (field) {
@@ -219,166 +637,682 @@ public class MailService {
                 comparator = Comparator.comparing(EmailInfo::getSendDate);
                 break;
         }
+        comparator = comparator.thenComparing(EmailInfo::getId);
 
         // 处理倒序
         if ("desc".equals(sortOrder)) {
-            if (comparator != null) comparator = comparator.reversed();
+            comparator = comparator.reversed();
         }
+        return comparator;
+    }
 
-        if (!fullList.isEmpty() && comparator != null) {
-            Collections.sort(fullList, comparator);
+    /**
+     * 有界 Top-K 收集器：只保留排序后最靠前的 limit 封邮件，并统计一共匹配了多少封
+     * 堆顶是当前保留的邮件里“最靠后”的那一封，新邮件比它靠前才会把它挤掉。
+     * 并行扫描时多个连接会同时往里放，所以方法都加了锁。
+     */
+    private static class TopKCollector {
+        private final Comparator<EmailInfo> comparator;
+        private final int limit;
+        private final PriorityQueue<EmailInfo> heap;
+        private int matchCount = 0;
+
+        TopKCollector(Comparator<EmailInfo> comparator, int limit) {
+            this.comparator = comparator;
+            this.limit = Math.max(limit, 1);
+            this.heap = new PriorityQueue<>(comparator.reversed());
         }
 
-        // --- 11. 内存分页 ---
-        // 如果前面走了全量模式（为了搜索/排序），这里需要手动切片取出当前页的数据
-        boolean hasKeyword2 = StringUtils.hasText(keyword);
-        boolean isDefaultSort2 = (sortField == null || "date".equals(sortField))
-                && (sortOrder == null || "desc".equals(sortOrder));
-        boolean useServerSidePaging2 = !hasKeyword2 && isDefaultSort2;
+        synchronized void offer(EmailInfo email) {
+            matchCount++;
+            if (heap.size() < limit) {
+                heap.offer(email);
+            } else if (comparator.compare(email, heap.peek()) < 0) {
+                heap.poll();
+                heap.offer(email);
+            }
+        }
 
-        List<EmailInfo> pageList;
-        if (useServerSidePaging2) {
-            // 如果已经是服务器端分页，fullList 就是当前页数据
-            pageList = fullList;
-        } else {
-            // 手动 subList 切片
+        synchronized int getMatchCount() {
+            return matchCount;
+        }
+
+        synchronized List<EmailInfo> page(int page, int size) {
+            List<EmailInfo> top = new ArrayList<>(heap);
+            top.sort(comparator);
             int fromIndex = (page - 1) * size;
-            if (fromIndex >= fullList.size()) {
-                pageList = new ArrayList<>();
-            } else {
-                int toIndex = Math.min(fromIndex + size, fullList.size());
-                pageList = fullList.subList(fromIndex, toIndex);
+            if (fromIndex >= top.size()) return new ArrayList<>();
+            return new ArrayList<>(top.subList(fromIndex, Math.min(fromIndex + size, top.size())));
+        }
+    }
+
+    /**
+     * 【增量同步】把服务器上的信封同步到本地缓存 (mail_header 表)
+     * 1. UIDVALIDITY 变了：旧 UID 全部作废，清空本地缓存从头同步；
+     * 2. 只拉取 UID >= 上次记录的 UIDNEXT 的新邮件 (UID SEARCH UID n:*)，分批下载信封；
+     * 3. 已读/星标状态和删除通过 CONDSTORE/QRESYNC 增量同步 (syncChanges)；
+     * 4. 本地数量和服务器数量对不上时，才比对一次全部 UID，清理已被删除的邮件、补齐漏掉的邮件。
+     * * 💡 全程只发 UID SEARCH 和 UID FETCH 原始命令、自己解析响应，不经过 Message 对象：
+     * 文件夹在连接池里一直开着，第一次同步几万封邮件时，缓存在 Message 上的信封会一直占着内存。
+     */
+    private void syncHeaderCache(UserAccount user, FolderSession session, String realFolder, boolean isSentFolder)
+            throws Exception {
+        String account = user.getEmail();
+        IMAPFolder folder = (IMAPFolder) session.getFolder();
+
+        synchronized (headerCacheService.lockFor(account, realFolder)) {
+            FolderSyncState state = headerCacheService.getState(account, realFolder);
+
+            // 1. 检查 UIDVALIDITY
+            long uidValidity = folder.getUIDValidity();
+            if (state.getUidValidity() == null || state.getUidValidity() != uidValidity) {
+                System.out.println("🔄 文件夹 [" + realFolder + "] 需要全量重建本地缓存");
+                if (state.getUidValidity() != null) {
+                    rawMessageStore.dropValidity(account, realFolder, state.getUidValidity());
+                    attachmentStore.dropValidity(account, realFolder, state.getUidValidity());
+                    mailCache.removeFolderDetails(account, realFolder);
+                }
+                headerCacheService.resetFolder(state, uidValidity);
             }
+
+            // 2. 增量拉取新邮件
+            // 注意：没有新邮件时 "n:*" 会返回最后一封邮件，所以要再按 UID 过滤一次
+            long startUid = state.getUidNext();
+            long maxUid = startUid - 1;
+            List<Long> newUids = new ArrayList<>();
+            for (long uid : uidSearch(folder, "UID " + startUid + ":*")) {
+                if (uid >= startUid) {
+                    newUids.add(uid);
+                    maxUid = Math.max(maxUid, uid);
+                }
+            }
+            saveHeaderChunks(account, folder, realFolder, newUids, isSentFolder);
+
+            // 3. 已读/星标状态和删除：服务器支持 CONDSTORE 时只问上次同步之后变过的邮件
+            syncChanges(account, session, realFolder, state);
+
+            // 4. 数量不一致，说明有邮件被删除 (或上次同步中途失败)，比对 UID 修正
+            // QRESYNC 已经报告过删除时数量通常是对得上的，这一步的全量 UID 比对就省掉了
+            int serverCount = folder.getMessageCount();
+            if (headerCacheService.count(account, realFolder) != serverCount) {
+                Set<Long> localUids = headerCacheService.localUids(account, realFolder);
+                Set<Long> serverUids = new HashSet<>();
+                List<Long> missing = new ArrayList<>();
+                for (long uid : uidSearch(folder, "ALL")) { // 只要 UID，数据量很小
+                    serverUids.add(uid);
+                    if (!localUids.contains(uid)) missing.add(uid);
+                    maxUid = Math.max(maxUid, uid);
+                }
+                localUids.removeAll(serverUids);
+                headerCacheService.removeUids(account, realFolder, localUids);
+                attachmentStore.release(account, realFolder, localUids);
+                rawMessageStore.remove(account, realFolder, localUids);
+                saveHeaderChunks(account, folder, realFolder, missing, isSentFolder);
+            }
+
+            // 5. 更新书签
+            state.setUidNext(maxUid + 1);
+            headerCacheService.saveState(state);
+        }
+    }
+
+    /**
+     * 【CONDSTORE/QRESYNC 增量状态同步】(RFC 7162)
+     * 服务器给每次变化 (标记变化、删除) 分配一个递增的 MODSEQ，书签里记下同步到的 HIGHESTMODSEQ：
+     * 1. 第一次 (书签里还没有)：UID FETCH 1:* (FLAGS MODSEQ)，整个文件夹的状态拉一遍，记下最大的 MODSEQ；
+     * 2. 之后：UID FETCH 1:* (FLAGS MODSEQ) (CHANGEDSINCE m VANISHED)，服务器只返回 m 之后变过的邮件，
+     * 连接启用了 QRESYNC 时还会用一行 VANISHED (EARLIER) 列出这期间被删除的 UID；
+     * 3. 文件夹是以 QRESYNC 方式 SELECT 的 (见 openFolderSession)，SELECT 时已经报告了一部分变化，
+     * 先用掉这部分，再从 SELECT 时的 HIGHESTMODSEQ 往后问。
+     * 同步代价只和这段时间的变化量有关，和文件夹大小无关。
+     * * ⚠️ 服务器不支持 CONDSTORE 时什么也不做：状态只在拉信封时记一次，之后靠 IDLE 推送更新。
+     * 必须在 headerCacheService.lockFor 锁内调用。
+     */
+    private void syncChanges(String account, FolderSession session, String realFolder, FolderSyncState state) {
+        IMAPFolder folder = (IMAPFolder) session.getFolder();
+        try {
+            if (!ImapConnectionPool.hasCapability(folder, "CONDSTORE")) return;
+
+            Long since = state.getHighestModSeq();
+            if (since == null && folder.getMessageCount() == 0) return;
+            Map<Long, Flags> changed = new HashMap<>();
+            Set<Long> vanished = new HashSet<>();
+
+            List<MailEvent> events = session.takeResyncEvents(since);
+            if (events != null && session.getResyncModSeq() > 0) {
+                for (MailEvent e : events) {
+                    if (e instanceof MessageVanishedEvent) {
+                        for (long uid : ((MessageVanishedEvent) e).getUIDs()) vanished.add(uid);
+                    } else if (e instanceof MessageChangedEvent) {
+                        Message msg = ((MessageChangedEvent) e).getMessage();
+                        changed.put(folder.getUID(msg), msg.getFlags());
+                    }
+                }
+                since = session.getResyncModSeq();
+            }
+
+            long highest = fetchChanges(folder, since, changed, vanished);
+            if (since != null) highest = Math.max(highest, since);
+
+            if (!changed.isEmpty() || !vanished.isEmpty()) {
+                mailCache.invalidateFolder(account, realFolder);
+                for (Long uid : vanished) {
+                    changed.remove(uid);
+                    mailCache.removeDetail(account, realFolder, uid);
+                }
+                headerCacheService.removeUids(account, realFolder, vanished);
+                headerCacheService.updateFlags(account, realFolder, changed);
+                attachmentStore.release(account, realFolder, vanished);
+                rawMessageStore.remove(account, realFolder, vanished);
+            }
+            // 一个 MODSEQ 都没拿到时先不记，下次再从头拉
+            if (highest > 0) state.setHighestModSeq(highest);
+        } catch (Exception e) {
+            // 书签不动，下次再试；新邮件和删除的同步不受影响
+            System.err.println("⚠️ 同步邮件状态失败 [" + realFolder + "]: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 发出一条 UID FETCH (FLAGS MODSEQ)，since 为 null 时取全部，否则只取 since 之后变过的
+     * 直接解析原始响应：VANISHED 不会变成 JavaMail 的事件，只能自己读。
+     *
+     * @return 本次看到的最大 MODSEQ
+     */
+    private long fetchChanges(IMAPFolder folder, Long since, Map<Long, Flags> changed, Set<Long> vanished)
+            throws MessagingException {
+        return (Long) folder.doCommand(p -> {
+            String command = "UID FETCH 1:* (FLAGS MODSEQ)";
+            if (since != null) {
+                // VANISHED 只能在启用了 QRESYNC 的连接上用，否则服务器会报 BAD
+                command += " (CHANGEDSINCE " + since + (p.isEnabled("QRESYNC") ? " VANISHED" : "") + ")";
+            }
+            Response[] r = p.command(command, null);
+
+            long highest = 0;
+            for (int i = 0; i < r.length - 1; i++) {
+                if (r[i] instanceof FetchResponse) {
+                    FetchResponse fr = (FetchResponse) r[i];
+                    UID uid = fr.getItem(UID.class);
+                    FLAGS flags = fr.getItem(FLAGS.class);
+                    MODSEQ modseq = fr.getItem(MODSEQ.class);
+                    if (uid != null && flags != null) changed.put(uid.uid, flags);
+                    if (modseq != null) highest = Math.max(highest, modseq.modseq);
+                } else if (r[i] instanceof IMAPResponse && ((IMAPResponse) r[i]).keyEquals("VANISHED")) {
+                    // 格式: * VANISHED (EARLIER) 41,43:116
+                    IMAPResponse ir = (IMAPResponse) r[i];
+                    ir.readAtomStringList();
+                    for (long uid : UIDSet.toArray(UIDSet.parseUIDSets(ir.readAtom()))) {
+                        vanished.add(uid);
+                    }
+                    ir.reset(); // 读指针复位，下面还要交给文件夹处理
+                }
+            }
+            // 第一次同步是整个文件夹的 FETCH，不能交给文件夹 (见 notifyUnsolicited)，只转交其余的通知
+            notifyUnsolicited(p, r);
+            p.handleResult(r[r.length - 1]);
+            return highest;
+        });
+    }
+
+    /**
+     * 【IDLE 推送】收到新邮件 (EXISTS) 时由 MailboxWatcher 调用，把新邮件的信封直接写进本地缓存
+     * 只有本地缓存本来就和服务器一致时才写 (本地条数 + 新邮件数 == 服务器总数)，
+     * 否则说明本地缓存落后了，交给下一次 syncHeaderCache 去补齐，这里只清掉列表页缓存。
+     *
+     * @return 新邮件的信封 (新的在前)，用于推送给浏览器
+     */
+    public List<EmailInfo> applyPushedMessages(UserAccount user, IMAPFolder folder, Message[] added) throws Exception {
+        String account = user.getEmail();
+        String realFolder = folder.getFullName();
+        mailCache.invalidateFolder(account, realFolder);
+
+        FetchProfile fp = new FetchProfile();
+        fp.add(FetchProfile.Item.ENVELOPE);
+        fp.add(FetchProfile.Item.FLAGS);    // 已读/星标
+        fp.add(UIDFolder.FetchProfileItem.UID);
+        folder.fetch(added, fp);
+
+        boolean isSentFolder = realFolder.equals(getCorrectFolderName(user, "已发送"));
+        List<EmailInfo> headers = parseMessages(folder, added, isSentFolder);
+
+        synchronized (headerCacheService.lockFor(account, realFolder)) {
+            FolderSyncState state = headerCacheService.getState(account, realFolder);
+            if (state.getUidValidity() != null && state.getUidValidity() == folder.getUIDValidity()) {
+                // 已经同步过的 (UID 小于书签) 不再重复写入
+                List<EmailInfo> fresh = new ArrayList<>();
+                long maxUid = state.getUidNext() - 1;
+                for (EmailInfo info : headers) {
+                    if (info.getId() >= state.getUidNext()) {
+                        fresh.add(info);
+                        maxUid = Math.max(maxUid, info.getId());
+                    }
+                }
+                if (!fresh.isEmpty()
+                        && headerCacheService.count(account, realFolder) + fresh.size() == folder.getMessageCount()) {
+                    headerCacheService.saveHeaders(account, realFolder, fresh);
+                    state.setUidNext(maxUid + 1);
+                    headerCacheService.saveState(state);
+                }
+            }
+        }
+
+        headers.sort(Comparator.comparing(EmailInfo::getId).reversed());
+        return headers;
+    }
+
+    /**
+     * 【IDLE 推送】邮件被删除 (EXPUNGE) 时由 MailboxWatcher 调用，从本地缓存里删掉对应的 UID
+     * 不知道 UID 的删除 (监听连接上没取过它的 UID) 在这里处理不了，下一次 syncHeaderCache 比对数量时会修正。
+     */
+    public void applyPushedExpunge(UserAccount user, String realFolder, Collection<Long> uids) {
+        String account = user.getEmail();
+        mailCache.invalidateFolder(account, realFolder);
+        for (Long uid : uids) {
+            mailCache.removeDetail(account, realFolder, uid);
+        }
+        if (uids.isEmpty()) return;
+        synchronized (headerCacheService.lockFor(account, realFolder)) {
+            headerCacheService.removeUids(account, realFolder, uids);
         }
+        attachmentStore.release(account, realFolder, uids);
+        rawMessageStore.remove(account, realFolder, uids);
+    }
+
+    /**
+     * 【IDLE 推送】邮件状态变化 (FETCH FLAGS) 时由 MailboxWatcher 调用，更新本地缓存里的已读/星标
+     * 不推进 HIGHESTMODSEQ 书签：下次 syncChanges 还会再报告一次，结果相同。
+     */
+    public void applyPushedFlags(UserAccount user, String realFolder, long uid, Flags flags) {
+        String account = user.getEmail();
+        mailCache.invalidateFolder(account, realFolder);
+        synchronized (headerCacheService.lockFor(account, realFolder)) {
+            headerCacheService.updateFlags(account, realFolder, Collections.singletonMap(uid, flags));
+        }
+    }
 
-        result.put("list", pageList);
+    /**
+     * 根据服务器返回的 UID 列表 (升序) 组装一页结果
+     * UID 越大越新，所以倒着取就是“按时间倒序”，只下载这一页的信封。
+     */
+    private Map<String, Object> buildUidPage(FolderSession session, long[] uids, int page, int size,
+                                             boolean isSentFolder) throws Exception {
+        Map<String, Object> result = new HashMap<>();
+        result.put("totalCount", uids.length);
+
+        int from = uids.length - 1 - (page - 1) * size; // 倒序的第一条
+        int to = Math.max(from - size + 1, 0);
+        List<Long> pageUids = new ArrayList<>();
+        for (int i = from; i >= to; i--) {
+            pageUids.add(uids[i]);
+        }
+
+        List<EmailInfo> list = new ArrayList<>();
+        if (!pageUids.isEmpty()) {
+            list = fetchEnvelopesByUid(session, pageUids, isSentFolder);
+        }
+        result.put("list", list);
         return result;
     }
 
     /**
-     * 获取自定义文件夹列表
-     * 逻辑：获取服务器所有文件夹 -> 剔除系统默认文件夹 (如 INBOX, Trash 等) -> 返回剩余的
+     * 根据服务器排好序的邮件组装一页结果，只下载这一页的信封
      */
-    public List<String> getCustomFolders(UserAccount user) {
-        List<String> customFolders = new ArrayList<>();
+    private Map<String, Object> buildSortedPage(FolderSession session, Message[] sorted, int page, int size,
+                                                boolean isSentFolder) throws Exception {
+        Map<String, Object> result = new HashMap<>();
+        result.put("totalCount", sorted.length);
+
+        int fromIndex = (page - 1) * size;
+        List<EmailInfo> list = new ArrayList<>();
+        if (fromIndex < sorted.length) {
+            Message[] pageMessages = Arrays.copyOfRange(sorted, fromIndex, Math.min(fromIndex + size, sorted.length));
+            FetchProfile fp = new FetchProfile();
+            fp.add(FetchProfile.Item.ENVELOPE);
+            fp.add(FetchProfile.Item.FLAGS);    // 已读/星标
+            fp.add(UIDFolder.FetchProfileItem.UID);
+            session.getFolder().fetch(pageMessages, fp);
+            session.remember(pageMessages);
+            list = parseMessages((UIDFolder) session.getFolder(), pageMessages, isSentFolder);
+        }
+        result.put("list", list);
+        return result;
+    }
+
+    /**
+     * 按给定 UID 顺序下载信封，返回顺序与传入顺序一致
+     */
+    private List<EmailInfo> fetchEnvelopesByUid(FolderSession session, List<Long> uids, boolean isSentFolder)
+            throws Exception {
+        UIDFolder uidFolder = (UIDFolder) session.getFolder();
+        Message[] found = uidFolder.getMessagesByUID(uids.stream().mapToLong(Long::longValue).toArray());
+        // 搜索和取信封之间邮件可能刚好被删了，去掉空位
+        Message[] messages = Arrays.stream(found).filter(Objects::nonNull).toArray(Message[]::new);
+
+        FetchProfile fp = new FetchProfile();
+        fp.add(FetchProfile.Item.ENVELOPE);
+        fp.add(FetchProfile.Item.FLAGS);    // 已读/星标
+        fp.add(UIDFolder.FetchProfileItem.UID);
+        session.getFolder().fetch(messages, fp);
+        session.remember(messages);
+        return parseMessages(uidFolder, messages, isSentFolder);
+    }
+
+    /**
+     * 按 UID 分批下载信封并写入本地缓存 (每批一条 UID FETCH，解析完就丢掉)
+     */
+    private void saveHeaderChunks(String account, IMAPFolder folder, String realFolder,
+                                  List<Long> uids, boolean isSentFolder) throws Exception {
+        for (int from = 0; from < uids.size(); from += SYNC_CHUNK_SIZE) {
+            List<Long> chunk = uids.subList(from, Math.min(from + SYNC_CHUNK_SIZE, uids.size()));
+            headerCacheService.saveHeaders(account, realFolder,
+                    fetchEnvelopesByUidSet(folder, UidSetUtil.toUidSet(chunk), isSentFolder));
+        }
+    }
+
+    /**
+     * 获取单封邮件详情
+     * 与 receiveEmails 不同，这个方法会深度解析正文，操作比较耗时。
+     * * 先用一条 FETCH 取 BODYSTRUCTURE 和邮件大小，再按大小决定：
+     * 1. 小邮件 (不超过 RAW_SAVE_MAX_BYTES)：整封下载保存在本地 (RawMessageStore)，之后再打开、回复、转发都从本地文件解析；
+     * 2. 大邮件 (通常是带了大附件)：只用 BODY.PEEK[section] 下载要显示的正文部分，附件只从 BODYSTRUCTURE 列出名字、大小、类型。
+     * 附件内容都不在这里下载，用户点下载 / 预览时再按部件编号去取 (见 openAttachment)。
+     */
+    public EmailInfo getEmailDetail(UserAccount user, String folderName, long uid) {
+        String realFolder = getCorrectFolderName(user, folderName);
+        String account = user.getEmail();
+        // 先查详情缓存 (后台预取过、或者刚刚看过的邮件)，命中就不用连服务器
+        EmailInfo cached = mailCache.getDetail(account, realFolder, uid);
+        if (cached != null) return cached;
+
+        // 再查本地保存的原始邮件 (见 RawMessageStore)：已知 UIDVALIDITY 时完全不用连服务器
+        Long knownValidity = knownUidValidity(account, realFolder);
+        if (knownValidity != null) {
+            MimeMessage local = rawMessageStore.load(account, realFolder, knownValidity, uid);
+            if (local != null) {
+                EmailInfo detail = buildDetail(local, uid);
+                if (detail != null) {
+                    mailCache.putDetail(account, realFolder, uid, detail);
+                    return detail;
+                }
+            }
+        }
+
         Store store = null;
-        Folder defaultFolder = null;
+        Message msg;
         try {
-            store = getImapStore(user);
+            store = getImapStore(user, realFolder);
+            // 列表页刚打开过这个文件夹的话，这里直接复用，并且按缓存的序号取邮件，不再查 UID
+            FolderSession session = openFolderSession(user, store, realFolder, Folder.READ_ONLY);
+            if (session == null) return null;
+            long uidValidity = ((UIDFolder) session.getFolder()).getUIDValidity();
+            msg = rawMessageStore.load(account, realFolder, uidValidity, uid);
+            if (msg == null) {
+                msg = session.getMessageByUID(uid);
+                if (msg == null) return null;
+                // 信封、BODYSTRUCTURE、大小一次取回，后面解析邮件头、判断 MIME 类型都不用再访问服务器
+                FetchProfile fp = new FetchProfile();
+                fp.add(FetchProfile.Item.ENVELOPE);
+                fp.add(FetchProfile.Item.CONTENT_INFO);
+                fp.add(FetchProfile.Item.SIZE);
+                session.getFolder().fetch(new Message[]{msg}, fp);
+                if (msg.getSize() > RAW_SAVE_MAX_BYTES) {
+                    // 大邮件：解析时 IMAPBodyPart 只按部件编号下载正文，附件原样留在服务器上
+                    return putDetail(account, realFolder, uid, buildDetail(msg, uid));
+                }
+                // 小邮件整封下载存到本地，之后从本地文件解析；存不下来时直接解析服务器上的邮件
+                MimeMessage saved = rawMessageStore.save(account, realFolder, uidValidity, uid, msg);
+                if (saved != null) {
+                    msg = saved;
+                } else {
+                    return putDetail(account, realFolder, uid, buildDetail(msg, uid));
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            closeQuietly(null, store);
+        }
+        // 本地文件的解析不需要占着连接
+        return putDetail(account, realFolder, uid, buildDetail(msg, uid));
+    }
+
+    private EmailInfo putDetail(String account, String realFolder, long uid, EmailInfo detail) {
+        if (detail != null) mailCache.putDetail(account, realFolder, uid, detail);
+        return detail;
+    }
+
+    /**
+     * 打开一个附件 (已解码的内容)，用于回复 / 转发时带上原附件
+     * 依次找：本地保存过的附件 (AttachmentStore) -> 本地原始邮件 -> 服务器 (IMAPBodyPart 分块发 BODY.PEEK[section])，
+     * 只传这一个附件，不会下载整封邮件。
+     * * ⚠️ 从服务器读取时，返回的流占着一条 IMAP 连接，调用方必须关闭它 (关闭时归还连接)。
+     *
+     * @param section 附件的部件编号 (见 AttachmentInfo#getSection)
+     */
+    public InputStream openAttachment(UserAccount user, String folderName, long uid, String section)
+            throws Exception {
+        checkSection(section);
+        String realFolder = getCorrectFolderName(user, folderName);
+        String account = user.getEmail();
+        Long knownValidity = knownUidValidity(account, realFolder);
+        if (knownValidity != null) {
+            InputStream local = openLocalAttachment(account, realFolder, knownValidity, uid, section);
+            if (local != null) return local;
+        }
+
+        Store store = getImapStore(user, realFolder);
+        try {
+            FolderSession session = openFolderSession(user, store, realFolder, Folder.READ_ONLY);
+            if (session == null) throw new MessagingException("文件夹不存在");
+            long uidValidity = ((UIDFolder) session.getFolder()).getUIDValidity();
+            if (knownValidity == null || knownValidity != uidValidity) {
+                InputStream local = openLocalAttachment(account, realFolder, uidValidity, uid, section);
+                if (local != null) return local;
+            }
+            Message msg = session.getMessageByUID(uid);
+            Part part = msg != null ? findPart(msg, section) : null;
+            if (part == null) throw new MessagingException("附件不存在");
+            InputStream in = part.getInputStream();
+            Store borrowed = store;
+            store = null; // 连接交给返回的流，关闭流时归还
+            return new FilterInputStream(in) {
+                private final AtomicBoolean closed = new AtomicBoolean(false);
+
+                @Override
+                public void close() throws IOException {
+                    if (!closed.compareAndSet(false, true)) return;
+                    try {
+                        super.close();
+                    } finally {
+                        imapConnectionPool.release(borrowed);
+                    }
+                }
+            };
+        } finally {
+            if (store != null) closeQuietly(null, store);
+        }
+    }
+
+    /**
+     * 打开一个附件用于下载 / 预览 (支持 HTTP Range，见 AttachmentReader)
+     * 1. 本地保存过这个附件，或者本地有原始邮件 (先解码存一份)：直接按偏移读本地文件，不连服务器；
+     * 2. 带 Range 的请求 (拖动视频进度条、PDF 分段加载、断点续传)：用 BODY.PEEK[section]<偏移.长度> 只取需要的那段，
+     * 每一段单独借一次连接 (见 sectionFetcher)；
+     * 3. 其它情况：先从服务器整个下载到本地 (AttachmentStore)，再按情况 1 读本地文件。
+     * * 💡 往浏览器写数据的时候不占着 IMAP 连接，浏览器收得再慢也不会把连接池占满。
+     *
+     * @param ranged 请求里是否带了 Range
+     */
+    public AttachmentReader openAttachmentReader(UserAccount user, String folderName, long uid, String section,
+                                                 boolean ranged) throws Exception {
+        checkSection(section);
+        String realFolder = getCorrectFolderName(user, folderName);
+        String account = user.getEmail();
+        Long knownValidity = knownUidValidity(account, realFolder);
+        if (knownValidity != null) {
+            FileChannel local = localAttachmentFile(account, realFolder, knownValidity, uid, section);
+            if (local != null) {
+                return AttachmentReader.file(local).tag(account, realFolder, knownValidity, uid, section);
+            }
+        }
 
-            // 获取根目录下的所有文件夹
-            defaultFolder = store.getDefaultFolder();
-            Folder[] allFolders = defaultFolder.list("*");
-
-            // 定义黑名单：需要剔除的系统文件夹名称 (兼容中英文)
-            // 这些文件夹由系统管理，不应该显示在“自定义文件夹”区域
-            List<String> systemFolders = Arrays.asList(
-                    "INBOX", "收件箱",
-                    "Sent Messages", "Sent", "已发送",
-                    "Drafts", "Draft", "草稿箱",
-                    "Deleted Messages", "Trash", "已删除", "垃圾箱", "Deleted",
-                    "Junk", "Spam", "垃圾邮件", "广告邮件"
-            );
-
-            for (Folder f : allFolders) {
-                String name = f.getName();
-
-                // 忽略系统文件夹
-                boolean isSystem = systemFolders.stream()
-                        .anyMatch(sys -> sys.equalsIgnoreCase(name));
-
-                // 还要单独排除 "INBOX" (IMAP 标准名称)
-                if (!isSystem && !"INBOX".equalsIgnoreCase(name)) {
-                    customFolders.add(name);
+        long uidValidity;
+        String encoding;
+        long encodedSize;
+        Store store = getImapStore(user, realFolder);
+        try {
+            FolderSession session = openFolderSession(user, store, realFolder, Folder.READ_ONLY);
+            if (session == null) throw new MessagingException("文件夹不存在");
+            uidValidity = ((UIDFolder) session.getFolder()).getUIDValidity();
+            if (knownValidity == null || knownValidity != uidValidity) {
+                FileChannel local = localAttachmentFile(account, realFolder, uidValidity, uid, section);
+                if (local != null) {
+                    return AttachmentReader.file(local).tag(account, realFolder, uidValidity, uid, section);
                 }
             }
+            Message msg = session.getMessageByUID(uid);
+            Part part = msg != null ? findPart(msg, section) : null;
+            if (part == null) throw new MessagingException("附件不存在");
+            if (!ranged || !(part instanceof IMAPBodyPart)) {
+                return AttachmentReader.file(saveAttachment(part, account, realFolder, uidValidity, uid, section))
+                    .tag(account, realFolder, uidValidity, uid, section);
+            }
+            encoding = ((IMAPBodyPart) part).getEncoding();
+            encodedSize = ((IMAPBodyPart) part).getSize();
+        } finally {
+            closeQuietly(null, store);
+        }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+        // 连接已经归还，探测行长和之后的每一段都是单独借连接
+        AttachmentReader reader = AttachmentReader.imapRange(
+                sectionFetcher(user, realFolder, uidValidity, uid, section), encoding, encodedSize);
+        if (reader != null) return reader.tag(account, realFolder, uidValidity, uid, section);
+        // 算不出偏移 (quoted-printable 等)，只能整个下载
+        store = getImapStore(user, realFolder);
+        try {
+            FolderSession session = openFolderSession(user, store, realFolder, Folder.READ_ONLY);
+            if (session == null) throw new MessagingException("文件夹不存在");
+            if (((UIDFolder) session.getFolder()).getUIDValidity() != uidValidity) {
+                throw new MessagingException("文件夹已重置，请刷新后重试");
+            }
+            Message msg = session.getMessageByUID(uid);
+            Part part = msg != null ? findPart(msg, section) : null;
+            if (part == null) throw new MessagingException("附件不存在");
+            return AttachmentReader.file(saveAttachment(part, account, realFolder, uidValidity, uid, section))
+                    .tag(account, realFolder, uidValidity, uid, section);
         } finally {
-            try {
-                if (store != null) store.close();
-            } catch (Exception e) {}
+            closeQuietly(null, store);
         }
-        return customFolders;
     }
 
     /**
-     * 辅助方法：批量将 JavaMail 的 Message 对象解析为轻量级的 EmailInfo 对象
-     * 仅解析信封信息 (标题、发件人、时间)，不解析正文，速度快。
-     * 用于列表页展示。
+     * 按偏移取服务器上一个部件的原文：每次调用借一次连接，取完马上归还
+     * UIDVALIDITY 变了 (文件夹被重建) 就不再取，免得拼进别的邮件的内容。
      */
-    private List<EmailInfo> parseMessages(UIDFolder uidFolder, Message[] messages, boolean isSentFolder)
-            throws Exception {
-        List<EmailInfo> list = new ArrayList<>();
-        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm");
-
-        for (Message msg : messages) {
+    private AttachmentReader.SectionFetcher sectionFetcher(UserAccount user, String realFolder, long uidValidity,
+                                                           long uid, String section) {
+        return (start, len) -> {
+            Store store = getImapStore(user, realFolder);
             try {
-                // 获取 UID (唯一标识)
-                long uid = uidFolder.getUID(msg);
-                // 解码标题 (处理 =?UTF-8?B?... 格式的 MIME 编码)
-                String subject = (msg.getSubject() != null) ? MimeUtility.decodeText(msg.getSubject()) : "无标题";
-
-                String fullString = "";
-                // 逻辑判断：如果是“已发送”箱，我们要看的是“收件人”是谁；否则看“发件人”
-                if (isSentFolder) {
-                    Address[] recipients = msg.getRecipients(Message.RecipientType.TO);
-                    if (recipients != null && recipients.length > 0) {
-                        fullString = MimeUtility.decodeText(recipients[0].toString());
-                    } else {
-                        fullString = "未知收件人";
-                    }
-                } else {
-                    if (msg.getFrom() != null && msg.getFrom().length > 0) {
-                        fullString = MimeUtility.decodeText(msg.getFrom()[0].toString());
-                    } else {
-                        fullString = "未知发件人";
-                    }
+                FolderSession session = openFolderSession(user, store, realFolder, Folder.READ_ONLY);
+                if (session == null) throw new MessagingException("文件夹不存在");
+                IMAPFolder folder = (IMAPFolder) session.getFolder();
+                if (folder.getUIDValidity() != uidValidity) {
+                    throw new MessagingException("文件夹已重置，请刷新后重试");
                 }
+                Message msg = session.getMessageByUID(uid);
+                if (msg == null) throw new MessagingException("邮件已不存在");
+                return AttachmentReader.peekSection(folder, msg.getMessageNumber(), section, start, len);
+            } finally {
+                closeQuietly(null, store);
+            }
+        };
+    }
 
-                // 字符串处理：分离 姓名 和 邮箱地址
-                // 格式通常是: "张三 <zhangsan@qq.com>"
-                String displayName = fullString;
-                String address = "";
-                if (fullString.contains("<")) {
-                    displayName = fullString.substring(0, fullString.indexOf("<")).trim();
-                    address = fullString.substring(fullString.indexOf("<") + 1, fullString.indexOf(">")).trim();
-                    if (displayName.isEmpty())
-                        displayName = address;
-                } else {
-                    address = fullString;
-                }
+    /**
+     * 本地的附件文件：保存过就直接用；本地有原始邮件的话先把这个部件解码存一份 (本地解码很快，之后就能按偏移读)
+     * 都没有时返回 null
+     */
+    private FileChannel localAttachmentFile(String account, String realFolder, long uidValidity, long uid,
+                                            String section) throws Exception {
+        FileChannel blob = attachmentStore.find(account, realFolder, uidValidity, uid, section);
+        if (blob != null) return blob;
+        MimeMessage raw = rawMessageStore.load(account, realFolder, uidValidity, uid);
+        Part part = raw != null ? findPart(raw, section) : null;
+        if (part == null) return null;
+        return saveAttachment(part, account, realFolder, uidValidity, uid, section);
+    }
 
-                String sentDate = (msg.getSentDate() != null) ? fmt.format(msg.getSentDate()) : "未知时间";
+    /**
+     * 把一个部件解码后存进 AttachmentStore，返回打开的文件 (调用方负责关闭)
+     */
+    private FileChannel saveAttachment(Part part, String account, String realFolder, long uidValidity, long uid,
+                                String section) throws Exception {
+        try (InputStream in = part.getInputStream();
+             AttachmentStore.BlobWriter out = attachmentStore.begin(account, realFolder, uidValidity, uid, section)) {
+            in.transferTo(out);
+            return out.commit();
+        }
+    }
 
-                // 添加到列表
-                list.add(new EmailInfo(uid, subject, displayName, address, sentDate, null, new ArrayList<>()));
+    /**
+     * 本地的附件内容 (保存过的附件，或者本地原始邮件里的这个部件)，都没有时返回 null
+     */
+    private InputStream openLocalAttachment(String account, String realFolder, long uidValidity, long uid,
+                                            String section) throws Exception {
+        FileChannel blob = attachmentStore.find(account, realFolder, uidValidity, uid, section);
+        if (blob != null) return Channels.newInputStream(blob);
+        MimeMessage raw = rawMessageStore.load(account, realFolder, uidValidity, uid);
+        Part part = raw != null ? findPart(raw, section) : null;
+        return part != null ? part.getInputStream() : null;
+    }
+
+    /**
+     * 部件编号只能是 "1"、"2.1" 这样的格式 (编号来自请求参数，还会拼进本地文件名)
+     */
+    private static void checkSection(String section) throws MessagingException {
+        if (section == null || !section.matches("\\d{1,4}(\\.\\d{1,4}){0,15}")) {
+            throw new MessagingException("附件编号无效: " + section);
+        }
+    }
+
+    /**
+     * 原邮件附件的内容来源：每次 getInputStream 时才去读 (发送前写临时文件时读一次)
+     */
+    private InputStreamSource attachmentSource(UserAccount user, String folderName, long uid, String section) {
+        return () -> {
+            try {
+                return openAttachment(user, folderName, uid, section);
+            } catch (IOException e) {
+                throw e;
             } catch (Exception e) {
-                // 单个邮件解析失败不影响整体
+                throw new IOException("原邮件附件加载失败: " + e.getMessage(), e);
             }
-        }
-        return list;
+        };
     }
 
     /**
-     * 获取单封邮件详情
-     * 与 receiveEmails 不同，这个方法会深度解析正文、下载附件，操作比较耗时。
+     * 最近一次已知的 UIDVALIDITY：IDLE 推送在线时用实时状态，否则用信封缓存的同步书签
+     * 都没有时返回 null (只能连服务器确认)
      */
-    public EmailInfo getEmailDetail(UserAccount user, String folderName, long uid) {
-        Store store = null;
-        Folder folder = null;
+    private Long knownUidValidity(String account, String realFolder) {
+        MailCache.FolderState pushed = mailCache.getPushedState(account, realFolder);
+        if (pushed != null) return pushed.getUidValidity();
         try {
-            store = getImapStore(user);
-            String realFolder = getCorrectFolderName(user.getType(), folderName);
-            folder = store.getFolder(realFolder);
-            folder.open(Folder.READ_ONLY);
-
-            UIDFolder uidFolder = (UIDFolder) folder;
-            Message msg = uidFolder.getMessageByUID(uid);
-
-            if (msg == null) return null;
+            return headerCacheService.getState(account, realFolder).getUidValidity();
+        } catch (Exception e) {
+            return null;
+        }
+    }
 
+    /**
+     * 解析邮件详情：邮件头 + 正文 + 附件列表 (只有名字、大小、类型，不下载附件内容)
+     * 邮件可以是服务器上的 IMAPMessage，也可以是从本地文件解析出来的 MimeMessage。
+     */
+    private EmailInfo buildDetail(Message msg, long uid) {
+        try {
             // 1. 解析基础信息 (与上面类似)
             String subject = (msg.getSubject() != null) ? MimeUtility.decodeText(msg.getSubject()) : "无标题";
 
@@ -416,111 +1350,50 @@ public class MailService {
             // 3. 【核心】解析正文和附件 (递归解析 Multipart)
             // 调用下面的 parseMessage 递归方法
             StringBuilder contentBuffer = new StringBuilder();
-            List<String> attachmentList = new ArrayList<>();
-            parseMessage(msg, contentBuffer, attachmentList);
+            List<AttachmentInfo> attachmentList = new ArrayList<>();
+            parseMessage(msg, "", contentBuffer, attachmentList);
 
-            return new EmailInfo(uid, subject, fromName, fromAddress, recipientsStr, sentDate, contentBuffer.toString(),
-                    attachmentList);
+            List<String> filenames = new ArrayList<>();
+            for (AttachmentInfo att : attachmentList) {
+                filenames.add(att.getName());
+            }
+            EmailInfo detail = new EmailInfo(uid, subject, fromName, fromAddress, recipientsStr, sentDate,
+                    contentBuffer.toString(), filenames);
+            detail.setAttachments(attachmentList);
+            return detail;
         } catch (Exception e) {
             e.printStackTrace();
             return null;
-        } finally {
-            closeQuietly(folder, store);
         }
     }
 
     /**
-     * 移动邮件到垃圾箱 (增强版)
-     * IMAP 协议中其实没有“移动”命令，所谓的移动其实是 "Copy" (复制) + "Delete" (删除原邮件)。
-     * 策略：尝试复制到垃圾箱 -> 如果成功，标记原邮件删除 -> 如果复制失败，也强制标记原邮件删除。
-     * 专门解决了 163 邮箱在复制到垃圾箱时可能报错的问题。
+     * 移动邮件到垃圾箱 (支持批量)
+     * 策略：尝试移动到垃圾箱 -> 如果失败 (比如 163 经常报编码错误或禁止复制)，也强制删除原邮件。
+     * 所有邮件一条 UID MOVE (或 UID COPY + UID STORE + UID EXPUNGE) 完成，见 transferUids。
      */
-    public void moveToTrash(UserAccount user, String fromFolderName, long uid) {
-        Store store = null;
-        Folder sourceFolder = null;
-        Folder trashFolder = null;
+    public void moveToTrash(UserAccount user, String fromFolderName, Collection<Long> uids) {
         try {
-            store = getImapStore(user);
-
-            // 1. 获取源文件夹
-            String sourceRealName = getCorrectFolderName(user.getType(), fromFolderName);
-            sourceFolder = store.getFolder(sourceRealName);
-            if (!sourceFolder.exists()) {
-                System.err.println("❌ 删除失败：源文件夹不存在 [" + sourceRealName + "]");
-                return;
-            }
-            sourceFolder.open(Folder.READ_WRITE); // 需要写权限来打删除标记 (Flags.Flag.DELETED)
-
-            // 2. 获取目标垃圾箱
-            String trashName = getCorrectFolderName(user.getType(), "已删除");
-            trashFolder = store.getFolder(trashName);
-
-            // 【163 特殊保险】如果 "已删除" 不存在，尝试找 "Trash"
-            if (!trashFolder.exists() && "163".equals(user.getType())) {
-                if (store.getFolder("Trash").exists()) {
-                    trashFolder = store.getFolder("Trash");
-                }
-            }
-
-            // 3. 执行移动逻辑
-            UIDFolder uidFolder = (UIDFolder) sourceFolder;
-            Message msg = uidFolder.getMessageByUID(uid);
-
-            if (msg != null) {
-                boolean copySuccess = false;
-
-                // 尝试复制到垃圾箱
-                if (trashFolder != null && trashFolder.exists()) {
-                    try {
-                        trashFolder.open(Folder.READ_WRITE);
-                        sourceFolder.copyMessages(new Message[] { msg }, trashFolder);
-                        copySuccess = true;
-                    } catch (Exception e) {
-                        // 【关键修复】如果复制失败 (比如 163 经常报编码错误或禁止复制)，打印日志但不要停止
-                        // 很多时候服务器只是拒绝复制，但我们仍需删除原邮件
-                        System.err.println("⚠️ 警告：无法移动到垃圾箱 (将执行强制删除): " + e.getMessage());
-                        copySuccess = false;
-                    }
-                }
-
-                // 【核心逻辑】无论复制是否成功，只要用户点了删除，就在原文件夹标记删除！
-                // 这样能保证收件箱里的邮件一定会被删掉，解决了"删不掉"的问题。
-                msg.setFlag(Flags.Flag.DELETED, true);
-            }
-
-            // 4. 物理清除 (提交删除操作，EXPUNGE 指令)
-            sourceFolder.expunge();
-
+            // 获取源文件夹和目标垃圾箱的真实名称 (按缓存的 LIST 结果解析，不再逐个 exists() 试探)
+            String sourceRealName = getCorrectFolderName(user, fromFolderName);
+            String trashName = getCorrectFolderName(user, "已删除");
+            // 163 的 "已删除" / "Trash" 等备选名称已经由 FolderRoleResolver 处理；找不到垃圾箱就直接删除
+            String target = folderRoleResolver.exists(user, trashName) ? trashName : null;
+            transferUids(user, sourceRealName, target, uids, true);
         } catch (Exception e) {
             System.err.println("❌ 删除流程严重错误: " + e.getMessage());
             e.printStackTrace();
-        } finally {
-            closeQuietly(trashFolder, null);
-            closeQuietly(sourceFolder, store);
         }
     }
 
     /**
-     * 彻底删除邮件 (不进垃圾箱，直接消失)
+     * 彻底删除邮件 (不进垃圾箱，直接消失，支持批量)
      */
-    public void deleteMessage(UserAccount user, String folderName, long uid) {
-        Store store = null;
-        Folder folder = null;
+    public void deleteMessage(UserAccount user, String folderName, Collection<Long> uids) {
         try {
-            store = getImapStore(user);
-            String realFolder = getCorrectFolderName(user.getType(), folderName);
-            folder = store.getFolder(realFolder);
-            folder.open(Folder.READ_WRITE);
-            UIDFolder uidFolder = (UIDFolder) folder;
-            Message msg = uidFolder.getMessageByUID(uid);
-            if (msg != null) {
-                msg.setFlag(Flags.Flag.DELETED, true); // 标记删除
-            }
-            folder.expunge(); // 执行物理删除
+            transferUids(user, getCorrectFolderName(user, folderName), null, uids, false);
         } catch (Exception e) {
             e.printStackTrace();
-        } finally {
-            closeQuietly(folder, store);
         }
     }
 
@@ -534,130 +1407,177 @@ public class MailService {
     }
 
     /**
-     * 核心发送邮件方法 (SMTP)
+     * 核心发送邮件方法 (SMTP)，在当前线程里同步发送
      * 支持群发、上传新附件、以及回复时自动带上旧附件。
+     * 页面上的发送走 OutboxService 排队异步发送，这里保留给需要立即发送的调用方。
      */
     public void sendMailWithAttachment(UserAccount user, String to, String subject, String content,
                                        org.springframework.web.multipart.MultipartFile file,
                                        String replyFolder, Long replyUid) {
         try {
-            // 创建发送器 (JavaMailSenderImpl)
-            JavaMailSenderImpl sender = createSender(user);
-            // 创建 MIME 消息 (支持 HTML 和附件)
-            jakarta.mail.internet.MimeMessage message = sender.createMimeMessage();
-            // 使用 Helper 类简化设置
-            org.springframework.mail.javamail.MimeMessageHelper helper = new org.springframework.mail.javamail.MimeMessageHelper(
-                    message, true, "UTF-8");
-
-            helper.setFrom(user.getEmail());
-
-            // ==================== 【多收件人处理】 ====================
-            // 使用正则分割：分号(;)、逗号(,)、中文逗号(，) 均可作为分隔符
-            // 这样用户输入 "a@q.com; b@q.com" 也能正常识别
-            if (to != null && !to.isEmpty()) {
-                String[] recipients = to.split("[,;，\\s]+");
-                helper.setTo(recipients);
-            }
-
-            helper.setSubject(subject);
-            helper.setText(content, true); // true 表示支持 HTML 格式
-
-            // 1) 处理用户上传的新附件
-            if (file != null && !file.isEmpty()) {
-                helper.addAttachment(file.getOriginalFilename(), file);
-            }
-
-            // 2) 回复/转发时，自动读取本地保存的原邮件附件并添加
-            // 因为浏览器安全限制，无法自动把旧文件填入 file input，所以需要在后端根据 ID 找回旧文件
-            if (replyUid != null && replyFolder != null && !replyFolder.isEmpty()) {
-                EmailInfo original = getEmailDetail(user, replyFolder, replyUid);
-                if (original != null) {
-                    List<String> filenames = original.getFilenames();
-                    if (filenames != null && !filenames.isEmpty()) {
-                        for (String filename : filenames) {
-                            File f = new File(SAVE_PATH + filename);
-                            if (f.exists()) {
-                                helper.addAttachment(filename, f);
-                            }
-                        }
-                    }
+            String fileName = (file != null && !file.isEmpty()) ? file.getOriginalFilename() : null;
+            deliver(user, buildMail(user, to, subject, content, fileName, file, replyFolder, replyUid));
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("发送失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 组装一封普通邮件 / 回复邮件 (不发送)
+     *
+     * @param attachmentName 新附件的文件名，没有附件时为 null
+     * @param attachment     新附件的内容 (上传的 MultipartFile，或者发件箱里暂存的文件)
+     */
+    public jakarta.mail.internet.MimeMessage buildMail(UserAccount user, String to, String subject, String content,
+                                                       String attachmentName,
+                                                       org.springframework.core.io.InputStreamSource attachment,
+                                                       String replyFolder, Long replyUid) throws Exception {
+        // 创建 MIME 消息 (支持 HTML 和附件)
+        jakarta.mail.internet.MimeMessage message = smtpConnectionPool.createMimeMessage(user);
+        // 使用 Helper 类简化设置
+        org.springframework.mail.javamail.MimeMessageHelper helper = new org.springframework.mail.javamail.MimeMessageHelper(
+                message, true, "UTF-8");
+
+        helper.setFrom(user.getEmail());
+
+        // ==================== 【多收件人处理】 ====================
+        // 使用正则分割：分号(;)、逗号(,)、中文逗号(，) 均可作为分隔符
+        // 这样用户输入 "a@q.com; b@q.com" 也能正常识别
+        if (to != null && !to.isEmpty()) {
+            String[] recipients = to.split("[,;，\\s]+");
+            helper.setTo(recipients);
+        }
+
+        helper.setSubject(subject);
+        helper.setText(content, true); // true 表示支持 HTML 格式
+
+        // 1) 处理用户上传的新附件
+        if (attachmentName != null && attachment != null) {
+            helper.addAttachment(attachmentName, attachment);
+        }
+
+        // 2) 回复/转发时，自动带上原邮件的附件
+        // 因为浏览器安全限制，无法自动把旧文件填入 file input，所以需要在后端根据 ID 找回旧附件
+        // 附件内容在发送前写临时文件时才按部件编号下载 (见 attachmentSource)
+        if (replyUid != null && replyFolder != null && !replyFolder.isEmpty()) {
+            EmailInfo original = getEmailDetail(user, replyFolder, replyUid);
+            if (original != null) {
+                for (AttachmentInfo att : original.getAttachments()) {
+                    helper.addAttachment(att.getName(), attachmentSource(user, replyFolder, replyUid, att.getSection()),
+                            att.getContentType());
                 }
             }
+        }
+        return message;
+    }
 
-            // 执行发送 (SMTP 协议)
-            sender.send(message);
-            // 发送成功后，手动保存副本到“已发送”文件夹 (因为 SMTP 协议只负责发，不负责存)
-            saveToSentFolder(user, message);
+    /**
+     * 转发邮件 (同步发送)
+     */
+    public void forwardMail(UserAccount user, String folder, Long originalUid, String targetEmail, String userComment) {
+        try {
+            deliver(user, buildForward(user, folder, originalUid, targetEmail, userComment));
         } catch (Exception e) {
             e.printStackTrace();
-            throw new RuntimeException("发送失败：" + e.getMessage());
+            throw new RuntimeException("转发失败: " + e.getMessage());
         }
     }
 
     /**
-     * 转发邮件
+     * 组装一封转发邮件 (不发送)
      * 自动构建引用格式的 HTML 正文
      */
-    public void forwardMail(UserAccount user, String folder, Long originalUid, String targetEmail, String userComment) {
+    public jakarta.mail.internet.MimeMessage buildForward(UserAccount user, String folder, Long originalUid,
+                                                          String targetEmail, String userComment) throws Exception {
+        EmailInfo original = getEmailDetail(user, folder, originalUid);
+        if (original == null)
+            throw new MessagingException("原邮件加载失败");
+
+        String subject = "Fwd: " + original.getTitle();
+
+        // 构建 HTML 内容
+        StringBuilder contentBuilder = new StringBuilder();
+        // 1. 用户的留言 (放在最上面)
+        if (userComment != null && !userComment.isEmpty()) {
+            contentBuilder.append("<div style='margin-bottom: 20px; font-size: 14px;'>")
+                    .append(userComment.replace("\n", "<br>")).append("</div>");
+        }
+
+        // 2. 原始邮件引用头 (模仿 Outlook 样式)
+        String senderStr = original.getSender();
+        if (original.getAddress() != null && !original.getAddress().isEmpty())
+            senderStr += " &lt;" + original.getAddress() + "&gt;";
+        String recipientsStr = original.getRecipients();
+        if (recipientsStr != null)
+            recipientsStr = recipientsStr.replace("<", "&lt;").replace(">", "&gt;");
+
+        String quoteHeader = "<div style='background:#f2f2f2; padding:10px; font-size:12px; color:#333; line-height:1.6; border-radius:5px;'>"
+                +
+                "<div>------------------ 原始邮件 ------------------</div>" +
+                "<div><b>发件人:</b> " + senderStr + "</div>" +
+                "<div><b>发送时间:</b> " + original.getSendDate() + "</div>" +
+                "<div><b>收件人:</b> " + (recipientsStr != null ? recipientsStr : "") + "</div>" +
+                "<div><b>主题:</b> " + original.getTitle() + "</div>" +
+                "</div><br>";
+
+        contentBuilder.append(quoteHeader);
+        contentBuilder.append(original.getContent()); // 原邮件正文
+
+        jakarta.mail.internet.MimeMessage message = smtpConnectionPool.createMimeMessage(user);
+        org.springframework.mail.javamail.MimeMessageHelper helper = new org.springframework.mail.javamail.MimeMessageHelper(
+                message, true, "UTF-8");
+        helper.setFrom(user.getEmail());
+        helper.setTo(targetEmail);
+        helper.setSubject(subject);
+        helper.setText(contentBuilder.toString(), true);
+
+        // 添加原附件 (发送时才下载)
+        for (AttachmentInfo att : original.getAttachments()) {
+            helper.addAttachment(att.getName(), attachmentSource(user, folder, originalUid, att.getSection()),
+                    att.getContentType());
+        }
+        return message;
+    }
+
+    /**
+     * 发送一封组装好的邮件 (SMTP)，成功后保存副本到“已发送”
+     * SMTP 失败时抛出异常；保存副本失败不影响发送结果。
+     * * 💡 只编码一次：
+     * 组装好的 MimeMessage 每次 writeTo 都要重新把附件做一遍 base64，SMTP 发一次、APPEND 又一次。
+     * 这里先把它写进 SPOOL_PATH 下的临时文件，再用 SharedFileInputStream 把文件解析成一封新的 MimeMessage：
+     * 解析出来的邮件没有被修改过，writeTo 时直接按原样拷贝文件里的字节，
+     * SMTP DATA 和 IMAP APPEND 都从这个文件读，附件只编码一次，也不会整封放在内存里。
+     */
+    public void deliver(UserAccount user, jakarta.mail.internet.MimeMessage message) throws Exception {
+        // 补上发送时间，生成 Message-ID、Content-Transfer-Encoding 等头 (之后就不能再改邮件了)
+        if (message.getSentDate() == null) message.setSentDate(new Date());
+        message.saveChanges();
+
+        File dir = new File(SPOOL_PATH);
+        if (!dir.exists()) dir.mkdirs();
+        File spool = File.createTempFile("out-", ".eml", dir);
+        SharedFileInputStream in = null;
         try {
-            EmailInfo original = getEmailDetail(user, folder, originalUid);
-            if (original == null)
-                throw new RuntimeException("原邮件加载失败");
-
-            String subject = "Fwd: " + original.getTitle();
-
-            // 构建 HTML 内容
-            StringBuilder contentBuilder = new StringBuilder();
-            // 1. 用户的留言 (放在最上面)
-            if (userComment != null && !userComment.isEmpty()) {
-                contentBuilder.append("<div style='margin-bottom: 20px; font-size: 14px;'>")
-                        .append(userComment.replace("\n", "<br>")).append("</div>");
-            }
-
-            // 2. 原始邮件引用头 (模仿 Outlook 样式)
-            String senderStr = original.getSender();
-            if (original.getAddress() != null && !original.getAddress().isEmpty())
-                senderStr += " &lt;" + original.getAddress() + "&gt;";
-            String recipientsStr = original.getRecipients();
-            if (recipientsStr != null)
-                recipientsStr = recipientsStr.replace("<", "&lt;").replace(">", "&gt;");
-
-            String quoteHeader = "<div style='background:#f2f2f2; padding:10px; font-size:12px; color:#333; line-height:1.6; border-radius:5px;'>"
-                    +
-                    "<div>------------------ 原始邮件 ------------------</div>" +
-                    "<div><b>发件人:</b> " + senderStr + "</div>" +
-                    "<div><b>发送时间:</b> " + original.getSendDate() + "</div>" +
-                    "<div><b>收件人:</b> " + (recipientsStr != null ? recipientsStr : "") + "</div>" +
-                    "<div><b>主题:</b> " + original.getTitle() + "</div>" +
-                    "</div><br>";
-
-            contentBuilder.append(quoteHeader);
-            contentBuilder.append(original.getContent()); // 原邮件正文
-
-            // 创建发送器
-            JavaMailSenderImpl sender = createSender(user);
-            jakarta.mail.internet.MimeMessage message = sender.createMimeMessage();
-            org.springframework.mail.javamail.MimeMessageHelper helper = new org.springframework.mail.javamail.MimeMessageHelper(
-                    message, true, "UTF-8");
-            helper.setFrom(user.getEmail());
-            helper.setTo(targetEmail);
-            helper.setSubject(subject);
-            helper.setText(contentBuilder.toString(), true);
-
-            // 添加原附件
-            List<String> filenames = original.getFilenames();
-            if (filenames != null && !filenames.isEmpty()) {
-                for (String filename : filenames) {
-                    File file = new File(SAVE_PATH + filename);
-                    if (file.exists())
-                        helper.addAttachment(filename, file);
+            try (java.io.OutputStream out = new java.io.BufferedOutputStream(new java.io.FileOutputStream(spool))) {
+                message.writeTo(out);
+            }
+            in = new SharedFileInputStream(spool);
+            jakarta.mail.internet.MimeMessage spooled = new jakarta.mail.internet.MimeMessage(
+                    smtpConnectionPool.getSession(user), in);
+
+            // 执行发送 (SMTP 协议)，复用连接池里已经登录好的连接
+            smtpConnectionPool.send(user, spooled);
+            // 发送成功后，手动保存副本到“已发送”文件夹 (因为 SMTP 协议只负责发，不负责存)
+            saveToSentFolder(user, spooled);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (Exception e) {
                 }
             }
-            sender.send(message);
-            saveToSentFolder(user, message);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("转发失败: " + e.getMessage());
+            spool.delete();
         }
     }
 
@@ -668,19 +1588,15 @@ public class MailService {
         Store store = null;
         Folder sentFolder = null;
         try {
+            // 备选名称 ("Sent Messages" 等) 由 FolderRoleResolver 按 LIST 结果挑好，不再逐个 exists() 试探
+            String sentName = getCorrectFolderName(user, "已发送");
+            if (!folderRoleResolver.exists(user, sentName)) return;
+
             store = getImapStore(user);
-            String sentName = getCorrectFolderName(user.getType(), "已发送");
             sentFolder = store.getFolder(sentName);
-
-            // 如果没找到，尝试 fallback 到标准名称
-            if (!sentFolder.exists())
-                sentFolder = store.getFolder("Sent Messages");
-
-            if (sentFolder.exists()) {
-                sentFolder.open(Folder.READ_WRITE);
-                message.setFlag(Flags.Flag.SEEN, true); // 标记为已读
-                sentFolder.appendMessages(new Message[] { message }); // IMAP 命令：追加到文件夹
-            }
+            // APPEND 不要求文件夹处于打开状态，不需要再 SELECT 一次
+            message.setFlag(Flags.Flag.SEEN, true); // 标记为已读
+            sentFolder.appendMessages(new Message[] { message }); // IMAP 命令：追加到文件夹
         } catch (Exception e) {
             // 保存副本失败不影响发送成功，所以这里吞掉异常
         } finally {
@@ -693,74 +1609,26 @@ public class MailService {
      * 【文件夹名称映射核心】
      * 解决不同邮件服务商对系统文件夹命名不一致的问题。
      * QQ 使用英文 ("Sent Messages"), 163 使用中文 ("已发送")。
+     * 具体的解析 (SPECIAL-USE 标记 + 名称表兜底) 见 FolderRoleResolver。
+     * ⚠️ 第一次调用可能要借连接做 LIST，所以要在 getImapStore 之前调用。
      */
-    private String getCorrectFolderName(String mailType, String uiFolderName) {
-        // 1. 收件箱：所有邮箱统一叫 INBOX
-        if ("收件箱".equals(uiFolderName)) {
-            return "INBOX";
-        }
-
-        // 2. QQ 邮箱映射
-        if ("qq".equals(mailType)) {
-            if ("已发送".equals(uiFolderName)) return "Sent Messages";
-            if ("已删除".equals(uiFolderName)) return "Deleted Messages";
-            if ("草稿箱".equals(uiFolderName)) return "Drafts";
-            if ("垃圾箱".equals(uiFolderName)) return "Junk";
-        }
-
-        // 3. 163 邮箱映射
-        if ("163".equals(mailType)) {
-            if ("已发送".equals(uiFolderName)) return "已发送";
-            if ("已删除".equals(uiFolderName)) return "已删除";
-            if ("草稿箱".equals(uiFolderName)) return "草稿箱";
-            if ("垃圾箱".equals(uiFolderName)) return "垃圾邮件";
-        }
-
-        // 4. HUST (Coremail 系统)
-        if ("hust".equals(mailType)) {
-            if ("已发送".equals(uiFolderName)) return "Sent Items"; // Coremail 常见英文名
-            if ("已删除".equals(uiFolderName)) return "Trash";
-            if ("草稿箱".equals(uiFolderName)) return "Drafts";
-            if ("垃圾箱".equals(uiFolderName)) return "Junk E-mail";
-        }
-
-        // 4. 其他情况返回原名，假设用户建立的自定义文件夹
-        return uiFolderName;
-    }
-
-    /**
-     * 创建 SMTP 发送器
-     */
-    private JavaMailSenderImpl createSender(UserAccount user) {
-        JavaMailSenderImpl sender = new JavaMailSenderImpl();
-        sender.setHost(user.getSmtpHost());
-        sender.setPort(user.getSmtpPort()); // 通常是 465
-        sender.setUsername(user.getEmail());
-        sender.setPassword(user.getPassword());
-        sender.setDefaultEncoding("UTF-8");
-
-        Properties props = sender.getJavaMailProperties();
-        props.put("mail.transport.protocol", "smtp");
-        props.put("mail.smtp.auth", "true");
-        props.put("mail.smtp.ssl.trust", "*");
-
-        // 【修复】163、QQ 和 HUST 使用 465 端口时，都必须开启 SSL 才能连接
-        if ("qq".equals(user.getType()) || "163".equals(user.getType()) || "hust".equals(user.getType())) {
-            props.put("mail.smtp.ssl.enable", "true");
-        }
-        return sender;
+    private String getCorrectFolderName(UserAccount user, String uiFolderName) {
+        return folderRoleResolver.resolve(user, uiFolderName);
     }
 
-
-
     /**
      * 【复杂逻辑】递归解析邮件内容（增强健壮性版）
      * 邮件结构像树一样（MIME树），需要递归遍历。
      * 1. 智能处理 multipart/alternative，优先取 HTML，避免正文重复。
      * 2. 纯文本转 HTML，解决换行丢失问题。
      * 3. 附件文件名清理，防止路径注入。
+     * 4. 附件只记下 BODYSTRUCTURE 里的信息 (名字、大小、类型、部件编号)，不读取内容。
+     * 对 IMAPMessage 来说，判断类型、取文件名都只看 BODYSTRUCTURE，只有 getContent 的正文部分会发 BODY.PEEK[section]。
+     *
+     * @param section 当前部件的 IMAP 编号，整封邮件是 ""，multipart 的第 i 个子部件是 "父编号.i"
      */
-    private void parseMessage(Part part, StringBuilder bodyText, List<String> attachments) throws Exception {
+    private void parseMessage(Part part, String section, StringBuilder bodyText, List<AttachmentInfo> attachments)
+            throws Exception {
         // Case 1. 处理纯文本：将换行符转换为 HTML 样式
         if (part.isMimeType("text/plain")) {
             String txt = part.getContent().toString();
@@ -781,39 +1649,37 @@ public class MailService {
             // --- 核心修复：针对 multipart/alternative (多重选择) 的特殊处理 ---
             // 这种类型通常同时包含纯文本版和HTML版，我们只取一个，否则显示会重复
             if (part.isMimeType("multipart/alternative")) {
-                Part bestPart = null;
+                int best = -1;
                 // 策略：优先找 HTML
                 for (int i = 0; i < multipart.getCount(); i++) {
-                    Part p = multipart.getBodyPart(i);
-                    if (p.isMimeType("text/html")) {
-                        bestPart = p;
+                    if (multipart.getBodyPart(i).isMimeType("text/html")) {
+                        best = i;
                         break;
                     }
                 }
                 // 如果没找到 HTML，再找纯文本
-                if (bestPart == null) {
+                if (best < 0) {
                     for (int i = 0; i < multipart.getCount(); i++) {
-                        Part p = multipart.getBodyPart(i);
-                        if (p.isMimeType("text/plain")) {
-                            bestPart = p;
+                        if (multipart.getBodyPart(i).isMimeType("text/plain")) {
+                            best = i;
                             break;
                         }
                     }
                 }
 
-                // 如果找到了最佳部分，只解析这一个！
-                if (bestPart != null) {
-                    parseMessage(bestPart, bodyText, attachments);
+                // 如果找到了最佳部分，只解析这一个！(另一个版本不会被下载)
+                if (best >= 0) {
+                    parseMessage(multipart.getBodyPart(best), childSection(section, best), bodyText, attachments);
                 } else {
                     // 极端情况：都没有，那就按默认逻辑全部遍历
                     for (int i = 0; i < multipart.getCount(); i++) {
-                        parseMessage(multipart.getBodyPart(i), bodyText, attachments);
+                        parseMessage(multipart.getBodyPart(i), childSection(section, i), bodyText, attachments);
                     }
                 }
             } else {
                 // --- 对于 multipart/mixed (包含附件)，递归遍历所有部分 ---
                 for (int i = 0; i < multipart.getCount(); i++) {
-                    parseMessage(multipart.getBodyPart(i), bodyText, attachments);
+                    parseMessage(multipart.getBodyPart(i), childSection(section, i), bodyText, attachments);
                 }
             }
         }
@@ -830,20 +1696,70 @@ public class MailService {
                 fileName = fileName.substring(lastIndex + 1);
             }
 
-            File saveDir = new File(SAVE_PATH);
-            if (!saveDir.exists()) saveDir.mkdirs();
+            // 不下载附件内容，只记下部件编号，用户点下载 / 预览时再取
+            attachments.add(new AttachmentInfo(fileName, baseType(part), decodedSize(part),
+                    section.isEmpty() ? "1" : section));
+        }
+    }
+
+    /**
+     * multipart 里第 index 个子部件的 IMAP 编号 (从 1 开始)
+     */
+    private static String childSection(String section, int index) {
+        return section.isEmpty() ? String.valueOf(index + 1) : section + "." + (index + 1);
+    }
+
+    /**
+     * 按 IMAP 部件编号找到对应的部件，编号规则和 parseMessage 一致；找不到时返回 null
+     * 单部件邮件 (不是 multipart) 的正文编号是 "1"，即邮件本身。
+     */
+    private Part findPart(Part root, String section) throws Exception {
+        Part part = root;
+        for (String index : section.split("\\.")) {
+            if (!part.isMimeType("multipart/*")) {
+                if (part == root && "1".equals(index)) continue;
+                return null;
+            }
+            Multipart multipart = (Multipart) part.getContent();
+            int i = Integer.parseInt(index) - 1;
+            if (i < 0 || i >= multipart.getCount()) return null;
+            part = multipart.getBodyPart(i);
+        }
+        return part;
+    }
+
+    /**
+     * 部件的 MIME 类型 (去掉 name、charset 等参数)
+     */
+    private static String baseType(Part part) {
+        try {
+            return new ContentType(part.getContentType()).getBaseType().toLowerCase();
+        } catch (Exception e) {
+            return "application/octet-stream";
+        }
+    }
 
-            try (InputStream is = part.getInputStream()) {
-                // 保存文件到硬盘
-                Files.copy(is, new File(SAVE_PATH + fileName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * 估算附件解码后的大小
+     * BODYSTRUCTURE 给出的是传输编码后的大小；base64 每 76 个字符 + 换行 (78 字节) 对应 57 字节原始数据。
+     */
+    private static long decodedSize(Part part) {
+        try {
+            long size = part.getSize();
+            if (size < 0) return -1;
+            if (part instanceof MimePart && "base64".equalsIgnoreCase(((MimePart) part).getEncoding())) {
+                return size * 57 / 78;
             }
-            attachments.add(fileName); // 将文件名加入列表返回给前端
+            return size;
+        } catch (Exception e) {
+            return -1;
         }
     }
 
     /**
      * 安静地关闭资源，吞掉异常
      * 防止连接泄露导致服务器崩溃
+     * 注意：Store 不再真正断开，而是归还给连接池，留给下一个请求复用
      */
     private void closeQuietly(Folder folder, Store store) {
         try {
@@ -851,11 +1767,7 @@ public class MailService {
                 folder.close(false); // false 表示不执行 EXPUNGE (物理删除)
         } catch (Exception e) {
         }
-        try {
-            if (store != null)
-                store.close();
-        } catch (Exception e) {
-        }
+        imapConnectionPool.release(store);
     }
 
     /**
@@ -878,6 +1790,7 @@ public class MailService {
             if (!success) {
                 throw new RuntimeException("创建文件夹失败");
             }
+            folderRoleResolver.invalidate(user.getEmail());
         } finally {
             closeQuietly(null, store);
         }
@@ -896,11 +1809,16 @@ public class MailService {
         Store store = null;
         try {
             store = getImapStore(user);
+            // 正处于打开状态的文件夹删不掉，先把所有连接上缓存的会话关掉 (包括池里其它空闲连接)
+            imapConnectionPool.closeFolder(user.getEmail(), folderName);
+            imapConnectionPool.closeFolder(store, folderName);
             Folder folder = store.getFolder(folderName);
 
             if (folder.exists()) {
                 // true 表示递归删除 (如果里面有邮件也一并删除)
                 folder.delete(true);
+                folderRoleResolver.invalidate(user.getEmail());
+                mailCache.invalidateFolder(user.getEmail(), folderName);
             } else {
                 throw new RuntimeException("文件夹不存在");
             }
@@ -910,42 +1828,202 @@ public class MailService {
     }
 
     /**
-     * 移动邮件 (复制 + 删除)
+     * 移动邮件 (支持批量)
+     */
+    public void moveMessage(UserAccount user, String fromFolder, String toFolder, Collection<Long> uids)
+            throws Exception {
+        String realSource = getCorrectFolderName(user, fromFolder);
+        String realTarget = getCorrectFolderName(user, toFolder);
+        // 目标文件夹只需要存在即可，MOVE/COPY 命令不要求它处于打开状态
+        if (!folderRoleResolver.exists(user, realTarget)) {
+            throw new RuntimeException("目标文件夹不存在");
+        }
+        transferUids(user, realSource, realTarget, uids, false);
+    }
+
+    /**
+     * 【批量移动/删除】不管多少封邮件，都只发一到三条命令
+     * 1. 服务器支持 MOVE (RFC 6851)：UID MOVE 1:5,8 "目标"，一步完成；
+     * 2. 否则：UID COPY 到目标 -> UID STORE +FLAGS.SILENT (\Deleted) -> 清除；
+     * 3. 清除时服务器支持 UIDPLUS (RFC 4315) 就用 UID EXPUNGE，只清除我们这一批；
+     * 不支持的话普通 EXPUNGE 会把别的客户端标了 \Deleted 但还没清除的邮件也一起删掉，
+     * 所以先把它们的 \Deleted 临时去掉，EXPUNGE 之后再标回去 (见 expungeOnly)。
+     * 移动失败 (服务器拒绝复制) 时：force 为 true 仍然删除原邮件 (删除到垃圾箱的语义)，否则抛异常。
+     * 已经不存在的 UID 会被服务器直接忽略，所以同一批操作重复执行是安全的 (MailOperationService 重试时依赖这一点)。
+     *
+     * @param targetRealName 目标文件夹的真实名称，null 表示不复制，直接删除
      */
-    public void moveMessage(UserAccount user, String fromFolder, String toFolder, long uid) throws Exception {
+    public void transferUids(UserAccount user, String sourceRealName, String targetRealName,
+                             Collection<Long> uids, boolean force) throws Exception {
+        if (uids.isEmpty()) return;
+        String uidSet = UidSetUtil.toUidSet(uids);
+
         Store store = null;
-        Folder source = null;
-        Folder target = null;
         try {
-            store = getImapStore(user);
+            store = getImapStore(user, sourceRealName);
+            // 需要写权限来打删除标记
+            FolderSession session = openFolderSession(user, store, sourceRealName, Folder.READ_WRITE);
+            if (session == null) {
+                throw new RuntimeException("源文件夹不存在: " + sourceRealName);
+            }
+            IMAPFolder folder = (IMAPFolder) session.getFolder();
+
+            boolean moved = false;
+            if (targetRealName != null && ImapConnectionPool.hasCapability(folder, "MOVE")) {
+                try {
+                    runUidCommand(folder, "UID MOVE", uidSet, targetRealName);
+                    moved = true;
+                } catch (MessagingException e) {
+                    System.err.println("⚠️ UID MOVE 失败，改用 COPY + 删除: " + e.getMessage());
+                }
+            }
+
+            if (!moved) {
+                if (targetRealName != null) {
+                    try {
+                        runUidCommand(folder, "UID COPY", uidSet, targetRealName);
+                    } catch (MessagingException e) {
+                        if (!force) throw e;
+                        // 很多时候服务器只是拒绝复制，但用户点的是删除，原邮件仍然要删掉
+                        System.err.println("⚠️ 警告：无法移动到垃圾箱 (将执行强制删除): " + e.getMessage());
+                    }
+                }
+                runUidCommand(folder, "UID STORE", uidSet, null);
+                if (ImapConnectionPool.hasCapability(folder, "UIDPLUS")) {
+                    runUidCommand(folder, "UID EXPUNGE", uidSet, null);
+                } else {
+                    expungeOnly(folder, uids);
+                }
+            }
+            // 之后的邮件序号会整体前移，缓存的 UID -> 序号 映射作废
+            session.invalidate();
+        } finally {
+            closeQuietly(null, store);
+        }
 
-            // 打开源文件夹
-            String realSource = getCorrectFolderName(user.getType(), fromFolder);
-            source = store.getFolder(realSource);
-            source.open(Folder.READ_WRITE);
+        // 同步本地缓存
+        String account = user.getEmail();
+        for (Long uid : uids) {
+            mailCache.removeDetail(account, sourceRealName, uid);
+        }
+        mailCache.invalidateFolder(account, sourceRealName);
+        if (targetRealName != null) mailCache.invalidateFolder(account, targetRealName);
+        synchronized (headerCacheService.lockFor(account, sourceRealName)) {
+            headerCacheService.removeUids(account, sourceRealName, uids);
+        }
+        // 去掉源文件夹里这些邮件的附件引用；计数降到 0 的内容会被 gc 删除，移动后的邮件再打开时重新下载
+        attachmentStore.release(account, sourceRealName, uids);
+        rawMessageStore.remove(account, sourceRealName, uids);
+    }
 
-            // 打开目标文件夹
-            String realTarget = getCorrectFolderName(user.getType(), toFolder);
-            target = store.getFolder(realTarget);
-            if (!target.exists()) {
-                throw new RuntimeException("目标文件夹不存在");
+    /**
+     * 发出一条按 UID 集合操作的命令：
+     * UID MOVE / UID COPY 带目标文件夹，UID STORE 固定是加 \Deleted 标记，UID EXPUNGE 只带 UID 集合
+     */
+    private void runUidCommand(IMAPFolder folder, String command, String uidSet, String mailbox)
+            throws MessagingException {
+        folder.doCommand(p -> {
+            Argument args = new Argument();
+            args.writeAtom(uidSet);
+            if (mailbox != null) MailboxNameUtil.writeMailboxName(args, p, mailbox);
+            if ("UID STORE".equals(command)) {
+                args.writeAtom("+FLAGS.SILENT");
+                args.writeAtom("(\\Deleted)");
             }
-            target.open(Folder.READ_WRITE);
+            Response[] r = p.command(command, args);
+            // 响应里的 EXPUNGE / VANISHED 交给文件夹处理，FolderSession 会收到通知
+            p.notifyResponseHandlers(r);
+            p.handleResult(r[r.length - 1]);
+            return null;
+        });
+    }
+
+    /**
+     * 服务器不支持 UIDPLUS 时，只清除指定的邮件
+     * 1. 找出文件夹里已经标了 \Deleted、但不在这一批里的邮件 (别的客户端标的)；
+     * 2. 临时去掉它们的 \Deleted，EXPUNGE，再标回去。
+     * 两步之间别的客户端恰好又改了这些邮件的状态的话会被覆盖，这是没有 UIDPLUS 时能做到的最好结果。
+     */
+    private void expungeOnly(IMAPFolder folder, Collection<Long> uids) throws MessagingException {
+        // 一条 UID SEARCH DELETED 拿到全部 UID，不用逐封再问 UID
+        Set<Long> ours = new HashSet<>(uids);
+        List<Long> others = new ArrayList<>();
+        for (long uid : uidSearch(folder, "DELETED")) {
+            if (!ours.contains(uid)) others.add(uid);
+        }
+        if (others.isEmpty()) {
+            folder.expunge();
+            return;
+        }
+
+        // 去掉、标回都只发一条 UID STORE
+        String protectedSet = UidSetUtil.toUidSet(others);
+        storeDeleted(folder, protectedSet, false);
+        try {
+            folder.expunge();
+        } finally {
+            storeDeleted(folder, protectedSet, true);
+        }
+    }
+
+    /**
+     * UID STORE <uidSet> +FLAGS.SILENT (\Deleted) 或 -FLAGS.SILENT (\Deleted)
+     */
+    private void storeDeleted(IMAPFolder folder, String uidSet, boolean value) throws MessagingException {
+        folder.doCommand(p -> {
+            Response[] r = p.command("UID STORE " + uidSet + (value ? " +" : " -") + "FLAGS.SILENT (\\Deleted)", null);
+            p.notifyResponseHandlers(r);
+            p.handleResult(r[r.length - 1]);
+            return null;
+        });
+    }
+
+    /**
+     * 【批量标记】已读 / 未读 / 星标 / 取消星标
+     * 不管选了多少封，都只发一条命令：UID STORE 1:5,8,10 +FLAGS.SILENT (\Seen)
+     * 连续的 UID 会被压缩成区间；.SILENT 让服务器不再逐封回显新状态。
+     *
+     * @param flag  Flags.Flag.SEEN 或 Flags.Flag.FLAGGED
+     * @param value true 加上标记，false 去掉标记
+     */
+    public void setFlags(UserAccount user, String folderName, Collection<Long> uids, Flags.Flag flag, boolean value)
+            throws Exception {
+        storeFlags(user, getCorrectFolderName(user, folderName), uids, flag, value);
+    }
 
-            UIDFolder uidSource = (UIDFolder) source;
-            Message msg = uidSource.getMessageByUID(uid);
+    /**
+     * 同上，文件夹用服务器上的真实名称 (MailOperationService 后台同步时调用)
+     */
+    public void storeFlags(UserAccount user, String realFolder, Collection<Long> uids, Flags.Flag flag, boolean value)
+            throws Exception {
+        if (uids.isEmpty()) return;
+        String flagName = (flag == Flags.Flag.SEEN) ? "\\Seen" : "\\Flagged";
+        String uidSet = UidSetUtil.toUidSet(uids);
 
-            if (msg != null) {
-                // 1. 复制到新文件夹
-                source.copyMessages(new Message[]{msg}, target);
-                // 2. 在旧文件夹标记删除
-                msg.setFlag(Flags.Flag.DELETED, true);
-                // 3. 物理清除 (部分邮箱服务器需要这一步才能真正移走)
-                source.expunge();
+        Store store = null;
+        try {
+            store = getImapStore(user, realFolder);
+            FolderSession session = openFolderSession(user, store, realFolder, Folder.READ_WRITE);
+            if (session == null) {
+                throw new RuntimeException("文件夹不存在");
             }
+            IMAPFolder folder = (IMAPFolder) session.getFolder();
+            folder.doCommand(p -> {
+                Response[] r = p.command("UID STORE " + uidSet + (value ? " +" : " -")
+                        + "FLAGS.SILENT (" + flagName + ")", null);
+                p.notifyResponseHandlers(r);
+                p.handleResult(r[r.length - 1]);
+                return null;
+            });
         } finally {
-            closeQuietly(target, null);
-            closeQuietly(source, store);
+            closeQuietly(null, store);
+        }
+
+        // 同步本地缓存 (只改这一个标记，另一个保持原样)
+        String account = user.getEmail();
+        mailCache.invalidateFolder(account, realFolder);
+        synchronized (headerCacheService.lockFor(account, realFolder)) {
+            headerCacheService.setFlag(account, realFolder, uids, flag, value);
         }
     }
 
@@ -953,37 +2031,38 @@ public class MailService {
 
     /**
      * 【通用 IMAP 连接器】
-     * 统一处理了 SSL、端口、Trust 设置，最重要的是统一处理了 163 的 IMAP ID 验证
+     * 从连接池借出该账号的 IMAP 连接。
+     * SSL、端口、Trust 设置以及 163 的 IMAP ID 验证都统一在 ImapConnectionPool 里处理，
+     * 借出的连接必须通过 closeQuietly 归还。
      */
     private Store getImapStore(UserAccount user) throws Exception {
-        Properties props = new Properties();
-        props.put("mail.store.protocol", "imap");
-        props.put("mail.imap.host", user.getImapHost());
-        props.put("mail.imap.port", "993");
-        props.put("mail.imap.ssl.enable", "true");
-        props.put("mail.imap.partialfetch", "false"); // 关闭部分抓取，防乱码
-        props.put("mail.imap.ssl.trust", "*"); // 信任所有证书，防握手失败
-
-        Session session = Session.getInstance(props);
-        Store store = session.getStore("imap");
-        store.connect(user.getImapHost(), user.getEmail(), user.getPassword());
-
-        // --- 核心：统一发送 IMAP ID (解决 163 报错 "Unsafe Login" 问题) ---
-        // 163 邮箱强制要求客户端发送 ID 信息，否则会拒绝部分操作
-        if (store instanceof IMAPStore) {
-            IMAPStore imapStore = (IMAPStore) store;
-            Map<String, String> idMap = new HashMap<>();
-            idMap.put("name", "my-email-client");
-            idMap.put("version", "1.0.0");
-            idMap.put("vendor", "my-company");
-            idMap.put("support-email", "test@test.com");
-            try {
-                imapStore.id(idMap);
-            } catch (Exception e) {
-                // 忽略非关键错误
-            }
+        return imapConnectionPool.borrow(user);
+    }
+
+    /**
+     * 借出连接，并优先挑选已经打开了 realFolder 的那条连接
+     */
+    private Store getImapStore(UserAccount user, String realFolder) throws Exception {
+        return imapConnectionPool.borrow(user, realFolder);
+    }
+
+    /**
+     * 通过连接池打开文件夹 (带缓存)，文件夹不存在时返回 null 而不是抛异常
+     * 返回的 FolderSession 由连接池负责关闭，调用方不要自己 close。
+     * 本地缓存里有这个文件夹的同步书签时，把它交给连接池用于 QRESYNC 方式打开 (见 syncChanges)。
+     */
+    private FolderSession openFolderSession(UserAccount user, Store store, String realFolder, int mode)
+            throws MessagingException {
+        Supplier<ResyncData> resync = () -> {
+            FolderSyncState state = headerCacheService.getState(user.getEmail(), realFolder);
+            if (state.getUidValidity() == null || state.getHighestModSeq() == null) return null;
+            return new ResyncData(state.getUidValidity(), state.getHighestModSeq());
+        };
+        try {
+            return imapConnectionPool.openFolder(store, realFolder, mode, resync);
+        } catch (FolderNotFoundException e) {
+            return null;
         }
-        return store;
     }
 
     /**
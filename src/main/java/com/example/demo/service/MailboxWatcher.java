@@ -0,0 +1,295 @@
+package com.example.demo.service;
+
+import com.example.demo.model.EmailInfo;
+import com.example.demo.model.UserAccount;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.*;
+import jakarta.mail.event.MessageCountAdapter;
+import jakarta.mail.event.MessageCountEvent;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 新邮件推送监听 (Mailbox Watcher)
+ * 作用：每个已登录的邮箱账号在后台挂一条 IMAP 长连接，服务器一有变化就立刻知道，不用等用户刷新页面。
+ * * 💡 IMAP IDLE (RFC 2177)：
+ * 客户端发出 IDLE 之后，服务器会在邮箱变化时主动推送：
+ * * EXISTS  -> 来了新邮件 (messagesAdded)
+ * * EXPUNGE -> 邮件被删除 (messagesRemoved)
+ * * FETCH   -> 已读/星标等状态变了 (messageChanged)
+ * 不支持 IDLE 的服务器，每隔 POLL_INTERVAL_MS 发一次 NOOP，服务器会在 NOOP 的响应里顺带告诉我们这些变化。
+ * * 收到变化后：
+ * 1. 新邮件的信封直接写进本地信封缓存，删除的 UID 从缓存里删掉，状态变化同步到缓存
+ * (MailService#applyPushedMessages / applyPushedExpunge / applyPushedFlags)；
+ * 2. 清掉这个文件夹的列表页缓存，并把最新的 UIDVALIDITY / 邮件总数记到 MailCache，
+ * 列表页请求凭它就能判断缓存是否可用，不用再连服务器；
+ * 3. 通过 MailEventBroadcaster 推送给打开着页面的浏览器 (事件名 new / removed / flags)，列表原地更新。
+ * * ⚠️ 注意：
+ * 1. IDLE 一次只能盯一个文件夹，这里只监听收件箱；
+ * 2. 监听连接一直被占着，所以不从连接池借，而是单独建立 (ImapConnectionPool#connectDedicated)，但仍占账号的一个连接名额；
+ * 3. 同一个账号被多个浏览器会话登录时只建一条监听连接，最后一个会话结束 (退出/过期/切换账号) 时关闭，
+ * 由 MailboxSessionListener 负责通知。
+ */
+@Component
+public class MailboxWatcher {
+
+    // 只监听收件箱
+    private static final String WATCHED_FOLDER = "INBOX";
+    // IDLE 续期间隔：RFC 2177 要求 29 分钟内重新发 IDLE，很多服务器和 NAT 路由器更早就会断开空闲连接，这里取 9 分钟
+    private static final long IDLE_RENEW_MS = 9 * 60_000;
+    // 监听连接的读超时，必须比续期间隔长，否则 IDLE 等待期间会被当成超时
+    private static final long READ_TIMEOUT_MS = IDLE_RENEW_MS + 60_000;
+    // 服务器不支持 IDLE 时的轮询间隔
+    private static final long POLL_INTERVAL_MS = 30_000;
+    // 断线重连的等待时间：每失败一次翻一倍，最多等 MAX_RECONNECT_DELAY_MS
+    private static final long RECONNECT_DELAY_MS = 15_000;
+    private static final long MAX_RECONNECT_DELAY_MS = 5 * 60_000;
+    // 收件箱不超过这么多封时，连接后先取一遍所有邮件的 UID (数据量很小)，之后的 EXPUNGE 都能知道删的是哪封
+    private static final int UID_PRELOAD_LIMIT = 5000;
+
+    @Autowired
+    private MailService mailService;
+    @Autowired
+    private MailCache mailCache;
+    @Autowired
+    private ImapConnectionPool imapConnectionPool;
+    @Autowired
+    private MailEventBroadcaster mailEventBroadcaster;
+
+    // 邮箱地址 -> 监听任务
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+
+    // 续期定时器：到点给 IDLE 中的文件夹发一个 NOOP 打断 IDLE，监听线程随后会重新发 IDLE
+    // 关闭监听连接也放在这里做，不占用 Web 请求线程
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "mail-idle-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * 浏览器会话激活了某个邮箱账号 (登录、切换账号)
+     */
+    public void register(String sessionId, UserAccount user) {
+        watches.compute(user.getEmail(), (email, watch) -> {
+            if (watch == null || !watch.running) {
+                watch = new Watch(user);
+                watch.start();
+            }
+            watch.sessionIds.add(sessionId);
+            return watch;
+        });
+    }
+
+    /**
+     * 浏览器会话不再使用邮箱账号 (退出、过期、切换到别的账号)
+     * 某个账号没有会话在用了，就关掉它的监听连接。
+     */
+    public void unregister(String sessionId) {
+        for (String email : watches.keySet()) {
+            watches.computeIfPresent(email, (k, watch) -> {
+                watch.sessionIds.remove(sessionId);
+                if (!watch.sessionIds.isEmpty()) return watch;
+                watch.stop();
+                return null;
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watches.values().forEach(Watch::stop);
+        watches.clear();
+        timer.shutdownNow();
+    }
+
+    /**
+     * 单个账号的监听任务 (一个后台线程 + 一条独占连接)
+     */
+    private class Watch implements Runnable {
+        final UserAccount user;
+        final Set<String> sessionIds = ConcurrentHashMap.newKeySet();
+        volatile boolean running = true;
+        volatile Store store;
+        volatile IMAPFolder folder;
+        ScheduledFuture<?> renewTask;
+
+        Watch(UserAccount user) {
+            this.user = user;
+        }
+
+        void start() {
+            Thread t = new Thread(this, "mail-idle-" + user.getEmail());
+            t.setDaemon(true);
+            t.start();
+            renewTask = timer.scheduleWithFixedDelay(this::renew, IDLE_RENEW_MS, IDLE_RENEW_MS, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            running = false;
+            renewTask.cancel(false);
+            // 关闭连接会让阻塞在 IDLE 里的线程退出
+            timer.execute(this::disconnect);
+        }
+
+        @Override
+        public void run() {
+            long delay = RECONNECT_DELAY_MS;
+            while (running) {
+                try {
+                    IMAPFolder inbox = connect();
+                    delay = RECONNECT_DELAY_MS;
+                    boolean idleSupported = ImapConnectionPool.hasCapability(inbox, "IDLE");
+                    System.out.println("✅ 开始监听新邮件 [" + user.getEmail() + "]: " + (idleSupported ? "IDLE" : "NOOP 轮询"));
+
+                    while (running && inbox.isOpen()) {
+                        if (idleSupported) {
+                            // 阻塞在这里，直到续期的 NOOP、事件处理里的 FETCH 打断它，或者连接断开
+                            inbox.idle();
+                        } else {
+                            Thread.sleep(POLL_INTERVAL_MS);
+                            inbox.getMessageCount(); // 内部会发 NOOP
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    if (running) {
+                        System.err.println("⚠️ 新邮件监听断开 [" + user.getEmail() + "]，" + (delay / 1000)
+                                + " 秒后重连: " + e.getMessage());
+                    }
+                } finally {
+                    disconnect();
+                }
+
+                if (!running) break;
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                delay = Math.min(delay * 2, MAX_RECONNECT_DELAY_MS);
+            }
+        }
+
+        /**
+         * 建立监听连接，打开收件箱并挂上事件监听器
+         */
+        private IMAPFolder connect() throws MessagingException {
+            store = imapConnectionPool.connectDedicated(user, READ_TIMEOUT_MS);
+            IMAPFolder inbox = (IMAPFolder) store.getFolder(WATCHED_FOLDER);
+            // 只读打开：监听不应该改变任何邮件的状态
+            inbox.open(Folder.READ_ONLY);
+
+            int count = inbox.getMessageCount();
+            if (count > 0 && count <= UID_PRELOAD_LIMIT) {
+                FetchProfile fp = new FetchProfile();
+                fp.add(UIDFolder.FetchProfileItem.UID);
+                inbox.fetch(inbox.getMessages(), fp);
+            }
+
+            inbox.addMessageCountListener(new MessageCountAdapter() {
+                @Override
+                public void messagesAdded(MessageCountEvent e) {
+                    try {
+                        publishState();
+                        List<EmailInfo> headers = mailService.applyPushedMessages(user, inbox, e.getMessages());
+                        mailEventBroadcaster.publish(user.getEmail(), "new", headers);
+                    } catch (Exception ex) {
+                        System.err.println("⚠️ 处理新邮件推送失败: " + ex.getMessage());
+                    }
+                }
+
+                @Override
+                public void messagesRemoved(MessageCountEvent e) {
+                    try {
+                        // 被删除的邮件如果之前取过 UID，这里直接就能拿到；没取过的会抛 MessageRemovedException，跳过
+                        List<Long> uids = new ArrayList<>();
+                        for (Message msg : e.getMessages()) {
+                            try {
+                                uids.add(inbox.getUID(msg));
+                            } catch (MessagingException ignored) {
+                            }
+                        }
+                        publishState();
+                        mailService.applyPushedExpunge(user, WATCHED_FOLDER, uids);
+
+                        // unknown > 0 表示有些删除对不上 UID，页面上只能提示用户刷新
+                        Map<String, Object> payload = new HashMap<>();
+                        payload.put("uids", uids);
+                        payload.put("unknown", e.getMessages().length - uids.size());
+                        mailEventBroadcaster.publish(user.getEmail(), "removed", payload);
+                    } catch (Exception ex) {
+                        System.err.println("⚠️ 处理删除推送失败: " + ex.getMessage());
+                    }
+                }
+            });
+            // 已读/星标等状态变化：更新本地缓存，并告诉页面哪封邮件变了
+            inbox.addMessageChangedListener(e -> {
+                mailCache.invalidateFolder(user.getEmail(), WATCHED_FOLDER);
+                try {
+                    Message msg = e.getMessage();
+                    long uid = inbox.getUID(msg);
+                    mailService.applyPushedFlags(user, WATCHED_FOLDER, uid, msg.getFlags());
+
+                    Map<String, Object> payload = new HashMap<>();
+                    payload.put("uid", uid);
+                    payload.put("seen", msg.isSet(Flags.Flag.SEEN));
+                    payload.put("flagged", msg.isSet(Flags.Flag.FLAGGED));
+                    mailEventBroadcaster.publish(user.getEmail(), "flags", payload);
+                } catch (Exception ex) {
+                    System.err.println("⚠️ 处理状态变化推送失败: " + ex.getMessage());
+                }
+            });
+
+            folder = inbox;
+            publishState();
+            return inbox;
+        }
+
+        /**
+         * 把收件箱的最新状态记到 MailCache，列表页凭它判断缓存是否可用
+         */
+        private void publishState() throws MessagingException {
+            IMAPFolder f = folder;
+            if (f == null) return;
+            mailCache.putPushedState(user.getEmail(), WATCHED_FOLDER, f.getUIDValidity(), f.getMessageCount());
+        }
+
+        /**
+         * IDLE 续期：发一个 NOOP，打断当前的 IDLE (监听线程会马上重新进入 IDLE)
+         */
+        private void renew() {
+            IMAPFolder f = folder;
+            if (!running || f == null || !f.isOpen()) return;
+            try {
+                f.getMessageCount();
+            } catch (Exception e) {
+                // 连接已经坏了，监听线程那边会收到异常并重连
+            }
+        }
+
+        /**
+         * 关闭监听连接；状态不再实时，列表页回到每次向服务器确认
+         */
+        private synchronized void disconnect() {
+            mailCache.removePushedState(user.getEmail(), WATCHED_FOLDER);
+            IMAPFolder f = folder;
+            folder = null;
+            try {
+                if (f != null && f.isOpen()) f.close(false);
+            } catch (Exception e) {
+            }
+            try {
+                if (store != null) store.close();
+            } catch (Exception e) {
+            }
+            store = null;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.demo.service;
+
+import com.example.demo.entity.OutboxMail;
+import com.example.demo.entity.SentLog;
+import com.example.demo.model.UserAccount;
+import com.example.demo.repository.OutboxMailRepository;
+import com.example.demo.repository.SentLogRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * 发件箱服务 (Outbox)
+ * 作用：写邮件 / 转发 不再在请求线程里等 SMTP 发送 + IMAP 保存副本，邮件记进 outbox_mail 表就返回页面。
+ * * 流程：
+ * 1. 请求线程：上传的附件复制到 OUTBOX_PATH -> 记一条 PENDING -> 返回发件箱 ID；
+ * 2. 调度线程 (mail-outbox-poller)：每 POLL_INTERVAL_MS 取出到时间的邮件，交给发送线程池；
+ * 3. 发送线程 (mail-outbox-N)：组装邮件 (转发时下载原邮件) -> SMTP 发送 -> 保存副本到“已发送” -> 记发送日志。
+ * * 💡 同一个账号同时只发一封，按进入发件箱的顺序发送 (163 / QQ 对同一账号的并发 SMTP 连接有限制)；
+ * 不同账号之间并行。
+ * * 失败处理：
+ * 1. 收件人地址无效：重试也没用，直接 FAILED；
+ * 2. 其它错误 (网络、服务器临时拒绝、原邮件下载失败)：按 30 秒、1 分钟、2 分钟... 退避重试，最多 6 次 (RETRY)。
+ * * 页面通过 getStatus 轮询发送进度 (HelloController /mail/outbox/status)。
+ * * ⚠️ 程序在发送途中退出的话，重启后这封邮件会重新发送一次 (SMTP 不能确认对方是否已经收到)。
+ */
+@Service
+public class OutboxService {
+
+    // 调度线程多久检查一次发件箱
+    private static final long POLL_INTERVAL_MS = 2_000;
+    // 发送线程数 (不同账号并行)
+    private static final int SENDER_THREADS = 3;
+    // 最多尝试 6 次，每次失败后按 30 秒、1 分钟、2 分钟... 退避
+    private static final BackgroundTaskSupport.RetryPolicy RETRY = new BackgroundTaskSupport.RetryPolicy(6, 30_000);
+    // 上传的附件暂存目录
+    private static final String OUTBOX_PATH = MailService.SAVE_PATH + "outbox/";
+
+    @Autowired
+    private OutboxMailRepository outboxMailRepository;
+    @Autowired
+    private BackgroundTaskSupport backgroundTaskSupport;
+    @Autowired
+    private SentLogRepository sentLogRepository;
+    @Autowired
+    private MailService mailService;
+
+    // 已经交给发送线程、还没发完的邮件 ID，防止调度线程重复提交
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    // 正在发送的账号，同一个账号同时只发一封
+    private final Set<String> busyAccounts = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(
+            BackgroundTaskSupport.daemonThreads("mail-outbox-poller", false));
+
+    private final ExecutorService senders = Executors.newFixedThreadPool(SENDER_THREADS,
+            BackgroundTaskSupport.daemonThreads("mail-outbox", true));
+
+    /**
+     * 启动时：上次退出时正在发送的邮件重新排队
+     */
+    @PostConstruct
+    public void init() {
+        try {
+            List<OutboxMail> interrupted = outboxMailRepository.findByStatus(OutboxMail.STATUS_SENDING);
+            for (OutboxMail mail : interrupted) {
+                mail.setStatus(OutboxMail.STATUS_PENDING);
+            }
+            outboxMailRepository.saveAll(interrupted);
+            if (!interrupted.isEmpty()) {
+                System.out.println("🔄 重新发送上次未发完的邮件: " + interrupted.size() + " 封");
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ 恢复发件箱失败: " + e.getMessage());
+        }
+        poller.scheduleWithFixedDelay(this::poll, POLL_INTERVAL_MS, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 没发完的邮件还在数据库里，下次启动继续
+        poller.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    // ================== 请求线程：放进发件箱 ==================
+
+    /**
+     * 写邮件 / 回复：放进发件箱
+     *
+     * @return 发件箱记录 (ID 用来查询发送进度)
+     */
+    public OutboxMail enqueueMail(UserAccount user, String to, String subject, String content, MultipartFile file,
+                                  String replyFolder, Long replyUid) throws Exception {
+        OutboxMail mail = new OutboxMail(user.getEmail(), OutboxMail.TYPE_SEND, to, subject, content);
+        mail.setAccountId(user.getAccountId());
+        mail.setSourceFolder(replyFolder);
+        mail.setSourceUid(replyUid);
+
+        // 上传的临时文件在请求结束后就会被删除，先复制到发件箱目录
+        if (file != null && !file.isEmpty()) {
+            String name = file.getOriginalFilename();
+            Path dir = Paths.get(OUTBOX_PATH);
+            Files.createDirectories(dir);
+            Path target = dir.resolve(UUID.randomUUID() + ".att");
+            try (var in = file.getInputStream()) {
+                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            mail.setAttachmentName(name);
+            mail.setAttachmentPath(target.toString());
+        }
+        return wake(outboxMailRepository.save(mail));
+    }
+
+    /**
+     * 转发：放进发件箱 (原邮件到发送时再下载)
+     */
+    public OutboxMail enqueueForward(UserAccount user, String folder, Long uid, String to, String comment) {
+        OutboxMail mail = new OutboxMail(user.getEmail(), OutboxMail.TYPE_FORWARD, to, "Fwd: (转发邮件)", comment);
+        mail.setAccountId(user.getAccountId());
+        mail.setSourceFolder(folder);
+        mail.setSourceUid(uid);
+        return wake(outboxMailRepository.save(mail));
+    }
+
+    /**
+     * 新邮件进来不用等下一轮检查，马上调度一次
+     */
+    private OutboxMail wake(OutboxMail mail) {
+        poller.execute(this::poll);
+        return mail;
+    }
+
+    /**
+     * 查询发送进度 (只能查自己账号的)
+     */
+    public OutboxMail getStatus(UserAccount user, Long id) {
+        return outboxMailRepository.findByIdAndAccountEmail(id, user.getEmail());
+    }
+
+    // ================== 后台线程：发送 ==================
+
+    private void poll() {
+        try {
+            List<OutboxMail> due = outboxMailRepository
+                    .findTop50ByStatusAndNextAttemptTimeLessThanEqualOrderByIdAsc(OutboxMail.STATUS_PENDING,
+                            System.currentTimeMillis());
+            for (OutboxMail mail : due) {
+                // 按 ID 顺序，每个账号只取第一封，发完下一轮再取
+                if (inFlight.contains(mail.getId()) || !busyAccounts.add(mail.getAccountEmail())) continue;
+                inFlight.add(mail.getId());
+                senders.execute(() -> {
+                    try {
+                        send(mail);
+                    } catch (Exception e) {
+                        // 数据库写失败等；状态可能停在 SENDING，下次启动时会重新排队
+                        System.err.println("❌ 发件箱处理异常: " + e.getMessage());
+                    } finally {
+                        inFlight.remove(mail.getId());
+                        busyAccounts.remove(mail.getAccountEmail());
+                    }
+                });
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ 读取发件箱失败: " + e.getMessage());
+        }
+    }
+
+    private void send(OutboxMail mail) {
+        mail.setStatus(OutboxMail.STATUS_SENDING);
+        mail.setAttempts(mail.getAttempts() + 1);
+        outboxMailRepository.save(mail);
+
+        // 取账号也放在 try 里：数据库出错时按普通错误重试，不会一直停在 SENDING
+        UserAccount user;
+        try {
+            user = backgroundTaskSupport.loadAccount(mail.getAccountId(), mail.getAccountEmail());
+            if (user == null) {
+                finish(mail, OutboxMail.STATUS_FAILED, "邮箱账号已解绑");
+                return;
+            }
+            MimeMessage message;
+            if (OutboxMail.TYPE_FORWARD.equals(mail.getType())) {
+                message = mailService.buildForward(user, mail.getSourceFolder(), mail.getSourceUid(),
+                        mail.getReceiver(), mail.getContent());
+            } else {
+                FileSystemResource attachment = mail.getAttachmentPath() != null
+                        ? new FileSystemResource(mail.getAttachmentPath()) : null;
+                message = mailService.buildMail(user, mail.getReceiver(), mail.getSubject(), mail.getContent(),
+                        mail.getAttachmentName(), attachment, mail.getSourceFolder(), mail.getSourceUid());
+            }
+            mailService.deliver(user, message);
+        } catch (Exception e) {
+            if (isPermanent(e) || !RETRY.canRetry(mail.getAttempts())) {
+                System.err.println("❌ 邮件发送失败 [" + mail.getAccountEmail() + " -> " + mail.getReceiver() + "]: "
+                        + e.getMessage());
+                finish(mail, OutboxMail.STATUS_FAILED, e.getMessage());
+            } else {
+                long delay = RETRY.delayMs(mail.getAttempts());
+                System.err.println("⚠️ 邮件发送失败，" + (delay / 1000) + " 秒后重试 [" + mail.getAccountEmail()
+                        + " -> " + mail.getReceiver() + "]: " + e.getMessage());
+                mail.setStatus(OutboxMail.STATUS_PENDING);
+                mail.setNextAttemptTime(System.currentTimeMillis() + delay);
+                mail.setLastError(BackgroundTaskSupport.truncate(e.getMessage()));
+                outboxMailRepository.save(mail);
+            }
+            return;
+        }
+
+        mail.setSentTime(System.currentTimeMillis());
+        finish(mail, OutboxMail.STATUS_SENT, null);
+        // 保存发送日志
+        sentLogRepository.save(new SentLog(mail.getReceiver(), mail.getSubject(), mail.getContent(), user.getAccountId()));
+    }
+
+    /**
+     * 发送结束 (成功或彻底失败)：记下结果，删掉暂存的附件
+     */
+    private void finish(OutboxMail mail, String status, String error) {
+        mail.setStatus(status);
+        mail.setLastError(BackgroundTaskSupport.truncate(error));
+        outboxMailRepository.save(mail);
+        if (mail.getAttachmentPath() != null) {
+            new File(mail.getAttachmentPath()).delete();
+        }
+    }
+
+    /**
+     * 收件人地址写错了之类的错误，重试也不会成功 (顺着异常原因一层层找)
+     */
+    private boolean isPermanent(Throwable e) {
+        if (e instanceof AddressException) return true;
+        if (e instanceof SendFailedException) {
+            SendFailedException sfe = (SendFailedException) e;
+            if (sfe.getInvalidAddresses() != null && sfe.getInvalidAddresses().length > 0) return true;
+        }
+        Throwable cause = e.getCause();
+        return cause != null && cause != e && isPermanent(cause);
+    }
+}
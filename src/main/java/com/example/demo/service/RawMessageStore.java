@@ -0,0 +1,229 @@
+package com.example.demo.service;
+
+import com.example.demo.utils.MappedSharedInputStream;
+import jakarta.annotation.PostConstruct;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * 原始邮件存储 (Raw Message Store)
+ * 作用：把下载过的整封邮件 (RFC 822 原文) 存在本地磁盘上，再次打开、回复、转发时直接读本地文件，不再重新下载。
+ * * 💡 为什么可以放心地长期缓存？
+ * IMAP 规定：同一个文件夹里，UIDVALIDITY 不变时，一个 UID 永远对应同一封邮件，邮件内容也不会被修改。
+ * 所以 (账号, 文件夹, UIDVALIDITY, UID) 就是邮件内容的唯一标识，按它存放的文件永远不会过期，
+ * 只有 UIDVALIDITY 变化时整个目录作废 (dropValidity)。
+ * * 目录结构：RAW_PATH / 账号文件夹的哈希 / UIDVALIDITY / UID.eml
+ * (文件夹名可能有中文、斜杠，用哈希做目录名，避免路径问题)
+ * * 读取：用 FileChannel.map 把文件映射进内存，交给 MappedSharedInputStream 解析，正文和附件不会复制到堆里。
+ * * 容量：总大小超过 MAX_TOTAL_BYTES 时按最近最少使用 (LRU) 删除。
+ * 访问顺序记在文件的修改时间上 (读取时更新)，重启后按修改时间重建 LRU 顺序。
+ * * ⚠️ Windows 上被映射着的文件在 GC 回收映射之前删不掉，淘汰时删除失败的文件留到下一轮再删。
+ */
+@Component
+public class RawMessageStore {
+
+    // 存放目录
+    private static final String RAW_PATH = MailService.SAVE_PATH + "raw/";
+    // 总容量上限
+    private static final long MAX_TOTAL_BYTES = 1024L * 1024 * 1024;
+    // 单封邮件超过这个大小不缓存 (映射的上限是 2GB，而且这么大的邮件也不值得占着缓存)
+    private static final long MAX_MESSAGE_BYTES = 256L * 1024 * 1024;
+
+    // 解析本地邮件用的 Session (只用来解析 MIME，不连任何服务器)
+    private final Session parseSession = Session.getInstance(new Properties());
+
+    // 文件 -> 大小，按访问顺序排列 (最久未用的在最前面)
+    private final LinkedHashMap<Path, Long> lru = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes = 0;
+
+    /**
+     * 启动时扫描已有的文件，按修改时间 (即上次访问时间) 重建 LRU 顺序
+     */
+    @PostConstruct
+    public void init() {
+        Path root = Paths.get(RAW_PATH);
+        if (!Files.isDirectory(root)) return;
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.filter(p -> p.toString().endsWith(".eml")).forEach(files::add);
+        } catch (IOException e) {
+            System.err.println("⚠️ 扫描本地原始邮件失败: " + e.getMessage());
+            return;
+        }
+        files.sort(Comparator.comparingLong(p -> p.toFile().lastModified()));
+        synchronized (lru) {
+            for (Path p : files) {
+                long size = p.toFile().length();
+                lru.put(p, size);
+                totalBytes += size;
+            }
+        }
+        evictIfNeeded();
+        System.out.println("✅ 本地原始邮件: " + files.size() + " 封, " + (totalBytes / 1024 / 1024) + " MB");
+    }
+
+    /**
+     * 读取本地保存的邮件，没有时返回 null
+     */
+    public MimeMessage load(String account, String realFolder, long uidValidity, long uid) {
+        Path file = pathOf(account, realFolder, uidValidity, uid);
+        if (!Files.exists(file)) return null;
+        try {
+            MimeMessage msg = open(file);
+            touch(file);
+            return msg;
+        } catch (Exception e) {
+            // 文件损坏 (比如写到一半断电)，删掉重新下载
+            System.err.println("⚠️ 本地原始邮件损坏，重新下载: " + file);
+            remove(file);
+            return null;
+        }
+    }
+
+    /**
+     * 下载整封邮件存到本地，返回从本地文件解析出来的邮件
+     * 先写临时文件再改名，写到一半失败不会留下半截文件。
+     *
+     * @return 保存失败 (磁盘满、邮件太大等) 时返回 null，调用方直接用服务器上的 Message
+     */
+    public MimeMessage save(String account, String realFolder, long uidValidity, long uid, Message message) {
+        Path file = pathOf(account, realFolder, uidValidity, uid);
+        Path tmp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tmp = Files.createTempFile(file.getParent(), "dl-", ".tmp");
+            // IMAPMessage#writeTo 发 BODY.PEEK[]，服务器原样返回整封邮件
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                message.writeTo(out);
+            }
+            long size = Files.size(tmp);
+            if (size > MAX_MESSAGE_BYTES) {
+                Files.deleteIfExists(tmp);
+                return null;
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (lru) {
+                Long old = lru.put(file, size);
+                totalBytes += size - (old != null ? old : 0);
+            }
+            evictIfNeeded();
+            return open(file);
+        } catch (Exception e) {
+            System.err.println("⚠️ 保存原始邮件失败: " + e.getMessage());
+            if (tmp != null) tmp.toFile().delete();
+            return null;
+        }
+    }
+
+    /**
+     * 文件夹的 UIDVALIDITY 变了：旧的 UID 全部作废，删掉整个目录
+     */
+    public void dropValidity(String account, String realFolder, long uidValidity) {
+        Path dir = folderDir(account, realFolder).resolve(String.valueOf(uidValidity));
+        if (!Files.isDirectory(dir)) return;
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(this::remove);
+        } catch (IOException e) {
+            System.err.println("⚠️ 清理本地原始邮件失败: " + e.getMessage());
+        }
+        dir.toFile().delete();
+    }
+
+    /**
+     * 邮件已经从服务器上删除 / 移走：删掉本地保存的原文 (不管是哪个 UIDVALIDITY 下存的)
+     */
+    public void remove(String account, String realFolder, Collection<Long> uids) {
+        if (uids.isEmpty()) return;
+        Path dir = folderDir(account, realFolder);
+        if (!Files.isDirectory(dir)) return;
+        try (Stream<Path> validities = Files.list(dir)) {
+            validities.filter(Files::isDirectory).forEach(v -> {
+                for (Long uid : uids) {
+                    Path file = v.resolve(uid + ".eml");
+                    if (Files.exists(file)) remove(file);
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("⚠️ 清理本地原始邮件失败: " + e.getMessage());
+        }
+    }
+
+    // ================== 内部方法 ==================
+
+    /**
+     * 把文件映射进内存并解析 (只解析邮件头和 MIME 结构，正文按需从映射里读)
+     */
+    private MimeMessage open(Path file) throws Exception {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // 映射建立之后关闭 FileChannel 不影响映射本身
+            return new MimeMessage(parseSession,
+                    new MappedSharedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        }
+    }
+
+    /**
+     * 记一次访问：更新 LRU 顺序，并把时间写到文件上，重启后还能按它排序
+     */
+    private void touch(Path file) {
+        synchronized (lru) {
+            lru.get(file);
+        }
+        file.toFile().setLastModified(System.currentTimeMillis());
+    }
+
+    private void remove(Path file) {
+        File f = file.toFile();
+        long size = f.length();
+        if (!f.delete() && f.exists()) return; // 还被映射着 (Windows)，下次再删
+        synchronized (lru) {
+            if (lru.remove(file) != null) totalBytes -= size;
+        }
+    }
+
+    /**
+     * 超过容量上限时，从最久未用的开始删
+     */
+    private void evictIfNeeded() {
+        List<Path> victims = new ArrayList<>();
+        synchronized (lru) {
+            long bytes = totalBytes;
+            Iterator<Map.Entry<Path, Long>> it = lru.entrySet().iterator();
+            while (bytes > MAX_TOTAL_BYTES && it.hasNext()) {
+                Map.Entry<Path, Long> e = it.next();
+                victims.add(e.getKey());
+                bytes -= e.getValue();
+            }
+        }
+        victims.forEach(this::remove);
+    }
+
+    private Path pathOf(String account, String realFolder, long uidValidity, long uid) {
+        return folderDir(account, realFolder).resolve(String.valueOf(uidValidity)).resolve(uid + ".eml");
+    }
+
+    private Path folderDir(String account, String realFolder) {
+        return Paths.get(RAW_PATH, hash(account + "|" + realFolder));
+    }
+
+    private static String hash(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
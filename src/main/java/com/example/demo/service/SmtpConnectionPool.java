@@ -0,0 +1,257 @@
+package com.example.demo.service;
+
+import com.example.demo.model.UserAccount;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SMTP 连接池
+ * 作用：按邮箱账号缓存已经登录好的 SMTP Transport，连续发送多封邮件时复用同一个会话。
+ * * 💡 为什么需要？
+ * 以前每封邮件都 new 一个 JavaMailSenderImpl，发一封就要 TCP 连接 -> SSL 握手 -> EHLO -> AUTH -> 发送 -> QUIT，
+ * 真正传邮件的只有最后一步。发件箱 (OutboxService) 连续发送同一个账号的邮件时，现在只握手、登录一次。
+ * * 和 ImapConnectionPool 的结构一致：每个账号一个子池，限制连接数，空闲连接后进先出。不同之处：
+ * 1. 复用前发一次 RSET (mail.smtp.userset)，清掉上一封邮件可能残留的事务状态，同时确认连接还活着；
+ * 2. SMTP 服务器踢掉空闲连接比 IMAP 快得多 (通常一两分钟)，所以不做保活，空闲超过 IDLE_EVICT_MS 直接关闭；
+ * 3. 复用的连接发送失败 (多半是服务器已经把它断开了)，换一条新连接重发一次。
+ * * ⚠️ 收件人被拒 (SendFailedException) 不是连接的问题，连接照常放回池子，异常交给调用方处理。
+ */
+@Component
+public class SmtpConnectionPool {
+
+    // 每个账号最多同时保持几个 SMTP 连接 (发件箱对同一账号是逐封发送的，这里留一个给同步发送)
+    private static final int MAX_CONNECTIONS_PER_ACCOUNT = 2;
+    // 借连接时最多等待多久
+    private static final long BORROW_TIMEOUT_MS = 30_000;
+    // 空闲回收：SMTP 服务器一般一两分钟没动静就断开，这里早一点主动关掉
+    private static final long IDLE_EVICT_MS = 60_000;
+
+    // key: 邮箱地址，value: 这个账号的子池
+    private final Map<String, AccountPool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * 单个账号的子池
+     */
+    private static class AccountPool {
+        final Session session;      // 同一账号共用一个 Session
+        final Semaphore permits;    // 限制同时存在的连接数
+        final Deque<PooledTransport> idle = new ArrayDeque<>(); // 空闲连接 (后进先出)
+
+        AccountPool(Session session, int maxConnections) {
+            this.session = session;
+            this.permits = new Semaphore(maxConnections, true);
+        }
+    }
+
+    /**
+     * 连接包装对象：记录最近使用时间
+     */
+    private static class PooledTransport {
+        final Transport transport;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+    }
+
+    /**
+     * 用账号的 Session 新建一封空邮件 (编码等设置和发送时一致)
+     */
+    public MimeMessage createMimeMessage(UserAccount user) {
+        return new MimeMessage(getSession(user));
+    }
+
+    /**
+     * 账号发信用的 Session
+     */
+    public Session getSession(UserAccount user) {
+        return poolFor(user).session;
+    }
+
+    /**
+     * 【发送邮件】借一条已登录的连接发送，发完放回池子
+     * 邮件头 (发送时间、Message-ID) 由调用方在发送前准备好 (saveChanges)，这里原样发送，
+     * 不再调用 saveChanges，否则从文件解析出来的邮件会被重新编码一遍 (见 MailService#deliver)。
+     */
+    public void send(UserAccount user, MimeMessage message) throws MessagingException {
+        AccountPool pool = poolFor(user);
+        try {
+            if (!pool.permits.tryAcquire(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new MessagingException("SMTP 连接池繁忙，请稍后重试");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("等待 SMTP 连接时被中断");
+        }
+
+        try {
+            PooledTransport pt = pollIdle(pool);
+            if (pt != null) {
+                try {
+                    transmit(pool, pt, message);
+                    return;
+                } catch (SendFailedException e) {
+                    throw e;
+                } catch (MessagingException e) {
+                    // 复用的连接坏了，换新连接重发
+                    System.err.println("⚠️ SMTP 连接已失效，重新连接 [" + user.getEmail() + "]: " + e.getMessage());
+                }
+            }
+            transmit(pool, new PooledTransport(connect(pool.session, user)), message);
+        } finally {
+            pool.permits.release();
+        }
+    }
+
+    /**
+     * 在一条连接上发送；成功或收件人被拒时放回池子，其它错误关闭连接
+     */
+    private void transmit(AccountPool pool, PooledTransport pt, MimeMessage message) throws MessagingException {
+        try {
+            pt.transport.sendMessage(message, message.getAllRecipients());
+        } catch (SendFailedException e) {
+            giveBack(pool, pt);
+            throw e;
+        } catch (MessagingException | RuntimeException e) {
+            closeQuietly(pt.transport);
+            throw e;
+        }
+        giveBack(pool, pt);
+    }
+
+    private void giveBack(AccountPool pool, PooledTransport pt) {
+        pt.lastUsed = System.currentTimeMillis();
+        synchronized (pool.idle) {
+            pool.idle.addFirst(pt);
+        }
+    }
+
+    /**
+     * 关闭某个账号的所有空闲连接 (例如账号被解绑、授权码被修改)
+     * 子池本身保留：正在发送的连接发完还要放回这个子池，之后按空闲规则回收。
+     */
+    public void evictAccount(String email) {
+        AccountPool pool = pools.get(email);
+        if (pool == null) return;
+        synchronized (pool.idle) {
+            pool.idle.forEach(pt -> closeQuietly(pt.transport));
+            pool.idle.clear();
+        }
+    }
+
+    /**
+     * 【后台维护任务】空闲回收
+     * SMTP 连接不保活，空闲超过 IDLE_EVICT_MS 的直接 QUIT。
+     */
+    @Scheduled(fixedDelay = 30_000)
+    public void maintain() {
+        long now = System.currentTimeMillis();
+        for (AccountPool pool : pools.values()) {
+            List<PooledTransport> toClose = new ArrayList<>();
+            synchronized (pool.idle) {
+                Iterator<PooledTransport> it = pool.idle.iterator();
+                while (it.hasNext()) {
+                    PooledTransport pt = it.next();
+                    if (now - pt.lastUsed > IDLE_EVICT_MS) {
+                        it.remove();
+                        toClose.add(pt);
+                    }
+                }
+            }
+            toClose.forEach(pt -> closeQuietly(pt.transport));
+        }
+    }
+
+    /**
+     * 应用关闭时 QUIT 所有空闲连接
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (AccountPool pool : pools.values()) {
+            synchronized (pool.idle) {
+                pool.idle.forEach(pt -> closeQuietly(pt.transport));
+                pool.idle.clear();
+            }
+        }
+    }
+
+    // ================== 内部方法 ==================
+
+    private AccountPool poolFor(UserAccount user) {
+        return pools.computeIfAbsent(user.getEmail(),
+                k -> new AccountPool(createSession(user), MAX_CONNECTIONS_PER_ACCOUNT));
+    }
+
+    /**
+     * 取出一条空闲连接，并发 RSET 确认可用 (mail.smtp.userset 让 isConnected 用 RSET 代替 NOOP)
+     * 空闲太久或 RSET 失败的连接直接关闭，继续找下一条。
+     */
+    private PooledTransport pollIdle(AccountPool pool) {
+        while (true) {
+            PooledTransport pt;
+            synchronized (pool.idle) {
+                pt = pool.idle.pollFirst();
+            }
+            if (pt == null) return null;
+            if (System.currentTimeMillis() - pt.lastUsed <= IDLE_EVICT_MS && pt.transport.isConnected()) {
+                return pt;
+            }
+            closeQuietly(pt.transport);
+        }
+    }
+
+    /**
+     * 为账号创建 Session (每个账号只创建一次)，设置和原来的 JavaMailSenderImpl 一致
+     */
+    private Session createSession(UserAccount user) {
+        Properties props = new Properties();
+        props.put("mail.transport.protocol", "smtp");
+        props.put("mail.smtp.host", user.getSmtpHost());
+        props.put("mail.smtp.port", String.valueOf(user.getSmtpPort())); // 通常是 465
+        props.put("mail.smtp.auth", "true");
+        props.put("mail.smtp.ssl.trust", "*");
+        // 【修复】163、QQ 和 HUST 使用 465 端口时，都必须开启 SSL 才能连接
+        if ("qq".equals(user.getType()) || "163".equals(user.getType()) || "hust".equals(user.getType())) {
+            props.put("mail.smtp.ssl.enable", "true");
+        }
+        // 复用连接前用 RSET 检查，顺便重置事务状态
+        props.put("mail.smtp.userset", "true");
+        // 连接会被复用，必须设置超时，否则网络断了之后会一直卡住
+        props.put("mail.smtp.connectiontimeout", "15000");
+        props.put("mail.smtp.timeout", "60000");
+        props.put("mail.smtp.writetimeout", "60000");
+        props.put("mail.mime.charset", "UTF-8");
+        return Session.getInstance(props);
+    }
+
+    private Transport connect(Session session, UserAccount user) throws MessagingException {
+        Transport transport = session.getTransport("smtp");
+        transport.connect(user.getSmtpHost(), user.getSmtpPort(), user.getEmail(), user.getPassword());
+        return transport;
+    }
+
+    private void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (Exception e) {
+        }
+    }
+}
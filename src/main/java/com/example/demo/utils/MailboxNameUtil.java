@@ -0,0 +1,24 @@
+package com.example.demo.utils;
+
+import org.eclipse.angus.mail.iap.Argument;
+import org.eclipse.angus.mail.imap.protocol.BASE64MailboxEncoder;
+import org.eclipse.angus.mail.imap.protocol.IMAPProtocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * IMAP 文件夹名工具类
+ * 自己拼 IMAP 命令 (批量 STATUS、UID MOVE / COPY) 时，文件夹名要按服务器的能力编码，
+ * 规则和 IMAPProtocol#writeMailboxName 一致：支持 UTF8=ACCEPT 时直接写 UTF-8，否则用 modified UTF-7。
+ */
+public class MailboxNameUtil {
+
+    // 把文件夹名写进命令参数
+    public static void writeMailboxName(Argument args, IMAPProtocol p, String name) {
+        if (p.supportsUtf8()) {
+            args.writeString(name, StandardCharsets.UTF_8);
+        } else {
+            args.writeString(BASE64MailboxEncoder.encode(name));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.demo.utils;
+
+import jakarta.mail.internet.SharedInputStream;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于内存映射文件 (MappedByteBuffer) 的 SharedInputStream
+ * 把它交给 new MimeMessage(session, in) 解析时，JavaMail 不会把正文和附件复制一份到堆里，
+ * 每个 MIME 部分只是原文件上的一段切片 (newStream)，读的时候由操作系统按页从磁盘 / 页缓存加载。
+ * JavaMail 自带的 SharedByteArrayInputStream 要求整封邮件先读进 byte[]，SharedFileInputStream 每次读都要走文件 IO，
+ * 这里是两者之间的折中：零拷贝，且读过的页由操作系统缓存。
+ */
+public class MappedSharedInputStream extends InputStream implements SharedInputStream {
+
+    // 本流可读的范围 (position 从 0 开始)
+    private final ByteBuffer buf;
+
+    public MappedSharedInputStream(ByteBuffer buf) {
+        this.buf = buf.slice();
+    }
+
+    @Override
+    public int read() {
+        return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) return 0;
+        if (!buf.hasRemaining()) return -1;
+        int n = Math.min(len, buf.remaining());
+        buf.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) return 0;
+        int skipped = (int) Math.min(n, buf.remaining());
+        buf.position(buf.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buf.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        buf.mark();
+    }
+
+    @Override
+    public synchronized void reset() {
+        buf.reset();
+    }
+
+    /**
+     * 当前读到的位置 (相对于本流的开头)
+     */
+    @Override
+    public long getPosition() {
+        return buf.position();
+    }
+
+    /**
+     * 截取本流的 [start, end) 作为一个新流，end 为 -1 表示到结尾；和原流共用同一块映射内存
+     */
+    @Override
+    public InputStream newStream(long start, long end) {
+        if (end == -1) end = buf.limit();
+        ByteBuffer dup = buf.duplicate();
+        dup.limit((int) end);
+        dup.position((int) start);
+        return new MappedSharedInputStream(dup);
+    }
+}
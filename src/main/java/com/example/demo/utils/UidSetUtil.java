@@ -0,0 +1,31 @@
+package com.example.demo.utils;
+
+import org.eclipse.angus.mail.imap.protocol.UIDSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * IMAP UID 集合工具类
+ * 把一批 UID 压缩成 IMAP 的集合写法 (如 "1:5,8,10:12")，连续的 UID 合并成区间，
+ * 批量命令 (UID STORE / UID MOVE) 和操作日志 (MailOperation) 都用这种写法。
+ */
+public class UidSetUtil {
+
+    // UID 列表 -> "1:5,8,10:12" (自动去重、排序)
+    public static String toUidSet(Collection<Long> uids) {
+        long[] sorted = uids.stream().mapToLong(Long::longValue).distinct().sorted().toArray();
+        return UIDSet.toString(UIDSet.createUIDSets(sorted));
+    }
+
+    // "1:5,8,10:12" -> UID 列表
+    public static List<Long> parse(String uidSet) {
+        List<Long> list = new ArrayList<>();
+        if (uidSet == null || uidSet.isEmpty()) return list;
+        for (long uid : UIDSet.toArray(UIDSet.parseUIDSets(uidSet))) {
+            list.add(uid);
+        }
+        return list;
+    }
+}
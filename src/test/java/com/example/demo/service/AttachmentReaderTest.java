@@ -0,0 +1,180 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AttachmentReader#imapRange 的偏移计算：解码后的第 n 个字节对应原文的哪一行
+ * 服务器上的部件用字节数组代替 (SectionFetcher 直接从数组里取)
+ */
+class AttachmentReaderTest {
+
+    // 一行 76 个字符，解码出 57 字节
+    private static final int PER_LINE = 57;
+
+    /**
+     * 模拟服务器：按偏移从编码后的内容里取，并记下每次取的位置
+     */
+    private static class FakeSection implements AttachmentReader.SectionFetcher {
+        final byte[] encoded;
+        final List<long[]> fetches = new ArrayList<>();
+
+        FakeSection(byte[] encoded) {
+            this.encoded = encoded;
+        }
+
+        @Override
+        public byte[] fetch(long start, int len) {
+            fetches.add(new long[]{start, len});
+            int from = (int) Math.min(start, encoded.length);
+            int to = (int) Math.min(start + len, encoded.length);
+            return Arrays.copyOfRange(encoded, from, to);
+        }
+    }
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 和邮件里一样的 base64：每行 76 个字符 + CRLF，最后一行后面也有 CRLF
+     */
+    private static byte[] mimeBase64(byte[] data) {
+        String text = Base64.getMimeEncoder().encodeToString(data);
+        return (text.isEmpty() ? text : text + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] readRange(AttachmentReader reader, long start, long end) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reader.writeRange(out, start, end);
+        return out.toByteArray();
+    }
+
+    private static AttachmentReader base64Reader(byte[] encoded) throws Exception {
+        return AttachmentReader.imapRange(new FakeSection(encoded), "base64", encoded.length);
+    }
+
+    @Test
+    void lengthOfPartialLastLine() throws Exception {
+        for (int size : new int[]{1, 2, 3, 56, 58, 100, 1000, 12345}) {
+            AttachmentReader reader = base64Reader(mimeBase64(data(size)));
+            assertNotNull(reader, "size " + size);
+            assertEquals(size, reader.length(), "size " + size);
+        }
+    }
+
+    @Test
+    void lengthOfFullLastLine() throws Exception {
+        for (int lines : new int[]{1, 2, 10, 4096}) {
+            int size = lines * PER_LINE;
+            AttachmentReader reader = base64Reader(mimeBase64(data(size)));
+            assertNotNull(reader, "size " + size);
+            assertEquals(size, reader.length(), "size " + size);
+        }
+    }
+
+    @Test
+    void lengthWithoutTrailingCrlf() throws Exception {
+        byte[] data = data(1000);
+        byte[] encoded = Base64.getMimeEncoder().encode(data);
+        AttachmentReader reader = base64Reader(encoded);
+        assertNotNull(reader);
+        assertEquals(1000, reader.length());
+        assertArrayEquals(data, readRange(reader, 0, 999));
+    }
+
+    @Test
+    void alignedRange() throws Exception {
+        byte[] data = data(10_000);
+        AttachmentReader reader = base64Reader(mimeBase64(data));
+        // 从第 3 行开头到第 5 行结尾
+        byte[] got = readRange(reader, 3 * PER_LINE, 6 * PER_LINE - 1);
+        assertArrayEquals(Arrays.copyOfRange(data, 3 * PER_LINE, 6 * PER_LINE), got);
+    }
+
+    @Test
+    void unalignedRange() throws Exception {
+        byte[] data = data(10_000);
+        AttachmentReader reader = base64Reader(mimeBase64(data));
+        for (int[] r : new int[][]{{1, 1}, {5, 60}, {56, 57}, {100, 4321}, {9_998, 9_998}}) {
+            byte[] got = readRange(reader, r[0], r[1]);
+            assertArrayEquals(Arrays.copyOfRange(data, r[0], r[1] + 1), got, r[0] + "-" + r[1]);
+        }
+    }
+
+    @Test
+    void finalLineRange() throws Exception {
+        byte[] data = data(10_000);
+        AttachmentReader reader = base64Reader(mimeBase64(data));
+        // 10000 = 175 * 57 + 25，最后一行只有 25 字节
+        int lastLineStart = 175 * PER_LINE;
+        assertArrayEquals(Arrays.copyOfRange(data, lastLineStart, 10_000), readRange(reader, lastLineStart, 9_999));
+        assertArrayEquals(Arrays.copyOfRange(data, 9_990, 10_000), readRange(reader, 9_990, 9_999));
+        assertArrayEquals(Arrays.copyOfRange(data, 9_999, 10_000), readRange(reader, 9_999, 9_999));
+    }
+
+    @Test
+    void rangeAcrossChunks() throws Exception {
+        // 一次取 4096 行，超过这个长度要分几次取
+        byte[] data = data(600_000);
+        byte[] encoded = mimeBase64(data);
+        FakeSection section = new FakeSection(encoded);
+        AttachmentReader reader = AttachmentReader.imapRange(section, "base64", encoded.length);
+        assertNotNull(reader);
+        section.fetches.clear();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reader.writeAll(out);
+        assertArrayEquals(data, out.toByteArray());
+        assertEquals(3, section.fetches.size());
+        for (long[] f : section.fetches) {
+            // 每次都从某一行的开头取
+            assertEquals(0, f[0] % 78);
+        }
+
+        int start = 4096 * PER_LINE - 10;
+        assertArrayEquals(Arrays.copyOfRange(data, start, start + 20), readRange(reader, start, start + 19));
+    }
+
+    @Test
+    void identityEncoding() throws Exception {
+        byte[] data = data(300_000);
+        FakeSection section = new FakeSection(data);
+        AttachmentReader reader = AttachmentReader.imapRange(section, "binary", data.length);
+        assertNotNull(reader);
+        assertEquals(data.length, reader.length());
+        assertArrayEquals(Arrays.copyOfRange(data, 12_345, 290_000), readRange(reader, 12_345, 289_999));
+        // 不编码的部件不用探测，直接从请求的位置开始取
+        assertEquals(12_345, section.fetches.get(0)[0]);
+    }
+
+    @Test
+    void irregularLayoutIsRejected() throws Exception {
+        // 行长不是 4 的倍数
+        assertNull(base64Reader("QUJDRA\r\nQUJD\r\n".getBytes(StandardCharsets.US_ASCII)));
+        // 后面的行比第一行长，最后一行的位置对不上
+        assertNull(base64Reader("QUJD\r\nQUJDRA==\r\n".getBytes(StandardCharsets.US_ASCII)));
+        // quoted-printable 算不出偏移
+        assertNull(AttachmentReader.imapRange(new FakeSection(new byte[]{'a'}), "quoted-printable", 1));
+    }
+
+    @Test
+    void etagDependsOnUidValidity() throws Exception {
+        byte[] encoded = mimeBase64(data(1000));
+        String a = base64Reader(encoded).tag("a@163.com", "INBOX", 1, 10, "2").getETag();
+        String b = base64Reader(encoded).tag("a@163.com", "INBOX", 2, 10, "2").getETag();
+        assertEquals(a, base64Reader(encoded).tag("a@163.com", "INBOX", 1, 10, "2").getETag());
+        assertNotEquals(a, b);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.demo.utils;
+
+import jakarta.mail.BodyPart;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.internet.SharedInputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * MappedSharedInputStream#newStream：截取出的子流的范围、和原流互不影响，以及交给 MimeMessage 解析的结果
+ */
+class MappedSharedInputStreamTest {
+
+    private static MappedSharedInputStream streamOf(String text) {
+        return new MappedSharedInputStream(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static String readAll(InputStream in) throws Exception {
+        return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void newStreamReturnsRange() throws Exception {
+        MappedSharedInputStream in = streamOf("0123456789");
+        assertEquals("234", readAll(in.newStream(2, 5)));
+        assertEquals("789", readAll(in.newStream(7, -1)));
+        assertEquals("", readAll(in.newStream(4, 4)));
+    }
+
+    @Test
+    void newStreamIgnoresParentPosition() throws Exception {
+        MappedSharedInputStream in = streamOf("0123456789");
+        assertEquals(3, in.skip(3));
+        assertEquals(3, in.getPosition());
+        InputStream sub = in.newStream(1, 4);
+        assertEquals("123", readAll(sub));
+        // 原流读到哪里不受子流影响
+        assertEquals(3, in.getPosition());
+        assertEquals('3', in.read());
+    }
+
+    @Test
+    void nestedStreamIsRelativeToItsStart() throws Exception {
+        MappedSharedInputStream in = streamOf("0123456789");
+        SharedInputStream sub = (SharedInputStream) in.newStream(2, 9);
+        assertEquals(0, sub.getPosition());
+        assertEquals("456", readAll(sub.newStream(2, 5)));
+        assertEquals("5678", readAll(sub.newStream(3, -1)));
+    }
+
+    @Test
+    void markAndReset() throws Exception {
+        MappedSharedInputStream in = streamOf("abcdef");
+        assertEquals('a', in.read());
+        in.mark(10);
+        assertEquals('b', in.read());
+        assertEquals('c', in.read());
+        in.reset();
+        assertEquals("bcdef", readAll(in));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void parsesMultipartMessage() throws Exception {
+        String raw = "Subject: test\r\n"
+                + "MIME-Version: 1.0\r\n"
+                + "Content-Type: multipart/mixed; boundary=\"b1\"\r\n"
+                + "\r\n"
+                + "--b1\r\n"
+                + "Content-Type: text/plain; charset=us-ascii\r\n"
+                + "\r\n"
+                + "hello\r\n"
+                + "--b1\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Transfer-Encoding: base64\r\n"
+                + "Content-Disposition: attachment; filename=\"a.bin\"\r\n"
+                + "\r\n"
+                + "QUJDREVG\r\n"
+                + "--b1--\r\n";
+        MimeMessage msg = new MimeMessage(Session.getInstance(new Properties()), streamOf(raw));
+        assertEquals("test", msg.getSubject());
+        MimeMultipart mp = (MimeMultipart) msg.getContent();
+        assertEquals(2, mp.getCount());
+        assertEquals("hello", ((String) mp.getBodyPart(0).getContent()).trim());
+        BodyPart att = mp.getBodyPart(1);
+        assertEquals("a.bin", att.getFileName());
+        assertEquals("ABCDEF", readAll(att.getInputStream()));
+    }
+}